@@ -0,0 +1,184 @@
+/*
+ * Copyright 2015 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.apache.drill;
+
+import com.couchbase.apache.drill.n1ql.N1qlUtil;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.calcite.rel.core.Aggregate;
+import org.apache.calcite.rel.core.AggregateCall;
+import org.apache.drill.common.expression.SchemaPath;
+import org.apache.log4j.Logger;
+
+/**
+ * Translates a Drill aggregate into the SELECT list and the GROUP BY list of
+ * a N1QL aggregate query
+ *
+ * COUNT, SUM, MIN, MAX and AVG over plain fields are supported. Every
+ * output field is aliased with the name which Drill expects, so the result
+ * rows can be read like the records of any other scan.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class CBAggregateBuilder {
+
+    private static final Logger LOG = Logger.getLogger(CBAggregateBuilder.class.getName());
+
+    /**
+     * The aggregate to translate
+     */
+    private final Aggregate agg;
+
+    /**
+     * The N1QL path per input field of the aggregate, null if the field can't
+     * be referenced
+     */
+    private final List<String> inputs;
+
+    /**
+     * The rendered SELECT list
+     */
+    private String select;
+
+    /**
+     * The rendered GROUP BY list, null if there are no grouping keys
+     */
+    private String groupBy;
+
+    /**
+     * The output columns
+     */
+    private final List<SchemaPath> columns = new ArrayList<>();
+
+    /**
+     * The constructor
+     *
+     * @param agg
+     * @param inputs
+     */
+    public CBAggregateBuilder(Aggregate agg, List<String> inputs) {
+
+        this.agg = agg;
+        this.inputs = inputs;
+    }
+
+    /**
+     * Translate the aggregate
+     *
+     * @return If the aggregate could be translated
+     */
+    public boolean build() {
+
+        if (agg.indicator || agg.getGroupSets().size() != 1) {
+            return false;
+        }
+
+        List<String> names = agg.getRowType().getFieldNames();
+        List<String> fields = new ArrayList<>();
+        List<String> keys = new ArrayList<>();
+
+        int pos = 0;
+
+        for (int i : agg.getGroupSet()) {
+
+            String key = inputs.get(i);
+
+            if (key == null) return false;
+
+            keys.add(key);
+            fields.add(key + " AS " + N1qlUtil.identifier(names.get(pos++)));
+        }
+
+        for (AggregateCall call : agg.getAggCallList()) {
+
+            String func = function(call);
+
+            if (func == null) return false;
+
+            fields.add(func + " AS " + N1qlUtil.identifier(names.get(pos++)));
+        }
+
+        for (String name : names) {
+
+            if (N1qlUtil.identifier(name) == null) return false;
+
+            columns.add(SchemaPath.getSimplePath(name));
+        }
+
+        this.select = String.join(", ", fields);
+        this.groupBy = keys.isEmpty() ? null : String.join(", ", keys);
+
+        LOG.debug("select = " + select);
+        LOG.debug("groupBy = " + groupBy);
+
+        return true;
+    }
+
+    /**
+     * Render an aggregate function call
+     *
+     * @param call
+     * @return The function call or null if it can't be rendered
+     */
+    private String function(AggregateCall call) {
+
+        String name = call.getAggregation().getName().toUpperCase();
+        List<Integer> args = call.getArgList();
+
+        if (args.isEmpty()) {
+
+            return name.equals("COUNT") && !call.isDistinct() ? "COUNT(*)" : null;
+        }
+
+        if (args.size() != 1) return null;
+
+        String arg = inputs.get(args.get(0));
+
+        if (arg == null) return null;
+
+        String distinct = call.isDistinct() ? "DISTINCT " : "";
+
+        switch (name) {
+
+            case "COUNT":
+            case "SUM":
+            case "AVG":
+                return name + "(" + distinct + arg + ")";
+
+            case "MIN":
+            case "MAX":
+                return name + "(" + arg + ")";
+
+            case "$SUM0":
+                return "IFMISSINGORNULL(SUM(" + distinct + arg + "), 0)";
+
+            default:
+                return null;
+        }
+    }
+
+    public String getSelect() {
+        return select;
+    }
+
+    public String getGroupBy() {
+        return groupBy;
+    }
+
+    public List<SchemaPath> getColumns() {
+        return columns;
+    }
+}
@@ -15,23 +15,45 @@
  */
 package com.couchbase.apache.drill;
 
+import java.util.Collections;
 import java.util.List;
 import org.apache.drill.common.exceptions.ExecutionSetupException;
 import org.apache.drill.exec.ops.FragmentContext;
 import org.apache.drill.exec.physical.impl.BatchCreator;
+import org.apache.drill.exec.physical.impl.ScanBatch;
 import org.apache.drill.exec.record.CloseableRecordBatch;
 import org.apache.drill.exec.record.RecordBatch;
+import org.apache.drill.exec.store.RecordReader;
+import org.apache.log4j.Logger;
 
 /**
- * TODO: Implement
- * 
+ * Creates the scan batch of a sub-scan
+ *
  * @author David Maier <david.maier at couchbase.com>
  */
 public class CBDefaultBatchCreator implements BatchCreator<CBDefaultSubScan> {
 
+    private static final Logger LOG = Logger.getLogger(CBDefaultBatchCreator.class.getName());
+
+    /**
+     * One sub-scan is read by one record reader
+     *
+     * @param context
+     * @param config
+     * @param children
+     * @return
+     * @throws ExecutionSetupException
+     */
     @Override
     public CloseableRecordBatch getBatch(FragmentContext context, CBDefaultSubScan config, List<RecordBatch> children) throws ExecutionSetupException {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+
+        LOG.debug("Creating the scan batch ...");
+
+        if (!children.isEmpty()) throw new IllegalArgumentException("Childs are not supported!");
+
+        List<RecordReader> readers = Collections.singletonList(new CBDefaultRecordReader(context, config));
+
+        return new ScanBatch(config, context, readers.iterator());
     }
-    
+
 }
@@ -16,20 +16,39 @@
 package com.couchbase.apache.drill;
 
 import com.couchbase.apache.drill.config.CBStoragePluginConfig;
-import com.couchbase.apache.drill.config.CouchbaseConfig;
-import com.couchbase.apache.drill.conn.BucketFactory;
+import com.couchbase.apache.drill.error.IndexSampleError;
+import com.couchbase.apache.drill.error.ViewReadError;
+import com.couchbase.apache.drill.n1ql.N1qlUtil;
+import com.couchbase.apache.drill.partition.IndexRange;
+import com.couchbase.apache.drill.partition.IndexRangePartitioner;
+import com.couchbase.apache.drill.partition.KeyRange;
+import com.couchbase.apache.drill.partition.KeyRangePartitioner;
+import com.couchbase.apache.drill.partition.VBucketMap;
+import com.couchbase.apache.drill.partition.VBucketPartitioner;
+import com.couchbase.apache.drill.partition.VBucketRange;
+import com.couchbase.apache.drill.partition.ViewRange;
+import com.couchbase.apache.drill.partition.ViewRangePartitioner;
+import com.couchbase.apache.drill.stats.BucketStats;
+import com.couchbase.apache.drill.view.ViewUtil;
 import com.couchbase.client.java.Bucket;
 import com.fasterxml.jackson.annotation.JacksonInject;
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonTypeName;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import org.apache.drill.common.exceptions.ExecutionSetupException;
+import org.apache.drill.common.expression.SchemaPath;
+import org.apache.drill.exec.physical.EndpointAffinity;
 import org.apache.drill.exec.physical.PhysicalOperatorSetupException;
 import org.apache.drill.exec.physical.base.AbstractGroupScan;
+import org.apache.drill.exec.physical.base.GroupScan;
 import org.apache.drill.exec.physical.base.PhysicalOperator;
+import org.apache.drill.exec.physical.base.ScanStats;
 import org.apache.drill.exec.physical.base.SubScan;
 import org.apache.drill.exec.proto.CoordinationProtos;
 import org.apache.drill.exec.store.StoragePluginRegistry;
@@ -46,9 +65,10 @@ import org.apache.log4j.Logger;
  * 
  *  Multiple scan implementations would be possible:
  * 
- * * DCP Mutation scan (Group per node/vBucket)
- * * N1QL Primary Index scan (Don't group at all - SELECT * FROM bucket)
+ * * DCP Mutation scan (Group per node/vBucket), see CBScanMode.DCP
+ * * N1QL Primary Index scan (Group per range of sampled document keys)
  * * N1QL Secondary Index scan (Group per GSI)
+ * * View scan (Group per range of view keys), see CBScanMode.VIEW
  * 
  * @author David Maier <david.maier at couchbase.com>
  */
@@ -93,6 +113,70 @@ public class CBDefaultGroupScan extends AbstractGroupScan {
      */
     protected final String bucketName;
     
+    /**
+     * The master node per vBucket
+     */
+    protected final VBucketMap vBucketMap;
+    
+    /**
+     * The vBuckets which can contain matching documents. Only the vBuckets of
+     * the looked up keys are scanned, otherwise all.
+     */
+    protected final List<Integer> candidates;
+    
+    /**
+     * The vBuckets per minor fragment, the index is the minor fragment id
+     */
+    protected List<List<VBucketRange>> assignments;
+    
+    /**
+     * The document keys per minor fragment of a N1QL scan which is split up
+     * by keys, otherwise null
+     */
+    protected List<KeyRange> keyRanges;
+    
+    /**
+     * The ranges of an indexed field per minor fragment of a N1QL scan which 
+     * is split up via a secondary index, otherwise null
+     */
+    protected List<IndexRange> indexRanges;
+    
+    /**
+     * The ranges of view keys per minor fragment of a view scan, otherwise 
+     * null
+     */
+    protected List<ViewRange> viewRanges;
+    
+    /**
+     * The assumed number of documents of a bucket without statistics
+     */
+    protected static final long ESTIMATED_ROW_COUNT = 1000000L;
+    
+    /**
+     * The assumed size of a document in bytes
+     */
+    protected static final int ESTIMATED_ROW_SIZE = 1024;
+    
+    /**
+     * The assumed size of a document key in bytes
+     */
+    protected static final int ESTIMATED_KEY_SIZE = 64;
+    
+    /**
+     * The assumed number of documents per group of an aggregation
+     */
+    protected static final int ESTIMATED_GROUP_SIZE = 100;
+    
+    /**
+     * The assumed number of top-level fields of a document
+     */
+    protected static final int ESTIMATED_FIELDS_PER_DOC = 10;
+    
+    /**
+     * The assumed share of the documents which match a pushed down filter
+     */
+    protected static final double FILTER_SELECTIVITY = 0.25;
+    
     
     /**
      * Instantiate based on JSON
@@ -124,7 +208,7 @@ public class CBDefaultGroupScan extends AbstractGroupScan {
        this.plugin = plugin;
        this.scanSpec = scanSpec;
        this.config = (CBStoragePluginConfig) plugin.getConfig();
-       this.bucketName = config.getConfig().get(CouchbaseConfig.CB_BUCKET);
+       this.bucketName = scanSpec.getBucket();
            
        LOG.debug("userName = " + userName);
        LOG.debug("bucketName = " + bucketName);
@@ -132,7 +216,12 @@ public class CBDefaultGroupScan extends AbstractGroupScan {
        LOG.debug("scanSpec = " + scanSpec); 
 
        LOG.debug("Ensuring that the bucket connection is available");
-       this.bucket = BucketFactory.getBucket();
+       this.bucket = plugin.getConnections().getBucket(bucketName);
+       this.vBucketMap = new VBucketMap(plugin.getConnections().getBucketConfig(bucketName));
+       this.candidates = candidatesOf(scanSpec, vBucketMap);
+       
+       LOG.debug("numVBuckets = " + vBucketMap.size());
+       LOG.debug("numCandidates = " + candidates.size());
         
     }
      
@@ -143,16 +232,57 @@ public class CBDefaultGroupScan extends AbstractGroupScan {
      * @param that 
      */
     private CBDefaultGroupScan(CBDefaultGroupScan that)
+    {
+        this(that, that.scanSpec);
+    }
+    
+    /**
+     * Copy constructor which replaces the scan spec
+     * 
+     * @param that
+     * @param scanSpec 
+     */
+    private CBDefaultGroupScan(CBDefaultGroupScan that, CBDefaultScanSpec scanSpec)
     {
         super(that);
         
         this.bucketName = that.bucketName;
         this.bucket = that.bucket;
-        this.scanSpec = that.scanSpec;
+        this.scanSpec = scanSpec;
         this.plugin = that.plugin; 
         this.config = that.config;
+        this.vBucketMap = that.vBucketMap;
+        this.candidates = candidatesOf(scanSpec, vBucketMap);
+        this.assignments = that.assignments;
+        this.keyRanges = that.keyRanges;
+        this.indexRanges = that.indexRanges;
+        this.viewRanges = that.viewRanges;
+        this.endpoint = that.endpoint;
     }  
 
+    /**
+     * Prune the vBuckets by the document keys of the scan spec
+     * 
+     * @param scanSpec
+     * @param vBucketMap
+     * @return 
+     */
+    private static List<Integer> candidatesOf(CBDefaultScanSpec scanSpec, VBucketMap vBucketMap) {
+        
+        if (scanSpec.getKeys() != null) {
+            
+            return VBucketPartitioner.vBucketsOf(scanSpec.getKeys(), vBucketMap.size());
+        }
+        
+        List<Integer> all = new ArrayList<>(vBucketMap.size());
+        
+        for (int vb = 0; vb < vBucketMap.size(); vb++) {
+            all.add(vb);
+        }
+        
+        return all;
+    }
+
     
     /**
      * We only support an empty list of children here by returning a new group
@@ -174,11 +304,14 @@ public class CBDefaultGroupScan extends AbstractGroupScan {
      * The idea is to split the work up into fragments by executing against multiple
      * endpoints.
      * 
-     * We will just allow one endpoint here for now.
+     * Each endpoint stands for one minor fragment. If the scan reads by 
+     * vBuckets, then every minor fragment gets a balanced share of the 
+     * candidate vBuckets. The vBuckets which are mastered by the node of the 
+     * fragment's Drillbit are preferred. Other scans get no vBuckets.
      * 
-     * TODO: Later a scan could be performed by using a Global Secondary Index. So one sub-scan
-     * per index would be an idea. We would need to ask the index directly in
-     * this case.
+     * A N1QL scan gets one range of an indexed field per fragment if the
+     * pushed down filter restricts the field to a range, otherwise one range
+     * of document keys. A view scan gets one range of view keys per fragment.
      * 
      * @param endpoints
      * @throws PhysicalOperatorSetupException 
@@ -189,34 +322,192 @@ public class CBDefaultGroupScan extends AbstractGroupScan {
         LOG.debug("Applying assignments ...");
         LOG.debug("numOfEndpoints = " + endpoints.size());
         
-        if (endpoints.size() == 1)
+        if (endpoints.isEmpty() || endpoints.size() > getMaxParallelizationWidth())
         {
-            //TODO: It's not yet clear where this will be used because because I
-            //passed the node list as part of the config
-            this.endpoint = endpoints.get(0).getAddress();
-            LOG.debug(endpoint);
+            throw new PhysicalOperatorSetupException("Wrong number of endpoints: " + endpoints.size());
+        }
+        
+        this.endpoint = endpoints.get(0).getAddress();
+        
+        if (isSplitByVBuckets()) {
+            
+            List<String> hosts = new ArrayList<>(endpoints.size());
+            Map<String, String> normalized = new HashMap<>();
+
+            endpoints.stream().forEach((ep) -> {
+                hosts.add(normalized.computeIfAbsent(ep.getAddress(), VBucketMap::normalize));
+            });
 
+            this.assignments = VBucketPartitioner.assign(vBucketMap, candidates, hosts);
+            
+        } else {
+            
+            this.assignments = Collections.nCopies(endpoints.size(), Collections.<VBucketRange>emptyList());
         }
-        else
-        {
-            throw new IllegalArgumentException("Wromg number of endpoints!");
-        } 
+        
+        this.indexRanges = isSplitByKeys() && scanSpec.getRanges() != null ? splitByIndex(endpoints.size()) : null;
+        this.keyRanges = isSplitByKeys() && indexRanges == null ? KeyRangePartitioner.split(sampleKeys(), endpoints.size()) : null;
+        this.viewRanges = scanSpec.getMode() == CBScanMode.VIEW ? splitView(endpoints.size()) : null;
+        
+        LOG.debug("assignments = " + assignments);
+        LOG.debug("indexRanges = " + indexRanges);
+        LOG.debug("keyRanges = " + keyRanges);
+        LOG.debug("viewRanges = " + viewRanges);
+    }
+    
+    /**
+     * If the scan reads by vBuckets, which is the case for key lookups and
+     * DCP streams. Only then the fragments get vBuckets assigned and have an 
+     * affinity to the nodes which master them.
+     * 
+     * @return 
+     */
+    @JsonIgnore
+    public boolean isSplitByVBuckets() {
+        
+        return scanSpec.getMode() == CBScanMode.KEYS || scanSpec.getMode() == CBScanMode.DCP;
+    }
+    
+    /**
+     * If a N1QL or KV scan is split up into ranges of document or index keys.
+     * A KV scan lists the keys of its range via N1QL. A scan which aggregates
+     * or orders the result is executed as one query.
+     * 
+     * @return 
+     */
+    @JsonIgnore
+    public boolean isSplitByKeys() {
+        
+        return (scanSpec.getMode() == CBScanMode.N1QL || scanSpec.getMode() == CBScanMode.KV) && scanSpec.getAggregate() == null && scanSpec.getOrderBy() == null;
+    }
+    
+    /**
+     * Split the scan via a secondary index on a field of the range conditions
+     * 
+     * @param num
+     * @return The ranges or null if no index can be used
+     */
+    private List<IndexRange> splitByIndex(int num) {
+        
+        BucketStats stats = plugin.getStatsCache().getStats(bucketName);
+        
+        try {
+            
+            return IndexRangePartitioner.split(bucket, scanSpec.getRanges(), num, stats == null ? 0 : stats.getItemCount(), plugin.getCBConfig().getN1qlSampleSize());
+            
+        } catch (RuntimeException e) {
+            
+            //The scan can still be split up by document keys
+            LOG.error(new IndexSampleError(e, bucketName).toString());
+            return null;
+        }
+    }
+    
+    /**
+     * Split the view into ranges of its keys. If that fails, then the first
+     * fragment reads the whole view.
+     * 
+     * @param num
+     * @return 
+     */
+    private List<ViewRange> splitView(int num) {
+        
+        try {
+            
+            return ViewRangePartitioner.split(bucket, scanSpec.getView(), num);
+            
+        } catch (RuntimeException e) {
+            
+            //Planning should not fail because of a missing split
+            LOG.error(new ViewReadError(e, bucketName, scanSpec.getView()).toString());
+            return ViewRangePartitioner.unsplit(num);
+        }
+    }
+    
+    /**
+     * If the rows of the scanned view can be counted by the view's reduce
+     * function
+     * 
+     * @return 
+     */
+    @JsonIgnore
+    public boolean isCountedByView() {
+        
+        if (scanSpec.getView() == null) return false;
+        
+        try {
+            
+            return ViewUtil.COUNT_REDUCE.equals(ViewUtil.reduceOf(bucket, scanSpec.getView()));
+            
+        } catch (RuntimeException e) {
+            
+            LOG.error(new ViewReadError(e, bucketName, scanSpec.getView()).toString());
+            return false;
+        }
+    }
+    
+    /**
+     * Sample the document keys of the bucket. If that fails, then the first
+     * fragment reads all documents.
+     * 
+     * @return 
+     */
+    private List<String> sampleKeys() {
+        
+        return plugin.getKeySampleCache().getSample(bucketName);
     }
 
     
     /**
      * This would be the number of fragments to scan in parallel
      * 
-     * We will allow just 1 for now
-     * 
-     * TODO: Maybe the number of existent GSI-s?
+     * Every candidate vBucket of a key lookup or DCP scan could be scanned by
+     * its own fragment. A N1QL or KV scan is split up into the configured 
+     * number of key ranges, unless it has to be executed as one query. A view scan is split up into the 
+     * configured number of ranges of view keys. A count is read once.
      * 
      * @return 
      */
     @Override
     public int getMaxParallelizationWidth() {
         
-       return 1;  
+       if (isSplitByKeys()) return Math.max(1, Math.min(plugin.getCBConfig().getN1qlPartitions(), candidates.size()));
+        
+       if (scanSpec.getMode() == CBScanMode.VIEW) return Math.max(1, Math.min(plugin.getCBConfig().getViewPartitions(), candidates.size()));
+        
+       if (scanSpec.getMode() == CBScanMode.N1QL || scanSpec.getMode() == CBScanMode.KV || scanSpec.getMode() == CBScanMode.COUNT) return 1;
+        
+       return Math.max(1, candidates.size());  
+    }
+    
+    /**
+     * The affinity of a Drillbit is the share of the candidate vBuckets which 
+     * are mastered by the Couchbase node on the same host. A scan which 
+     * doesn't read by vBuckets has no affinity, because its key or view 
+     * ranges are spread across all nodes.
+     * 
+     * @return 
+     */
+    @Override
+    public List<EndpointAffinity> getOperatorAffinity() {
+        
+        if (!isSplitByVBuckets()) return Collections.emptyList();
+        
+        Map<String, Integer> counts = vBucketMap.countByHost(candidates);
+        List<EndpointAffinity> affinities = new ArrayList<>();
+        
+        for (CoordinationProtos.DrillbitEndpoint ep : plugin.getContext().getBits()) {
+            
+            Integer count = counts.get(VBucketMap.normalize(ep.getAddress()));
+            
+            if (count != null) {
+                affinities.add(new EndpointAffinity(ep, (double) count / candidates.size()));
+            }
+        }
+        
+        LOG.debug("affinities = " + affinities);
+        
+        return affinities;
     }
   
     @Override
@@ -234,8 +525,8 @@ public class CBDefaultGroupScan extends AbstractGroupScan {
     /**
      * Get a sub scan based on the fragement id
      * 
-     * We currently just support one fragment here, so let's just return a
-     * 
+     * The sub-scan scans the vBuckets, the document keys, the index range or
+     * the view range which were assigned to the fragment
      * 
      * @param minorFragmentId
      * @return
@@ -244,10 +535,175 @@ public class CBDefaultGroupScan extends AbstractGroupScan {
     @Override
     public SubScan getSpecificScan(int minorFragmentId) throws ExecutionSetupException {
         
-        return new CBDefaultSubScan(getUserName(), plugin, scanSpec);
+        if (assignments == null || minorFragmentId < 0 || minorFragmentId >= assignments.size())
+        {
+            throw new ExecutionSetupException("No vBuckets assigned to minor fragment " + minorFragmentId);
+        }
+        
+        return new CBDefaultSubScan(getUserName(), plugin, scanSpec, assignments.get(minorFragmentId),
+                keyRanges == null ? null : keyRanges.get(minorFragmentId),
+                indexRanges == null ? null : indexRanges.get(minorFragmentId),
+                viewRanges == null ? null : viewRanges.get(minorFragmentId));
     }
 
     
+    /**
+     * Create a copy of this group scan which uses another scan spec
+     * 
+     * @param scanSpec
+     * @return 
+     */
+    public CBDefaultGroupScan clone(CBDefaultScanSpec scanSpec) {
+        
+        return new CBDefaultGroupScan(this, scanSpec);
+    }
+    
+    /**
+     * Only the projected columns are fetched or written
+     * 
+     * @param columns
+     * @return 
+     */
+    @Override
+    public boolean canPushdownProjects(List<SchemaPath> columns) {
+        
+        return true;
+    }
+    
+    /**
+     * Create a copy of this group scan which only reads the given columns
+     * 
+     * If no document field is projected, then a DCP scan is replaced by a 
+     * scan which only lists the keys via the primary index. DCP can't skip
+     * the document bodies. The changes since a checkpoint are still streamed.
+     * 
+     * @param columns
+     * @return 
+     */
+    @Override
+    public GroupScan clone(List<SchemaPath> columns) {
+        
+        LOG.debug("Pushing down the projection: " + columns);
+        
+        CBDefaultScanSpec newScanSpec = scanSpec.withColumns(columns);
+        
+        if (newScanSpec.isKeysOnly() && newScanSpec.getMode() == CBScanMode.DCP && newScanSpec.getCheckpoint() == null) {
+            
+            LOG.debug("Only listing the keys");
+            newScanSpec = newScanSpec.withMode(CBScanMode.KV);
+        }
+        
+        return new CBDefaultGroupScan(this, newScanSpec);
+    }
+    
+    @JsonIgnore
+    public List<SchemaPath> getColumns() {
+        
+        return scanSpec.getColumns();
+    }
+    
+    /**
+     * The statistics for the planner
+     * 
+     * The cached bucket statistics are scaled down to the candidate vBuckets,
+     * assuming that the keys are distributed evenly. A key lookup returns at
+     * most one record per key. A pushed down filter keeps a fraction of the 
+     * records. An aggregated scan returns one record without and only a 
+     * fraction of the records with grouping keys. A pushed down limit bounds 
+     * the number of records of every sub-scan. A N1QL scan only transfers the
+     * projected fields. A scan which only lists the keys and a count don't 
+     * transfer any documents.
+     * 
+     * @return 
+     */
+    @Override
+    public ScanStats getScanStats() {
+        
+        BucketStats stats = plugin.getStatsCache().getStats(bucketName);
+        
+        double rowCount = stats == null 
+                ? ESTIMATED_ROW_COUNT 
+                : stats.getItemCountPerVBucket(vBucketMap.size()) * candidates.size();
+        
+        double rowSize = stats == null ? ESTIMATED_ROW_SIZE : stats.getAvgDocSize();
+        
+        if (scanSpec.getMode() == CBScanMode.COUNT || (scanSpec.isKeysOnly() && (scanSpec.getMode() == CBScanMode.KV || scanSpec.getMode() == CBScanMode.N1QL || scanSpec.getMode() == CBScanMode.VIEW))) {
+            
+            rowSize = ESTIMATED_KEY_SIZE;
+        }
+        
+        if (scanSpec.getKeys() != null) {
+            
+            rowCount = Math.min(rowCount, scanSpec.getKeys().size());
+        }
+        
+        if (scanSpec.getWhere() != null) {
+            
+            rowCount = rowCount * FILTER_SELECTIVITY;
+        }
+        
+        if (isAggregatePushedDown()) {
+            
+            rowCount = scanSpec.getGroupBy() == null ? 1 : rowCount / ESTIMATED_GROUP_SIZE;
+        }
+        
+        if (scanSpec.getLimit() != null) {
+            
+            int width = getMaxParallelizationWidth();
+            rowCount = Math.min(rowCount, (double) scanSpec.getLimit() * width);
+        }
+        
+        double projected = 1.0;
+        
+        if (!N1qlUtil.isStar(scanSpec.getColumns())) {
+            
+            projected = Math.min(1.0, (double) scanSpec.getColumns().size() / ESTIMATED_FIELDS_PER_DOC);
+        }
+        
+        //Whole documents are fetched via the Key-Value API
+        double diskCost = rowCount * rowSize * (scanSpec.getMode() == CBScanMode.N1QL ? projected : 1.0);
+        
+        LOG.debug("rowCount = " + rowCount);
+        LOG.debug("diskCost = " + diskCost);
+        
+        return new ScanStats(ScanStats.GroupScanProperty.NO_EXACT_ROW_COUNT, (long) Math.ceil(rowCount), (float) (rowCount * projected), (float) diskCost);
+    }
+    
+    /**
+     * If a limit which is at least as restrictive as the given one was 
+     * already pushed down into this scan
+     * 
+     * @param limit
+     * @return 
+     */
+    @JsonIgnore
+    public boolean isLimitPushedDown(int limit) {
+        
+        return scanSpec.getLimit() != null && scanSpec.getLimit() <= limit;
+    }
+    
+    /**
+     * If an aggregate was already pushed down into this scan
+     * 
+     * @return 
+     */
+    @JsonIgnore
+    public boolean isAggregatePushedDown() {
+        
+        return scanSpec.getAggregate() != null;
+    }
+    
+    /**
+     * If a filter was already pushed down into this scan
+     * 
+     * @return 
+     */
+    @JsonIgnore
+    public boolean isFilterPushedDown() {
+        
+        return scanSpec.getWhere() != null || scanSpec.getKeys() != null;
+    }
+    
     @JsonProperty("cbScanSpec")
     public CBDefaultScanSpec getScanSpec() {
         return scanSpec;
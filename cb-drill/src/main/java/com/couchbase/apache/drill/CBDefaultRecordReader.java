@@ -15,32 +15,400 @@
  */
 package com.couchbase.apache.drill;
 
+import com.couchbase.apache.drill.checkpoint.DcpCheckpointStore;
+import com.couchbase.apache.drill.config.CouchbaseConfig;
+import com.couchbase.apache.drill.conn.CBConnectionRegistry;
+import com.couchbase.apache.drill.error.RecordReadError;
+import com.couchbase.apache.drill.n1ql.N1qlStatementBuilder;
+import com.couchbase.apache.drill.n1ql.N1qlUtil;
+import com.couchbase.apache.drill.partition.IndexRange;
+import com.couchbase.apache.drill.partition.VBucketPartitioner;
+import com.couchbase.apache.drill.schema.InferredSchema;
+import com.couchbase.apache.drill.source.CBRecordSource;
+import com.couchbase.apache.drill.source.DcpScanSource;
+import com.couchbase.apache.drill.source.ItemCountSource;
+import com.couchbase.apache.drill.source.KeyListScanSource;
+import com.couchbase.apache.drill.source.KeyLookupSource;
+import com.couchbase.apache.drill.source.N1qlKeyRangeSource;
+import com.couchbase.apache.drill.source.N1qlScanSource;
+import com.couchbase.apache.drill.source.ViewReduceSource;
+import com.couchbase.apache.drill.source.ViewScanSource;
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+import com.couchbase.client.deps.io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.DrillBuf;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
 import org.apache.drill.common.exceptions.ExecutionSetupException;
+import org.apache.drill.common.expression.SchemaPath;
+import org.apache.drill.exec.ops.FragmentContext;
 import org.apache.drill.exec.ops.OperatorContext;
 import org.apache.drill.exec.physical.impl.OutputMutator;
+import org.apache.drill.exec.proto.helper.QueryIdHelper;
 import org.apache.drill.exec.store.AbstractRecordReader;
+import org.apache.drill.exec.vector.BaseValueVector;
+import org.apache.drill.exec.vector.complex.fn.JsonReader;
+import org.apache.drill.exec.vector.complex.impl.VectorContainerWriter;
+import org.apache.log4j.Logger;
 
 /**
- * //TODO: Implement
- * 
+ * Reads the records of a sub-scan into value vectors
+ *
+ * The raw JSON of each record is parsed by Drill's streaming JSON reader which
+ * writes the fields directly into the vectors. No JsonObject or String is
+ * created for a document. Fields which are not projected are skipped by the
+ * parser. The document key is written into the pseudo field _key. The 
+ * vectors of the fields which are known from the inferred schema of the bucket
+ * are created up front.
  * 
+ * In zero-copy mode the parser reads directly from the client's off-heap
+ * buffer. Otherwise the record is copied into a Drill buffer first. The
+ * client uses a shaded Netty, so its buffers can't be handed over to Drill
+ * as they are.
+ *
  * @author David Maier <david.maier at couchbase.com>
  */
 public class CBDefaultRecordReader extends AbstractRecordReader {
 
+    private static final Logger LOG = Logger.getLogger(CBDefaultRecordReader.class.getName());
+
+    /**
+     * The max. number of records per batch
+     */
+    private static final int MAX_RECORDS_PER_BATCH = BaseValueVector.INITIAL_VALUE_ALLOCATION;
+
+    /**
+     * The fragment context
+     */
+    private final FragmentContext context;
+
+    /**
+     * The sub-scan to read
+     */
+    private final CBDefaultSubScan subScan;
+
+    /**
+     * The source of the records
+     */
+    private CBRecordSource source;
+
+    /**
+     * Writes into the vectors of the output mutator
+     */
+    private VectorContainerWriter writer;
+
+    /**
+     * Parses the JSON and writes it via the writer
+     */
+    private JsonReader jsonReader;
+
+    /**
+     * The off-heap buffer which holds the JSON of the current record
+     */
+    private DrillBuf buffer;
+    
+    /**
+     * The off-heap buffer which holds the key of the current record
+     */
+    private DrillBuf keyBuffer;
+    
+    /**
+     * If the document key is projected
+     */
+    private boolean withKey;
+    
+    /**
+     * The record which is currently parsed
+     */
+    private ByteBuf current;
+    
+    /**
+     * If the records are parsed directly from the client's buffers
+     */
+    private final boolean zeroCopy;
+
+    /**
+     * The constructor
+     *
+     * @param context
+     * @param subScan
+     */
+    public CBDefaultRecordReader(FragmentContext context, CBDefaultSubScan subScan) {
+
+        this.context = context;
+        this.subScan = subScan;
+        this.zeroCopy = subScan.getPlugin().getCBConfig().isZeroCopy();
+
+        setColumns(subScan.getScanSpec().getColumns());
+        
+        this.withKey = isStarQuery() || getColumns().contains(SchemaPath.getSimplePath(N1qlUtil.KEY_FIELD));
+    }
+
     @Override
-    public void setup(OperatorContext context, OutputMutator output) throws ExecutionSetupException { 
+    public void setup(OperatorContext context, OutputMutator output) throws ExecutionSetupException {
+
+        LOG.debug("Setting up the record reader ...");
+        LOG.debug("vBuckets = " + subScan.getVBuckets());
+
+        this.writer = new VectorContainerWriter(output);
         
+        InferredSchema schema = subScan.getPlugin().getSchemaCache().getSchema(subScan.getScanSpec().getBucket());
+        
+        //The fields of an aggregated scan are not the ones of the documents
+        if (schema != null && subScan.getScanSpec().getAggregate() == null) {
+            schema.allocate(writer.rootAsMap(), getColumns());
+        }
+        
+        if (withKey && subScan.getScanSpec().getAggregate() == null) {
+            writer.rootAsMap().varChar(N1qlUtil.KEY_FIELD);
+        }
+        this.jsonReader = new JsonReader(this.context.getManagedBuffer(), new ArrayList<>(getColumns()), false, false, false);
+        this.buffer = this.context.getManagedBuffer();
+        this.keyBuffer = this.context.getManagedBuffer();
+
+        this.source = createSource(subScan.getScanSpec());
     }
 
+    /**
+     * Create the record source based on the scan mode
+     *
+     * @param scanSpec
+     * @return
+     */
+    private CBRecordSource createSource(CBDefaultScanSpec scanSpec) {
+
+        CBConnectionRegistry connections = subScan.getPlugin().getConnections();
+        CouchbaseConfig cfg = connections.getConfig();
+        String bucket = scanSpec.getBucket();
+
+        switch (scanSpec.getMode()) {
+
+            case N1QL:
+
+                String select = scanSpec.getAggregate() != null ? scanSpec.getAggregate()
+                        : scanSpec.isKeysOnly() ? N1qlUtil.KEY_SELECT
+                        : N1qlUtil.select(getColumns());
+
+                return createQuerySource(scanSpec, select);
+
+            case KEYS:
+
+                int numVBuckets = connections.getBucketConfig(bucket).numberOfPartitions();
+
+                //Only the keys of the sub-scan's vBuckets
+                List<String> keys = scanSpec.getKeys().stream()
+                        .filter(k -> VBucketPartitioner.contains(subScan.getVBuckets(), VBucketPartitioner.vBucketOf(k, numVBuckets)))
+                        .collect(Collectors.toList());
+
+                return new KeyLookupSource(connections.getAsyncBucket(bucket),
+                        keys,
+                        cfg.getLookupConcurrency(),
+                        scanSpec.getLimit());
+
+            case DCP:
+
+                //The checkpoints are staged per query, so every fragment needs the query id
+                DcpCheckpointStore checkpoints = scanSpec.getCheckpoint() == null ? null
+                        : new DcpCheckpointStore(connections.getBucket(cfg.getDcpCheckpointBucket()),
+                                bucket, scanSpec.getCheckpoint(),
+                                QueryIdHelper.getQueryId(context.getHandle().getQueryId()),
+                                connections.getBucketConfig(bucket).numberOfPartitions());
+
+                //Every sub-scan streams via its own connection
+                return new DcpScanSource(connections.openDcpConnection(bucket),
+                        bucket,
+                        cfg.getPassword(bucket),
+                        subScan.getVBuckets(),
+                        cfg.getDcpIdleTimeout(),
+                        cfg.getDcpBufferSize(),
+                        cfg.getDcpMaxStreams(),
+                        checkpoints,
+                        scanSpec.getLimit());
+
+            case VIEW:
+
+                return new ViewScanSource(connections.getBucket(bucket),
+                        scanSpec.getView(),
+                        subScan.getViewRange(),
+                        cfg.getViewPageSize(),
+                        cfg.getViewStale(),
+                        cfg.getLookupConcurrency(),
+                        scanSpec.isKeysOnly(),
+                        scanSpec.getLimit());
+
+            case COUNT:
+
+                if (scanSpec.getView() != null) {
+                    return new ViewReduceSource(connections.getBucket(bucket), scanSpec.getView(), cfg.getViewStale(), scanSpec.getColumns());
+                }
+
+                return new ItemCountSource(subScan.getPlugin().getStatsCache(), bucket, scanSpec.getColumns());
+
+            default:
+
+                //Every sub-scan lists only the keys of its own key or index range
+                return new KeyListScanSource(connections.getBucket(bucket),
+                        createQuerySource(scanSpec, N1qlUtil.KEY_SELECT),
+                        MAX_RECORDS_PER_BATCH,
+                        cfg.getLookupConcurrency(),
+                        scanSpec.isKeysOnly(),
+                        scanSpec.getLimit());
+        }
+    }
+
+    /**
+     * Create the N1QL source which reads the key or index range of this
+     * sub-scan
+     *
+     * @param scanSpec
+     * @param select The selected fields
+     * @return
+     */
+    private CBRecordSource createQuerySource(CBDefaultScanSpec scanSpec, String select) {
+
+        CBConnectionRegistry connections = subScan.getPlugin().getConnections();
+        CouchbaseConfig cfg = connections.getConfig();
+        String bucket = scanSpec.getBucket();
+
+        if (subScan.getKeyRange() != null) {
+
+            return new N1qlKeyRangeSource(connections.getBucket(bucket),
+                    cfg.getPassword(bucket),
+                    select,
+                    scanSpec.getWhere(),
+                    subScan.getKeyRange(),
+                    cfg.getN1qlPageSize(),
+                    scanSpec.getLimit(),
+                    subScan.getPlugin().getPreparedCache());
+        }
+
+        IndexRange range = subScan.getIndexRange();
+
+        String stmt = new N1qlStatementBuilder(bucket)
+                .select(select)
+                .useIndex(range == null ? null : range.getIndex())
+                .where(scanSpec.getWhere())
+                .where(range == null ? null : range.toCondition())
+                .groupBy(scanSpec.getGroupBy())
+                .orderBy(scanSpec.getOrderBy())
+                .limit(scanSpec.getLimit())
+                .build();
+
+        return new N1qlScanSource(connections.getBucket(bucket), cfg.getPassword(bucket), stmt,
+                range == null ? null : range.params(),
+                subScan.getPlugin().getPreparedCache());
+    }
+
+    /**
+     * Fill the next batch
+     *
+     * @return The number of records in the batch, 0 if there are no more records
+     */
     @Override
     public int next() {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+
+        writer.allocate();
+        writer.reset();
+
+        int count = 0;
+
+        try {
+
+            while (count < MAX_RECORDS_PER_BATCH && (current = source.next()) != null) {
+
+                writer.setPosition(count);
+                write(current);
+                release();
+                count++;
+            }
+
+        } catch (IOException e) {
+
+            RecordReadError err = new RecordReadError(e, subScan.getScanSpec().getBucket());
+            LOG.error(err.toString() + " at record " + (count + 1));
+            throw err;
+        }
+
+        jsonReader.ensureAtLeastOneField(writer);
+        writer.setValueCount(count);
+
+        LOG.debug("count = " + count);
+
+        return count;
     }
 
+    /**
+     * Parse the record either directly from the client's buffer or copy it 
+     * into the off-heap Drill buffer and parse it from there
+     *
+     * @param record
+     * @throws IOException
+     */
+    private void write(ByteBuf record) throws IOException {
+
+        if (zeroCopy) {
+
+            jsonReader.setSource(new ByteBufInputStream(record));
+
+        } else {
+
+            int length = record.readableBytes();
+
+            buffer = buffer.reallocIfNeeded(length);
+            record.getBytes(record.readerIndex(), buffer.nioBuffer(0, length));
+
+            jsonReader.setSource(0, length, buffer);
+        }
+
+        jsonReader.write(writer);
+
+        if (withKey && source.key() != null) {
+            writeKey(source.key());
+        }
+    }
+
+    /**
+     * Write the document key into the pseudo field
+     *
+     * @param key
+     */
+    private void writeKey(String key) {
+
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+
+        keyBuffer = keyBuffer.reallocIfNeeded(bytes.length);
+        keyBuffer.setBytes(0, bytes);
+
+        writer.rootAsMap().varChar(N1qlUtil.KEY_FIELD).writeVarChar(0, bytes.length, keyBuffer);
+    }
+
+    /**
+     * Give the current record's buffer back to the client
+     */
+    private void release() {
+
+        if (current != null) {
+            current.release();
+            current = null;
+        }
+    }
+
+    /**
+     * Releases the record which was in flight when reading was aborted and
+     * all buffered records of the source
+     */
     @Override
     public void cleanup() {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+
+        LOG.debug("Cleaning up the record reader ...");
+
+        release();
+
+        if (source != null) {
+            source.close();
+        }
     }
-    
+
 }
@@ -15,16 +15,26 @@
  */
 package com.couchbase.apache.drill;
 
+import com.couchbase.apache.drill.n1ql.N1qlUtil;
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import org.apache.drill.common.expression.SchemaPath;
+import org.apache.drill.exec.physical.base.GroupScan;
 import org.apache.log4j.Logger;
 
 /**
  * Defines how a scan in Couchbase is looking like. 
  * 
- * Our Couchbase scan is defined by defining which bucket is used
+ * Our Couchbase scan is defined by defining which bucket is used, how it is
+ * scanned, optionally which document keys are looked up and by the parts of the query which were pushed down: an optional
+ * N1QL condition, the projected columns, an optional N1QL aggregation, an
+ * optional N1QL ordering and an optional limit. A DCP scan may be restricted
+ * to the changes since a named checkpoint. A view scan reads the documents
+ * of the rows of a named view.
  * 
  * @author David Maier <david.maier at couchbase.com>
  */
@@ -37,19 +47,264 @@ public class CBDefaultScanSpec {
      */
     protected String bucket;
     
+    /**
+     * How the bucket is scanned
+     */
+    protected CBScanMode mode;
+    
+    /**
+     * The document keys to look up, null if the bucket is scanned
+     */
+    protected List<String> keys;
+    
+    /**
+     * The N1QL WHERE condition, null if no filter was pushed down
+     */
+    protected String where;
+    
+    /**
+     * The projected columns
+     */
+    protected List<SchemaPath> columns;
+    
+    /**
+     * The N1QL SELECT list of the aggregation, null if no aggregate was pushed
+     * down
+     */
+    protected String aggregate;
+    
+    /**
+     * The N1QL GROUP BY list of the aggregation, null if there are no grouping
+     * keys
+     */
+    protected String groupBy;
+    
+    /**
+     * The N1QL ORDER BY list, null if no ordering was pushed down
+     */
+    protected String orderBy;
+    
+    /**
+     * The max. number of records per sub-scan, null if no limit was pushed down
+     */
+    protected Integer limit;
+    
+    /**
+     * The name of the checkpoint since which the changes are read, null if 
+     * all documents are read
+     */
+    protected String checkpoint;
+    
+    /**
+     * The N1QL conditions of the pushed down filter which restrict a field
+     * to a range, by field path. Null if there are none.
+     */
+    protected Map<String, String> ranges;
+    
+    /**
+     * The view as design/view, null if the bucket isn't scanned via a view
+     */
+    protected String view;
+    
     /**
      * Jackson allows to create an instance from JSON
      * by using a JsonCreator
      * 
      * @param bucket 
+     * @param mode 
+     * @param keys 
+     * @param where 
+     * @param columns 
+     * @param aggregate 
+     * @param groupBy 
+     * @param orderBy 
+     * @param limit 
+     * @param checkpoint 
+     * @param ranges 
+     * @param view 
      */
     @JsonCreator
-    public CBDefaultScanSpec(@JsonProperty("bucket") String bucket) {
+    public CBDefaultScanSpec(@JsonProperty("bucket") String bucket, 
+                             @JsonProperty("mode") CBScanMode mode,
+                             @JsonProperty("keys") List<String> keys,
+                             @JsonProperty("where") String where,
+                             @JsonProperty("columns") List<SchemaPath> columns,
+                             @JsonProperty("aggregate") String aggregate,
+                             @JsonProperty("groupBy") String groupBy,
+                             @JsonProperty("orderBy") String orderBy,
+                             @JsonProperty("limit") Integer limit,
+                             @JsonProperty("checkpoint") String checkpoint,
+                             @JsonProperty("ranges") Map<String, String> ranges,
+                             @JsonProperty("view") String view) {
         
         LOG.debug("Initializing Couchbase ScanSpec ...");
         LOG.debug("bucket = " + bucket);
+        LOG.debug("mode = " + mode);
+        LOG.debug("keys = " + keys);
+        LOG.debug("where = " + where);
+        LOG.debug("columns = " + columns);
+        LOG.debug("aggregate = " + aggregate);
+        LOG.debug("groupBy = " + groupBy);
+        LOG.debug("orderBy = " + orderBy);
+        LOG.debug("limit = " + limit);
+        LOG.debug("checkpoint = " + checkpoint);
+        LOG.debug("ranges = " + ranges);
+        LOG.debug("view = " + view);
         
         this.bucket = bucket;
+        this.mode = mode == null ? CBScanMode.KV : mode;
+        this.keys = keys;
+        this.where = where;
+        this.columns = columns == null ? GroupScan.ALL_COLUMNS : columns;
+        this.aggregate = aggregate;
+        this.groupBy = groupBy;
+        this.orderBy = orderBy;
+        this.limit = limit;
+        this.checkpoint = checkpoint;
+        this.ranges = ranges;
+        this.view = view;
+    }
+    
+    /**
+     * Scan all columns of the whole bucket
+     * 
+     * @param bucket 
+     * @param mode 
+     */
+    public CBDefaultScanSpec(String bucket, CBScanMode mode) {
+        
+        this(bucket, mode, null, null, null, null, null, null, null, null, null, null);
+    }
+    
+    /**
+     * Stream all columns of the documents which changed since the given
+     * checkpoint
+     * 
+     * @param bucket
+     * @param checkpoint 
+     */
+    public CBDefaultScanSpec(String bucket, String checkpoint) {
+        
+        this(bucket, CBScanMode.DCP, null, null, null, null, null, null, null, checkpoint, null, null);
+    }
+    
+    /**
+     * Read all columns of the documents of the rows of a view
+     * 
+     * @param bucket
+     * @param mode Has to be VIEW
+     * @param view The view as design/view
+     */
+    public CBDefaultScanSpec(String bucket, CBScanMode mode, String view) {
+        
+        this(bucket, mode, null, null, null, null, null, null, null, null, null, view);
+    }
+    
+    /**
+     * A copy of this spec with another N1QL condition
+     * 
+     * @param where
+     * @return 
+     */
+    public CBDefaultScanSpec withWhere(String where) {
+        
+        return new CBDefaultScanSpec(bucket, mode, keys, where, columns, aggregate, groupBy, orderBy, limit, checkpoint, ranges, view);
+    }
+    
+    /**
+     * A copy of this spec with another N1QL condition and the range 
+     * conditions which are part of it
+     * 
+     * @param where
+     * @param ranges
+     * @return 
+     */
+    public CBDefaultScanSpec withWhere(String where, Map<String, String> ranges) {
+        
+        return new CBDefaultScanSpec(bucket, mode, keys, where, columns, aggregate, groupBy, orderBy, limit, checkpoint, ranges, view);
+    }
+    
+    /**
+     * A copy of this spec which looks up the given document keys
+     * 
+     * @param keys
+     * @return 
+     */
+    public CBDefaultScanSpec withKeys(List<String> keys) {
+        
+        return new CBDefaultScanSpec(bucket, CBScanMode.KEYS, keys, where, columns, aggregate, groupBy, orderBy, limit, checkpoint, ranges, view);
+    }
+    
+    /**
+     * A copy of this spec with other projected columns
+     * 
+     * @param columns
+     * @return 
+     */
+    public CBDefaultScanSpec withColumns(List<SchemaPath> columns) {
+        
+        return new CBDefaultScanSpec(bucket, mode, keys, where, columns, aggregate, groupBy, orderBy, limit, checkpoint, ranges, view);
+    }
+    
+    /**
+     * A copy of this spec which aggregates via N1QL. The aggregated columns
+     * replace the projected ones.
+     * 
+     * @param aggregate
+     * @param groupBy
+     * @param columns
+     * @return 
+     */
+    public CBDefaultScanSpec withAggregate(String aggregate, String groupBy, List<SchemaPath> columns) {
+        
+        return new CBDefaultScanSpec(bucket, CBScanMode.N1QL, null, where, columns, aggregate, groupBy, orderBy, limit, checkpoint, ranges, view);
+    }
+    
+    /**
+     * A copy of this spec which only counts the documents of the bucket, or
+     * the rows of the view. The aggregate is kept to name the counted 
+     * columns.
+     * 
+     * @param aggregate
+     * @param columns
+     * @return 
+     */
+    public CBDefaultScanSpec withCount(String aggregate, List<SchemaPath> columns) {
+        
+        return new CBDefaultScanSpec(bucket, CBScanMode.COUNT, null, null, columns, aggregate, null, null, null, null, null, view);
+    }
+    
+    /**
+     * A copy of this spec which is scanned in another mode
+     * 
+     * @param mode
+     * @return 
+     */
+    public CBDefaultScanSpec withMode(CBScanMode mode) {
+        
+        return new CBDefaultScanSpec(bucket, mode, keys, where, columns, aggregate, groupBy, orderBy, limit, checkpoint, ranges, view);
+    }
+    
+    /**
+     * A copy of this spec with another N1QL ordering
+     * 
+     * @param orderBy
+     * @return 
+     */
+    public CBDefaultScanSpec withOrderBy(String orderBy) {
+        
+        return new CBDefaultScanSpec(bucket, mode, keys, where, columns, aggregate, groupBy, orderBy, limit, checkpoint, ranges, view);
+    }
+    
+    /**
+     * A copy of this spec with another limit
+     * 
+     * @param limit
+     * @return 
+     */
+    public CBDefaultScanSpec withLimit(Integer limit) {
+        
+        return new CBDefaultScanSpec(bucket, mode, keys, where, columns, aggregate, groupBy, orderBy, limit, checkpoint, ranges, view);
     }
 
     
@@ -57,12 +312,78 @@ public class CBDefaultScanSpec {
         return bucket;
     }
 
+    public CBScanMode getMode() {
+        return mode;
+    }
+
+    public List<String> getKeys() {
+        return keys;
+    }
+
+    public String getWhere() {
+        return where;
+    }
+
+    public List<SchemaPath> getColumns() {
+        return columns;
+    }
+
+    public String getAggregate() {
+        return aggregate;
+    }
+
+    public String getGroupBy() {
+        return groupBy;
+    }
+
+    public String getOrderBy() {
+        return orderBy;
+    }
+
+    public Integer getLimit() {
+        return limit;
+    }
+
+    public String getCheckpoint() {
+        return checkpoint;
+    }
+
+    public Map<String, String> getRanges() {
+        return ranges;
+    }
+
+    public String getView() {
+        return view;
+    }
+    
+    /**
+     * If only the document keys are read, because no document field is 
+     * projected
+     * 
+     * @return 
+     */
+    @JsonIgnore
+    public boolean isKeysOnly() {
+        return aggregate == null && N1qlUtil.isKeyOnly(columns);
+    }
+
 
     @Override
     public String toString() {
         
         Map<String,String> specProps = new HashMap<>();
         specProps.put("bucket", bucket);
+        specProps.put("mode", mode.toString());
+        specProps.put("keys", keys == null ? null : keys.toString());
+        specProps.put("where", where);
+        specProps.put("columns", columns.toString());
+        specProps.put("aggregate", aggregate);
+        specProps.put("groupBy", groupBy);
+        specProps.put("orderBy", orderBy);
+        specProps.put("limit", limit == null ? null : limit.toString());
+        specProps.put("checkpoint", checkpoint);
+        specProps.put("ranges", ranges == null ? null : ranges.toString());
+        specProps.put("view", view);
         
         return specProps.toString();
     }
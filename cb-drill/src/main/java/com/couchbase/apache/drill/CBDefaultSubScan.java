@@ -16,9 +16,13 @@
 package com.couchbase.apache.drill;
 
 import com.couchbase.apache.drill.config.CBStoragePluginConfig;
-import com.couchbase.apache.drill.config.CouchbaseConfig;
+import com.couchbase.apache.drill.partition.IndexRange;
+import com.couchbase.apache.drill.partition.KeyRange;
+import com.couchbase.apache.drill.partition.VBucketRange;
+import com.couchbase.apache.drill.partition.ViewRange;
 import com.fasterxml.jackson.annotation.JacksonInject;
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonTypeName;
 import java.util.ArrayList;
@@ -61,6 +65,29 @@ public class CBDefaultSubScan extends AbstractBase implements SubScan {
      */
     protected final CBStoragePlugin plugin;
     
+    /**
+     * The vBuckets which are scanned by this sub-scan
+     */
+    protected final List<VBucketRange> vBuckets;
+    
+    /**
+     * The document keys which are queried by this sub-scan, null if the 
+     * scan isn't split up by keys
+     */
+    protected final KeyRange keyRange;
+    
+    /**
+     * The range of an indexed field which is queried by this sub-scan, null
+     * if the scan isn't split up via a secondary index
+     */
+    protected final IndexRange indexRange;
+    
+    /**
+     * The range of view keys which is read by this sub-scan, null if the 
+     * bucket isn't scanned via a view
+     */
+    protected final ViewRange viewRange;
+    
     
     //-- For debugging
     protected final String bucketName;
@@ -70,6 +97,10 @@ public class CBDefaultSubScan extends AbstractBase implements SubScan {
      * 
      * @param userName
      * @param scanSpec
+     * @param vBuckets
+     * @param keyRange
+     * @param indexRange
+     * @param viewRange
      * @param config
      * @param pluginRegistry
      * @throws ExecutionSetupException 
@@ -79,10 +110,14 @@ public class CBDefaultSubScan extends AbstractBase implements SubScan {
             
             @JsonProperty("userName") String userName, 
             @JsonProperty("cbScanSpec") CBDefaultScanSpec scanSpec,
+            @JsonProperty("vBuckets") List<VBucketRange> vBuckets,
+            @JsonProperty("keyRange") KeyRange keyRange,
+            @JsonProperty("indexRange") IndexRange indexRange,
+            @JsonProperty("viewRange") ViewRange viewRange,
             @JsonProperty("storage") StoragePluginConfig config,
             @JacksonInject StoragePluginRegistry pluginRegistry ) throws ExecutionSetupException {
         
-        this(userName, (CBStoragePlugin) pluginRegistry.getPlugin(config), scanSpec);
+        this(userName, (CBStoragePlugin) pluginRegistry.getPlugin(config), scanSpec, vBuckets, keyRange, indexRange, viewRange);
        
     }
     
@@ -92,8 +127,12 @@ public class CBDefaultSubScan extends AbstractBase implements SubScan {
      * @param userName
      * @param plugin
      * @param scanSpec 
+     * @param vBuckets 
+     * @param keyRange 
+     * @param indexRange 
+     * @param viewRange 
      */
-    public CBDefaultSubScan(String userName, CBStoragePlugin plugin, CBDefaultScanSpec scanSpec)
+    public CBDefaultSubScan(String userName, CBStoragePlugin plugin, CBDefaultScanSpec scanSpec, List<VBucketRange> vBuckets, KeyRange keyRange, IndexRange indexRange, ViewRange viewRange)
     {
         super(userName);
         
@@ -101,13 +140,21 @@ public class CBDefaultSubScan extends AbstractBase implements SubScan {
        
        this.plugin = plugin;
        this.scanSpec = scanSpec;
+       this.vBuckets = vBuckets;
+       this.keyRange = keyRange;
+       this.indexRange = indexRange;
+       this.viewRange = viewRange;
        this.config = (CBStoragePluginConfig) plugin.getConfig();
-       this.bucketName = config.getConfig().get(CouchbaseConfig.CB_BUCKET);
+       this.bucketName = scanSpec.getBucket();
            
        LOG.debug("userName = " + userName);
        LOG.debug("bucketName = " + bucketName);
        LOG.debug("plugin = " + plugin);
        LOG.debug("scanSpec = " + scanSpec); 
+       LOG.debug("vBuckets = " + vBuckets);
+       LOG.debug("keyRange = " + keyRange);
+       LOG.debug("indexRange = " + indexRange);
+       LOG.debug("viewRange = " + viewRange);
         
     }
     
@@ -120,6 +167,10 @@ public class CBDefaultSubScan extends AbstractBase implements SubScan {
         
         super(that);
         this.scanSpec = that.scanSpec;
+        this.vBuckets = that.vBuckets;
+        this.keyRange = that.keyRange;
+        this.indexRange = that.indexRange;
+        this.viewRange = that.viewRange;
         this.config = that.config;
         this.bucketName = that.bucketName;
         this.plugin = that.plugin;
@@ -192,10 +243,35 @@ public class CBDefaultSubScan extends AbstractBase implements SubScan {
         return config;
     }
 
+    @JsonIgnore
+    public CBStoragePlugin getPlugin() {
+        return plugin;
+    }
+
     @JsonProperty("cbScanSpec")
     public CBDefaultScanSpec getScanSpec() {
         return scanSpec;
     }
+
+    @JsonProperty("vBuckets")
+    public List<VBucketRange> getVBuckets() {
+        return vBuckets;
+    }
+
+    @JsonProperty("keyRange")
+    public KeyRange getKeyRange() {
+        return keyRange;
+    }
+
+    @JsonProperty("indexRange")
+    public IndexRange getIndexRange() {
+        return indexRange;
+    }
+
+    @JsonProperty("viewRange")
+    public ViewRange getViewRange() {
+        return viewRange;
+    }
     
     
     
@@ -0,0 +1,474 @@
+/*
+ * Copyright 2015 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.apache.drill;
+
+import com.couchbase.apache.drill.n1ql.N1qlUtil;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.drill.common.expression.BooleanOperator;
+import org.apache.drill.common.expression.FunctionCall;
+import org.apache.drill.common.expression.LogicalExpression;
+import org.apache.drill.common.expression.SchemaPath;
+import org.apache.drill.common.expression.ValueExpressions;
+import org.apache.drill.common.expression.visitors.AbstractExprVisitor;
+import org.apache.log4j.Logger;
+
+/**
+ * Translates a Drill filter expression into a N1QL WHERE condition
+ *
+ * Comparisons, LIKE, IS NULL and AND/OR trees of them are supported. An OR of
+ * equality comparisons on the same field becomes an IN. The parts of an AND
+ * which can't be translated are left out, so the condition might be weaker
+ * than the filter. In this case the filter has to be kept.
+ *
+ * The document key can be referenced via the pseudo field _key. If the
+ * filter can only match documents with certain keys then these keys are
+ * collected, so that the documents can be fetched directly. This is the case
+ * for equalities on the key, ORs of them and ANDs which contain one of them.
+ *
+ * The comparisons of the top-level AND which restrict a field to a range are
+ * collected per field as well. They tell which secondary index could be used
+ * to split up the scan.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class CBFilterBuilder extends AbstractExprVisitor<String, Void, RuntimeException> {
+
+    private static final Logger LOG = Logger.getLogger(CBFilterBuilder.class.getName());
+
+    /**
+     * The comparison functions and their N1QL operators
+     */
+    private static final Map<String, String> COMPARE_OPS = new HashMap<>();
+
+    /**
+     * The operators to use if the arguments are swapped
+     */
+    private static final Map<String, String> SWAPPED_OPS = new HashMap<>();
+
+    static {
+
+        COMPARE_OPS.put("equal", "=");
+        COMPARE_OPS.put("not_equal", "!=");
+        COMPARE_OPS.put("greater_than", ">");
+        COMPARE_OPS.put("greater_than_or_equal_to", ">=");
+        COMPARE_OPS.put("less_than", "<");
+        COMPARE_OPS.put("less_than_or_equal_to", "<=");
+        COMPARE_OPS.put("like", "LIKE");
+
+        SWAPPED_OPS.put("=", "=");
+        SWAPPED_OPS.put("!=", "!=");
+        SWAPPED_OPS.put(">", "<");
+        SWAPPED_OPS.put(">=", "<=");
+        SWAPPED_OPS.put("<", ">");
+        SWAPPED_OPS.put("<=", ">=");
+    }
+
+    /**
+     * The filter expression
+     */
+    private final LogicalExpression le;
+
+    /**
+     * If the whole expression could be translated
+     */
+    private boolean allExpressionsConverted = true;
+
+    /**
+     * The keys of the only documents which can match, otherwise null
+     */
+    private List<String> keys;
+
+    /**
+     * If the filter consists only of the key equalities
+     */
+    private boolean keysOnly;
+
+    /**
+     * The range comparisons of the top-level AND per field
+     */
+    private final Map<String, List<String>> ranges = new LinkedHashMap<>();
+
+    /**
+     * The constructor
+     *
+     * @param le
+     */
+    public CBFilterBuilder(LogicalExpression le) {
+        this.le = le;
+    }
+
+    /**
+     * Translate the expression
+     *
+     * @return The N1QL condition or null if nothing could be translated
+     */
+    public String parseTree() {
+
+        String where = le.accept(this, null);
+
+        Set<String> found = keysOf(le);
+
+        if (found != null) {
+
+            keys = new ArrayList<>(found);
+            keysOnly = where != null && allExpressionsConverted && isKeyPredicate(le);
+        }
+
+        if (le instanceof BooleanOperator && ((BooleanOperator) le).getName().equals("booleanAnd")) {
+
+            for (LogicalExpression arg : ((BooleanOperator) le).args) {
+                addRange(arg);
+            }
+
+        } else {
+
+            addRange(le);
+        }
+
+        LOG.debug("where = " + where);
+        LOG.debug("allExpressionsConverted = " + allExpressionsConverted);
+        LOG.debug("keys = " + keys);
+        LOG.debug("keysOnly = " + keysOnly);
+        LOG.debug("ranges = " + ranges);
+
+        return where;
+    }
+
+    public boolean isAllExpressionsConverted() {
+        return allExpressionsConverted;
+    }
+
+    public List<String> getKeys() {
+        return keys;
+    }
+
+    public boolean isKeysOnly() {
+        return keysOnly;
+    }
+
+    /**
+     * The range conditions per field
+     *
+     * @return The N1QL conditions by field path, null if there are none
+     */
+    public Map<String, String> getRanges() {
+
+        if (ranges.isEmpty()) return null;
+
+        Map<String, String> result = new LinkedHashMap<>();
+
+        ranges.forEach((path, conditions) -> result.put(path, String.join(" AND ", conditions)));
+
+        return result;
+    }
+
+    /**
+     * Remember a comparison which restricts a field to a range
+     *
+     * @param e
+     */
+    private void addRange(LogicalExpression e) {
+
+        Comparison cmp = e instanceof FunctionCall ? Comparison.of((FunctionCall) e) : null;
+
+        if (cmp == null || cmp.op.equals("!=") || cmp.op.equals("LIKE") || cmp.path.equals(N1qlUtil.KEY)) {
+            return;
+        }
+
+        ranges.computeIfAbsent(cmp.path, p -> new ArrayList<>()).add(cmp.path + " " + cmp.op + " " + cmp.literal);
+    }
+
+    /**
+     * Collect the keys of the only documents which can match an expression
+     *
+     * @param e
+     * @return The keys or null if any document could match
+     */
+    private static Set<String> keysOf(LogicalExpression e) {
+
+        if (e instanceof BooleanOperator) {
+
+            BooleanOperator op = (BooleanOperator) e;
+            boolean isAnd = op.getName().equals("booleanAnd");
+            Set<String> result = null;
+
+            for (LogicalExpression arg : op.args) {
+
+                Set<String> found = keysOf(arg);
+
+                if (isAnd) {
+
+                    if (found != null) {
+
+                        if (result == null) {
+                            result = found;
+                        } else {
+                            result.retainAll(found);
+                        }
+                    }
+
+                } else {
+
+                    //One part without keys makes the whole OR match any document
+                    if (found == null) return null;
+
+                    if (result == null) {
+                        result = found;
+                    } else {
+                        result.addAll(found);
+                    }
+                }
+            }
+
+            return result;
+        }
+
+        String key = keyOf(e);
+
+        if (key == null) return null;
+
+        Set<String> result = new LinkedHashSet<>();
+        result.add(key);
+
+        return result;
+    }
+
+    /**
+     * Check if an expression consists only of key equalities and ORs of them
+     *
+     * @param e
+     * @return
+     */
+    private static boolean isKeyPredicate(LogicalExpression e) {
+
+        if (e instanceof BooleanOperator) {
+
+            BooleanOperator op = (BooleanOperator) e;
+
+            if (op.getName().equals("booleanAnd")) return false;
+
+            for (LogicalExpression arg : op.args) {
+
+                if (!isKeyPredicate(arg)) return false;
+            }
+
+            return true;
+        }
+
+        return keyOf(e) != null;
+    }
+
+    /**
+     * Get the key of an equality on the key
+     *
+     * @param e
+     * @return The key or null if the expression is no such equality
+     */
+    private static String keyOf(LogicalExpression e) {
+
+        Comparison cmp = e instanceof FunctionCall ? Comparison.of((FunctionCall) e) : null;
+
+        if (cmp == null || !cmp.op.equals("=") || !cmp.path.equals(N1qlUtil.KEY) || !(cmp.value instanceof String)) {
+            return null;
+        }
+
+        return (String) cmp.value;
+    }
+
+    @Override
+    public String visitUnknown(LogicalExpression e, Void value) {
+
+        allExpressionsConverted = false;
+        return null;
+    }
+
+    @Override
+    public String visitBooleanOperator(BooleanOperator op, Void value) {
+
+        boolean isAnd = op.getName().equals("booleanAnd");
+
+        if (!isAnd) {
+
+            String in = toIn(op.args);
+
+            if (in != null) return in;
+        }
+
+        List<String> parts = new ArrayList<>();
+
+        for (LogicalExpression arg : op.args) {
+
+            String part = arg.accept(this, null);
+
+            if (part != null) {
+
+                parts.add("(" + part + ")");
+
+            } else if (!isAnd) {
+
+                //One unknown part makes the whole OR unknown
+                allExpressionsConverted = false;
+                return null;
+            }
+        }
+
+        if (parts.isEmpty()) return null;
+
+        return String.join(isAnd ? " AND " : " OR ", parts);
+    }
+
+    @Override
+    public String visitFunctionCall(FunctionCall call, Void value) {
+
+        String name = call.getName().toLowerCase();
+
+        if (call.args.size() == 1 && call.args.get(0) instanceof SchemaPath) {
+
+            String path = N1qlUtil.path((SchemaPath) call.args.get(0));
+
+            if (path != null) {
+
+                //Drill doesn't distinguish between NULL and MISSING
+                switch (name) {
+                    case "isnull":
+                    case "is null":
+                        return path + " IS NOT VALUED";
+                    case "isnotnull":
+                    case "is not null":
+                        return path + " IS VALUED";
+                }
+            }
+        }
+
+        Comparison cmp = Comparison.of(call);
+
+        if (cmp == null) {
+
+            allExpressionsConverted = false;
+            return null;
+        }
+
+        return cmp.path + " " + cmp.op + " " + cmp.literal;
+    }
+
+    /**
+     * Try to translate an OR of equality comparisons on the same field into
+     * an IN
+     *
+     * @param args
+     * @return
+     */
+    private String toIn(List<LogicalExpression> args) {
+
+        String path = null;
+        List<String> literals = new ArrayList<>();
+
+        for (LogicalExpression arg : args) {
+
+            Comparison cmp = arg instanceof FunctionCall ? Comparison.of((FunctionCall) arg) : null;
+
+            if (cmp == null || !cmp.op.equals("=") || (path != null && !path.equals(cmp.path))) {
+                return null;
+            }
+
+            path = cmp.path;
+            literals.add(cmp.literal);
+        }
+
+        return path + " IN [" + String.join(", ", literals) + "]";
+    }
+
+    /**
+     * A comparison between a field and a literal
+     */
+    private static class Comparison {
+
+        private final String path;
+        private final String op;
+        private final String literal;
+        private final Object value;
+
+        private Comparison(String path, String op, String literal, Object value) {
+            this.path = path;
+            this.op = op;
+            this.literal = literal;
+            this.value = value;
+        }
+
+        /**
+         * Extract the comparison from a function call
+         *
+         * @param call
+         * @return The comparison or null if the call is no supported comparison
+         */
+        private static Comparison of(FunctionCall call) {
+
+            String op = COMPARE_OPS.get(call.getName().toLowerCase());
+
+            if (op == null || call.args.size() != 2) return null;
+
+            LogicalExpression left = call.args.get(0);
+            LogicalExpression right = call.args.get(1);
+
+            if (!(left instanceof SchemaPath)) {
+
+                //LIKE patterns are always on the right side
+                if (op.equals("LIKE")) return null;
+
+                LogicalExpression tmp = left;
+                left = right;
+                right = tmp;
+                op = SWAPPED_OPS.get(op);
+            }
+
+            if (!(left instanceof SchemaPath)) return null;
+
+            String path = N1qlUtil.path((SchemaPath) left);
+            Object value = valueOf(right);
+            String literal = N1qlUtil.literal(value);
+
+            if (path == null || literal == null || literal.equals("NULL")) return null;
+
+            if (op.equals("LIKE") && !(right instanceof ValueExpressions.QuotedString)) return null;
+
+            return new Comparison(path, op, literal, value);
+        }
+
+        /**
+         * Get the value of a literal expression
+         *
+         * @param e
+         * @return The value or null if the expression is no supported literal
+         */
+        private static Object valueOf(LogicalExpression e) {
+
+            if (e instanceof ValueExpressions.QuotedString) return ((ValueExpressions.QuotedString) e).value;
+            if (e instanceof ValueExpressions.IntExpression) return ((ValueExpressions.IntExpression) e).getInt();
+            if (e instanceof ValueExpressions.LongExpression) return ((ValueExpressions.LongExpression) e).getLong();
+            if (e instanceof ValueExpressions.FloatExpression) return ((ValueExpressions.FloatExpression) e).getFloat();
+            if (e instanceof ValueExpressions.DoubleExpression) return ((ValueExpressions.DoubleExpression) e).getDouble();
+            if (e instanceof ValueExpressions.BooleanExpression) return ((ValueExpressions.BooleanExpression) e).getBoolean();
+
+            return null;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2015 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.apache.drill;
+
+import com.couchbase.apache.drill.n1ql.N1qlUtil;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.calcite.plan.RelOptRuleCall;
+import org.apache.calcite.plan.RelOptRuleOperand;
+import org.apache.calcite.rel.core.AggregateCall;
+import org.apache.calcite.rex.RexInputRef;
+import org.apache.calcite.rex.RexNode;
+import org.apache.drill.common.expression.LogicalExpression;
+import org.apache.drill.common.expression.SchemaPath;
+import org.apache.drill.exec.planner.logical.DrillOptiq;
+import org.apache.drill.exec.planner.logical.DrillParseContext;
+import org.apache.drill.exec.planner.logical.RelOptHelper;
+import org.apache.drill.exec.planner.physical.AggPrelBase;
+import org.apache.drill.exec.planner.physical.AggPrelBase.OperatorPhase;
+import org.apache.drill.exec.planner.physical.FilterPrel;
+import org.apache.drill.exec.planner.physical.PrelUtil;
+import org.apache.drill.exec.planner.physical.ProjectPrel;
+import org.apache.drill.exec.planner.physical.ScanPrel;
+import org.apache.drill.exec.store.StoragePluginOptimizerRule;
+import org.apache.log4j.Logger;
+
+/**
+ * Replaces an aggregate on top of a Couchbase scan by a scan which executes a
+ * N1QL aggregate query
+ *
+ * The aggregate may sit on top of a projection of plain fields and on top of
+ * a filter. The filter has to be fully translatable, because it can't be
+ * applied after the aggregation.
+ *
+ * This is a physical rule, like the pushdown of filters and limits, so the
+ * aggregate is a hash or streaming aggregate on top of a ScanPrel. It's
+ * replaced by a ScanPrel with the same traits and row type. Only an
+ * aggregate which sees all rows of the scan, or the first phase of a two
+ * phase aggregation, is replaced. The second phase then merges the single
+ * result of the query.
+ *
+ * The documents of a vBucket can't be selected via N1QL, so the aggregation
+ * can't be split across fragments. The aggregated scan is executed as one
+ * query by one fragment.
+ *
+ * A COUNT(*) of the whole bucket isn't executed as a query at all. The count
+ * is taken from the statistics of the bucket.
+ *
+ * The aggregate of a view scan isn't executed via N1QL, because that would
+ * read the whole bucket. A COUNT(*) of a view with the built-in _count reduce
+ * function is taken from the reduced value of the view instead.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public abstract class CBPushDownAggregateForScan extends StoragePluginOptimizerRule {
+
+    private static final Logger LOG = Logger.getLogger(CBPushDownAggregateForScan.class.getName());
+
+    public static final StoragePluginOptimizerRule AGG_ON_SCAN = new CBPushDownAggregateForScan(
+            RelOptHelper.some(AggPrelBase.class, RelOptHelper.any(ScanPrel.class)), "CBPushDownAggregateForScan:Agg_On_Scan") {
+
+        @Override
+        public void onMatch(RelOptRuleCall call) {
+
+            pushDown(call, (AggPrelBase) call.rel(0), null, null, (ScanPrel) call.rel(1));
+        }
+    };
+
+    public static final StoragePluginOptimizerRule AGG_ON_PROJ_ON_SCAN = new CBPushDownAggregateForScan(
+            RelOptHelper.some(AggPrelBase.class, RelOptHelper.some(ProjectPrel.class, RelOptHelper.any(ScanPrel.class))), "CBPushDownAggregateForScan:Agg_On_Proj_On_Scan") {
+
+        @Override
+        public void onMatch(RelOptRuleCall call) {
+
+            pushDown(call, (AggPrelBase) call.rel(0), (ProjectPrel) call.rel(1), null, (ScanPrel) call.rel(2));
+        }
+    };
+
+    public static final StoragePluginOptimizerRule AGG_ON_FILTER_ON_SCAN = new CBPushDownAggregateForScan(
+            RelOptHelper.some(AggPrelBase.class, RelOptHelper.some(FilterPrel.class, RelOptHelper.any(ScanPrel.class))), "CBPushDownAggregateForScan:Agg_On_Filter_On_Scan") {
+
+        @Override
+        public void onMatch(RelOptRuleCall call) {
+
+            pushDown(call, (AggPrelBase) call.rel(0), null, (FilterPrel) call.rel(1), (ScanPrel) call.rel(2));
+        }
+    };
+
+    public static final StoragePluginOptimizerRule AGG_ON_PROJ_ON_FILTER_ON_SCAN = new CBPushDownAggregateForScan(
+            RelOptHelper.some(AggPrelBase.class, RelOptHelper.some(ProjectPrel.class, RelOptHelper.some(FilterPrel.class, RelOptHelper.any(ScanPrel.class)))), "CBPushDownAggregateForScan:Agg_On_Proj_On_Filter_On_Scan") {
+
+        @Override
+        public void onMatch(RelOptRuleCall call) {
+
+            pushDown(call, (AggPrelBase) call.rel(0), (ProjectPrel) call.rel(1), (FilterPrel) call.rel(2), (ScanPrel) call.rel(3));
+        }
+    };
+
+    private CBPushDownAggregateForScan(RelOptRuleOperand operand, String id) {
+
+        super(operand, id);
+    }
+
+    @Override
+    public boolean matches(RelOptRuleCall call) {
+
+        final AggPrelBase agg = (AggPrelBase) call.rel(0);
+        final ScanPrel scan = (ScanPrel) call.rels[call.rels.length - 1];
+
+        //The second phase aggregates the partial results of other fragments
+        if (agg.getOperatorPhase() == OperatorPhase.PHASE_2of2) {
+            return false;
+        }
+
+        if (scan.getGroupScan() instanceof CBDefaultGroupScan) {
+            return super.matches(call);
+        }
+
+        return false;
+    }
+
+    /**
+     * Replace the aggregate by an aggregated scan
+     *
+     * @param call
+     * @param agg
+     * @param project The projection or null
+     * @param filter The filter or null
+     * @param scan
+     */
+    protected static void pushDown(RelOptRuleCall call, AggPrelBase agg, ProjectPrel project, FilterPrel filter, ScanPrel scan) {
+
+        CBDefaultGroupScan groupScan = (CBDefaultGroupScan) scan.getGroupScan();
+
+        if (groupScan.isAggregatePushedDown() || groupScan.getScanSpec().getKeys() != null
+                || groupScan.getScanSpec().getCheckpoint() != null
+                || (filter != null && groupScan.isFilterPushedDown())) {
+            return;
+        }
+
+        //The N1QL path of every field of the scan
+        List<String> fields = new ArrayList<>();
+
+        for (String name : scan.getRowType().getFieldNames()) {
+
+            fields.add(name.equals("*") ? null : N1qlUtil.path(SchemaPath.getSimplePath(name)));
+        }
+
+        //The projection may only pass fields through
+        List<String> inputs = fields;
+
+        if (project != null) {
+
+            inputs = new ArrayList<>();
+
+            for (RexNode expr : project.getProjects()) {
+
+                if (!(expr instanceof RexInputRef)) return;
+
+                inputs.add(fields.get(((RexInputRef) expr).getIndex()));
+            }
+        }
+
+        CBAggregateBuilder builder = new CBAggregateBuilder(agg, inputs);
+
+        if (!builder.build()) {
+            return;
+        }
+
+        CBDefaultScanSpec scanSpec = groupScan.getScanSpec();
+
+        if (scanSpec.getMode() == CBScanMode.VIEW && (filter != null || !isCountAll(agg) || !groupScan.isCountedByView())) {
+            return;
+        }
+
+        if (filter == null && scanSpec.getWhere() == null && isCountAll(agg)) {
+
+            LOG.debug(scanSpec.getView() == null ? "Counting the documents via the bucket statistics" : "Counting the rows via the reduce function of the view");
+
+            CBDefaultGroupScan newGroupScan = groupScan.clone(scanSpec.withCount(builder.getSelect(), builder.getColumns()));
+
+            call.transformTo(ScanPrel.create(scan, agg.getTraitSet(), newGroupScan, agg.getRowType()));
+            return;
+        }
+
+        if (filter != null) {
+
+            LogicalExpression conditionExp = DrillOptiq.toDrill(new DrillParseContext(PrelUtil.getPlannerSettings(call.getPlanner())), scan, filter.getCondition());
+
+            CBFilterBuilder filterBuilder = new CBFilterBuilder(conditionExp);
+            String where = filterBuilder.parseTree();
+
+            if (where == null || !filterBuilder.isAllExpressionsConverted()) {
+                return;
+            }
+
+            scanSpec = scanSpec.withWhere(where);
+        }
+
+        LOG.debug("Pushing down the aggregate: " + builder.getSelect() + " GROUP BY " + builder.getGroupBy());
+
+        CBDefaultGroupScan newGroupScan = groupScan.clone(scanSpec.withAggregate(builder.getSelect(), builder.getGroupBy(), builder.getColumns()));
+
+        final ScanPrel newScanPrel = ScanPrel.create(scan, agg.getTraitSet(), newGroupScan, agg.getRowType());
+
+        call.transformTo(newScanPrel);
+    }
+
+    /**
+     * Check if the aggregate only counts all rows, without grouping keys
+     *
+     * @param agg
+     * @return
+     */
+    private static boolean isCountAll(AggPrelBase agg) {
+
+        if (!agg.getGroupSet().isEmpty() || agg.getAggCallList().isEmpty()) return false;
+
+        for (AggregateCall call : agg.getAggCallList()) {
+
+            if (!call.getAggregation().getName().equalsIgnoreCase("COUNT") || !call.getArgList().isEmpty() || call.isDistinct()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
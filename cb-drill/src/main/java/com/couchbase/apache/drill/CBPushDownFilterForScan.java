@@ -0,0 +1,131 @@
+/*
+ * Copyright 2015 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.apache.drill;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.calcite.plan.RelOptRuleCall;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rex.RexNode;
+import org.apache.drill.common.expression.LogicalExpression;
+import org.apache.drill.exec.planner.logical.DrillOptiq;
+import org.apache.drill.exec.planner.logical.DrillParseContext;
+import org.apache.drill.exec.planner.logical.RelOptHelper;
+import org.apache.drill.exec.planner.physical.FilterPrel;
+import org.apache.drill.exec.planner.physical.PrelUtil;
+import org.apache.drill.exec.planner.physical.ScanPrel;
+import org.apache.drill.exec.store.StoragePluginOptimizerRule;
+import org.apache.log4j.Logger;
+
+/**
+ * Pushes a filter on top of a Couchbase scan down into the scan as N1QL
+ * WHERE condition
+ *
+ * A filter which only matches documents with certain keys turns the scan 
+ * into a key lookup. The filter is kept if it has further conditions.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class CBPushDownFilterForScan extends StoragePluginOptimizerRule {
+
+    private static final Logger LOG = Logger.getLogger(CBPushDownFilterForScan.class.getName());
+
+    public static final StoragePluginOptimizerRule INSTANCE = new CBPushDownFilterForScan();
+
+    private CBPushDownFilterForScan() {
+
+        super(RelOptHelper.some(FilterPrel.class, RelOptHelper.any(ScanPrel.class)), "CBPushDownFilterForScan");
+    }
+
+    @Override
+    public boolean matches(RelOptRuleCall call) {
+
+        final ScanPrel scan = (ScanPrel) call.rel(1);
+
+        if (scan.getGroupScan() instanceof CBDefaultGroupScan) {
+            return super.matches(call);
+        }
+
+        return false;
+    }
+
+    @Override
+    public void onMatch(RelOptRuleCall call) {
+
+        final FilterPrel filter = (FilterPrel) call.rel(0);
+        final ScanPrel scan = (ScanPrel) call.rel(1);
+        final RexNode condition = filter.getCondition();
+
+        CBDefaultGroupScan groupScan = (CBDefaultGroupScan) scan.getGroupScan();
+
+        //A filter on top of an aggregated scan refers to the aggregated fields
+        if (groupScan.isFilterPushedDown() || groupScan.isAggregatePushedDown()) {
+            return;
+        }
+
+        //The changes since a checkpoint can only be streamed
+        if (groupScan.getScanSpec().getCheckpoint() != null) {
+            return;
+        }
+
+        //The fields of a filter can't be mapped to the keys of a view
+        if (groupScan.getScanSpec().getMode() == CBScanMode.VIEW) {
+            return;
+        }
+
+        LogicalExpression conditionExp = DrillOptiq.toDrill(new DrillParseContext(PrelUtil.getPlannerSettings(call.getPlanner())), scan, condition);
+
+        CBFilterBuilder builder = new CBFilterBuilder(conditionExp);
+        String where = builder.parseTree();
+
+        if (where == null) {
+            return;
+        }
+
+        CBDefaultScanSpec newScanSpec;
+        boolean allConverted = builder.isAllExpressionsConverted();
+
+        if (builder.getKeys() != null) {
+
+            LOG.debug("Looking up the keys: " + builder.getKeys());
+            newScanSpec = groupScan.getScanSpec().withKeys(builder.getKeys());
+            allConverted = builder.isKeysOnly();
+
+        } else if (groupScan.getScanSpec().getMode() == CBScanMode.DCP) {
+
+            //A DCP stream can't be filtered
+            return;
+
+        } else {
+
+            LOG.debug("Pushing down the filter: " + where);
+            newScanSpec = groupScan.getScanSpec().withWhere(where, builder.getRanges());
+        }
+
+        CBDefaultGroupScan newGroupScan = groupScan.clone(newScanSpec);
+
+        final ScanPrel newScanPrel = ScanPrel.create(scan, filter.getTraitSet(), newGroupScan, scan.getRowType());
+
+        if (allConverted) {
+
+            call.transformTo(newScanPrel);
+
+        } else {
+
+            //Keep the filter for the parts which were not pushed down
+            call.transformTo(filter.copy(filter.getTraitSet(), ImmutableList.of((RelNode) newScanPrel)));
+        }
+    }
+}
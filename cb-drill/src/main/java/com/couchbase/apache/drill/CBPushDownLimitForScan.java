@@ -0,0 +1,215 @@
+/*
+ * Copyright 2015 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.apache.drill;
+
+import com.couchbase.apache.drill.n1ql.N1qlUtil;
+import com.google.common.collect.ImmutableList;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.calcite.plan.RelOptRuleCall;
+import org.apache.calcite.plan.RelOptRuleOperand;
+import org.apache.calcite.rel.RelFieldCollation;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rex.RexLiteral;
+import org.apache.drill.common.expression.SchemaPath;
+import org.apache.drill.exec.planner.logical.RelOptHelper;
+import org.apache.drill.exec.planner.physical.LimitPrel;
+import org.apache.drill.exec.planner.physical.ScanPrel;
+import org.apache.drill.exec.planner.physical.SortPrel;
+import org.apache.drill.exec.store.StoragePluginOptimizerRule;
+import org.apache.log4j.Logger;
+
+/**
+ * Pushes a limit on top of a Couchbase scan down into the scan
+ *
+ * Every sub-scan stops after offset + fetch records. The limit itself stays
+ * on top of the scan because it applies to the union of all sub-scans.
+ *
+ * A limit on top of a sort (TOP-N) is pushed down as N1QL ORDER BY + LIMIT
+ * if the bucket is scanned via N1QL. The query service then decides if an
+ * index can serve the order. The sort stays on top of the scan, but it only
+ * needs to sort the already limited result.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public abstract class CBPushDownLimitForScan extends StoragePluginOptimizerRule {
+
+    private static final Logger LOG = Logger.getLogger(CBPushDownLimitForScan.class.getName());
+
+    /**
+     * LIMIT directly on top of the scan
+     */
+    public static final StoragePluginOptimizerRule LIMIT_ON_SCAN = new CBPushDownLimitForScan(
+            RelOptHelper.some(LimitPrel.class, RelOptHelper.any(ScanPrel.class)), "CBPushDownLimitForScan:Limit_On_Scan") {
+
+        @Override
+        public void onMatch(RelOptRuleCall call) {
+
+            final LimitPrel limit = (LimitPrel) call.rel(0);
+            final ScanPrel scan = (ScanPrel) call.rel(1);
+
+            CBDefaultGroupScan groupScan = (CBDefaultGroupScan) scan.getGroupScan();
+
+            int max = rowsToFetch(limit);
+
+            if (max < 0 || groupScan.isLimitPushedDown(max)) {
+                return;
+            }
+
+            LOG.debug("Pushing down the limit: " + max);
+
+            CBDefaultGroupScan newGroupScan = groupScan.clone(groupScan.getScanSpec().withLimit(max));
+
+            final ScanPrel newScanPrel = ScanPrel.create(scan, scan.getTraitSet(), newGroupScan, scan.getRowType());
+
+            call.transformTo(limit.copy(limit.getTraitSet(), ImmutableList.of((RelNode) newScanPrel)));
+        }
+    };
+
+    /**
+     * LIMIT on top of a sort on top of the scan
+     */
+    public static final StoragePluginOptimizerRule LIMIT_ON_SORT_ON_SCAN = new CBPushDownLimitForScan(
+            RelOptHelper.some(LimitPrel.class, RelOptHelper.some(SortPrel.class, RelOptHelper.any(ScanPrel.class))), "CBPushDownLimitForScan:Limit_On_Sort_On_Scan") {
+
+        @Override
+        public boolean matches(RelOptRuleCall call) {
+
+            final ScanPrel scan = (ScanPrel) call.rel(2);
+
+            if (scan.getGroupScan() instanceof CBDefaultGroupScan) {
+
+                CBDefaultGroupScan groupScan = (CBDefaultGroupScan) scan.getGroupScan();
+
+                //Only a query can return ordered records, the ordering of an 
+                //aggregated scan would refer to the aggregated fields
+                return groupScan.getScanSpec().getMode() == CBScanMode.N1QL && !groupScan.isAggregatePushedDown();
+            }
+
+            return false;
+        }
+
+        @Override
+        public void onMatch(RelOptRuleCall call) {
+
+            final LimitPrel limit = (LimitPrel) call.rel(0);
+            final SortPrel sort = (SortPrel) call.rel(1);
+            final ScanPrel scan = (ScanPrel) call.rel(2);
+
+            CBDefaultGroupScan groupScan = (CBDefaultGroupScan) scan.getGroupScan();
+
+            int max = rowsToFetch(limit);
+
+            if (max < 0 || groupScan.isLimitPushedDown(max)) {
+                return;
+            }
+
+            String orderBy = orderBy(sort, scan);
+
+            if (orderBy == null) {
+                return;
+            }
+
+            LOG.debug("Pushing down the ordering: " + orderBy);
+            LOG.debug("Pushing down the limit: " + max);
+
+            CBDefaultGroupScan newGroupScan = groupScan.clone(groupScan.getScanSpec().withOrderBy(orderBy).withLimit(max));
+
+            final ScanPrel newScanPrel = ScanPrel.create(scan, scan.getTraitSet(), newGroupScan, scan.getRowType());
+            final RelNode newSort = sort.copy(sort.getTraitSet(), ImmutableList.of((RelNode) newScanPrel));
+
+            call.transformTo(limit.copy(limit.getTraitSet(), ImmutableList.of(newSort)));
+        }
+    };
+
+    private CBPushDownLimitForScan(RelOptRuleOperand operand, String id) {
+
+        super(operand, id);
+    }
+
+    @Override
+    public boolean matches(RelOptRuleCall call) {
+
+        final ScanPrel scan = (ScanPrel) call.rel(1);
+
+        if (scan.getGroupScan() instanceof CBDefaultGroupScan) {
+            return super.matches(call);
+        }
+
+        return false;
+    }
+
+    /**
+     * The number of records which a sub-scan needs to return
+     *
+     * @param limit
+     * @return The number of records or -1 if the limit has no fetch part
+     */
+    protected static int rowsToFetch(LimitPrel limit) {
+
+        if (limit.getFetch() == null) return -1;
+
+        int offset = limit.getOffset() == null ? 0 : Math.max(0, RexLiteral.intValue(limit.getOffset()));
+        int fetch = Math.max(0, RexLiteral.intValue(limit.getFetch()));
+
+        //Overflow
+        if (offset + fetch < 0) return -1;
+
+        return offset + fetch;
+    }
+
+    /**
+     * Render the N1QL ORDER BY list of a sort
+     *
+     * N1QL orders MISSING and NULL before all values, whereas Drill orders
+     * NULL last in ascending and first in descending order by default. An
+     * additional IS [NOT] VALUED key is used if the null ordering differs.
+     *
+     * @param sort
+     * @param scan
+     * @return The list or null if it can't be rendered
+     */
+    protected static String orderBy(SortPrel sort, ScanPrel scan) {
+
+        List<String> fieldNames = scan.getRowType().getFieldNames();
+        List<String> keys = new ArrayList<>();
+
+        for (RelFieldCollation fc : sort.getCollation().getFieldCollations()) {
+
+            String path = N1qlUtil.path(SchemaPath.getSimplePath(fieldNames.get(fc.getFieldIndex())));
+
+            if (path == null) return null;
+
+            boolean desc = fc.getDirection() == RelFieldCollation.Direction.DESCENDING;
+            boolean nullsFirst = fc.nullDirection == RelFieldCollation.NullDirection.UNSPECIFIED
+                    ? desc
+                    : fc.nullDirection == RelFieldCollation.NullDirection.FIRST;
+
+            if (!desc && !nullsFirst) {
+
+                keys.add(path + " IS NOT VALUED");
+
+            } else if (desc && nullsFirst) {
+
+                keys.add(path + " IS VALUED");
+            }
+
+            keys.add(desc ? path + " DESC" : path);
+        }
+
+        return keys.isEmpty() ? null : String.join(", ", keys);
+    }
+}
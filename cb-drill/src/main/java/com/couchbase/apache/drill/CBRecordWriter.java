@@ -0,0 +1,411 @@
+/*
+ * Copyright 2015 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.apache.drill;
+
+import com.couchbase.apache.drill.error.DocumentWriteError;
+import com.couchbase.apache.drill.n1ql.N1qlUtil;
+import com.couchbase.client.core.BackpressureException;
+import com.couchbase.client.core.time.Delay;
+import com.couchbase.client.java.AsyncBucket;
+import com.couchbase.client.java.document.RawJsonDocument;
+import com.couchbase.client.java.error.TemporaryFailureException;
+import com.couchbase.client.java.util.retry.RetryBuilder;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.apache.drill.exec.record.VectorAccessible;
+import org.apache.drill.exec.record.VectorWrapper;
+import org.apache.drill.exec.store.EventBasedRecordWriter;
+import org.apache.drill.exec.store.EventBasedRecordWriter.FieldConverter;
+import org.apache.drill.exec.store.JSONOutputRecordWriter;
+import org.apache.drill.exec.store.RecordWriter;
+import org.apache.drill.exec.vector.complex.fn.BasicJsonOutput;
+import org.apache.drill.exec.vector.complex.reader.FieldReader;
+import org.apache.log4j.Logger;
+import rx.Observable;
+import rx.functions.Func1;
+
+/**
+ * Writes the records of a fragment as JSON documents into a bucket
+ *
+ * The documents are collected and then upserted asynchronously with a
+ * bounded number of upserts in flight. The writer waits until a batch of
+ * documents is stored before it accepts further records, so a slow cluster
+ * slows the query down instead of piling up documents in memory. Upserts
+ * which are rejected because the cluster is temporarily overloaded are
+ * retried with an exponential delay.
+ *
+ * The key of a document is taken from the key column. A random key is used
+ * if the column is missing or empty. Neither the key column nor the `_key`
+ * pseudo column is stored as part of the document.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class CBRecordWriter extends JSONOutputRecordWriter implements RecordWriter {
+
+    private static final Logger LOG = Logger.getLogger(CBRecordWriter.class.getName());
+
+    /**
+     * The max. number of retries of a temporary failure
+     */
+    private static final int MAX_RETRIES = 10;
+
+    /**
+     * The max. delay between two retries in milliseconds
+     */
+    private static final long MAX_RETRY_DELAY = 1000;
+
+    private static final Func1<Observable<? extends Throwable>, Observable<?>> RETRY = RetryBuilder
+            .anyOf(TemporaryFailureException.class, BackpressureException.class)
+            .delay(Delay.exponential(TimeUnit.MILLISECONDS, MAX_RETRY_DELAY))
+            .max(MAX_RETRIES)
+            .build();
+
+    /**
+     * The bucket to write to
+     */
+    private final AsyncBucket bucket;
+
+    /**
+     * The name of the key column
+     */
+    private final String keyColumn;
+
+    /**
+     * The max. number of concurrent upserts
+     */
+    private final int concurrency;
+
+    /**
+     * The number of documents per batch
+     */
+    private final int batchSize;
+
+    /**
+     * The documents which are not yet stored
+     */
+    private final List<RawJsonDocument> pending = new ArrayList<>();
+
+    /**
+     * The JSON of the current record
+     */
+    private final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+
+    private JsonGenerator generator;
+
+    /**
+     * The reader of the key column, null if there is no key column
+     */
+    private FieldReader keyReader;
+
+    /**
+     * The number of stored documents
+     */
+    private long written;
+
+    /**
+     * The constructor
+     *
+     * @param bucket
+     * @param keyColumn
+     * @param concurrency
+     * @param batchSize
+     */
+    public CBRecordWriter(AsyncBucket bucket, String keyColumn, int concurrency, int batchSize) {
+
+        this.bucket = bucket;
+        this.keyColumn = keyColumn;
+        this.concurrency = concurrency;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public void init(Map<String, String> writerOptions) throws IOException {
+
+        LOG.debug("Initializing the writer for bucket " + bucket.name() + " ...");
+
+        this.generator = new JsonFactory().createGenerator(stream);
+        this.gen = new BasicJsonOutput(generator);
+    }
+
+    @Override
+    public void updateSchema(VectorAccessible batch) throws IOException {
+
+        keyReader = null;
+
+        for (VectorWrapper<?> w : batch) {
+
+            if (w.getField().getLastName().equals(keyColumn)) {
+                keyReader = w.getValueVector().getReader();
+            }
+        }
+
+        LOG.debug("Key column " + keyColumn + (keyReader == null ? " is missing" : " is available"));
+    }
+
+    /**
+     * Records are not partitioned
+     *
+     * @param index
+     */
+    public void checkForNewPartition(int index) {
+    }
+
+    @Override
+    public void startRecord() throws IOException {
+
+        gen.writeStartObject();
+    }
+
+    @Override
+    public void endRecord() throws IOException {
+
+        gen.writeEndObject();
+        generator.flush();
+
+        String json = new String(stream.toByteArray(), StandardCharsets.UTF_8);
+        stream.reset();
+
+        pending.add(RawJsonDocument.create(key(), json));
+
+        if (pending.size() >= batchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * The key of the current record
+     *
+     * @return
+     */
+    private String key() {
+
+        Object value = keyReader == null ? null : keyReader.readObject();
+
+        if (value == null || value.toString().isEmpty()) {
+            return UUID.randomUUID().toString();
+        }
+
+        return value.toString();
+    }
+
+    /**
+     * Upsert the pending documents and wait until all of them are stored
+     */
+    private void flush() {
+
+        if (pending.isEmpty()) return;
+
+        LOG.debug("Upserting " + pending.size() + " documents ...");
+
+        try {
+
+            Observable.from(pending)
+                    .flatMap(doc -> bucket.upsert(doc).retryWhen(RETRY), concurrency)
+                    .toBlocking()
+                    .lastOrDefault(null);
+
+        } catch (RuntimeException e) {
+
+            DocumentWriteError err = new DocumentWriteError(e, bucket.name());
+            LOG.error(err.toString());
+            throw err;
+        }
+
+        written += pending.size();
+        pending.clear();
+    }
+
+    @Override
+    public FieldConverter getNewVarCharConverter(int fieldId, String fieldName, FieldReader reader) {
+
+        return isKeyField(fieldName) ? new SkipConverter(fieldId, fieldName, reader) : super.getNewVarCharConverter(fieldId, fieldName, reader);
+    }
+
+    @Override
+    public FieldConverter getNewNullableVarCharConverter(int fieldId, String fieldName, FieldReader reader) {
+
+        return isKeyField(fieldName) ? new SkipConverter(fieldId, fieldName, reader) : super.getNewNullableVarCharConverter(fieldId, fieldName, reader);
+    }
+
+    private boolean isKeyField(String fieldName) {
+
+        return fieldName.equals(N1qlUtil.KEY_FIELD) || fieldName.equals(keyColumn);
+    }
+
+    @Override
+    public FieldConverter getNewMapConverter(int fieldId, String fieldName, FieldReader reader) {
+
+        return new MapJsonConverter(fieldId, fieldName, reader);
+    }
+
+    @Override
+    public FieldConverter getNewRepeatedMapConverter(int fieldId, String fieldName, FieldReader reader) {
+
+        return new RepeatedMapJsonConverter(fieldId, fieldName, reader);
+    }
+
+    @Override
+    public FieldConverter getNewRepeatedListConverter(int fieldId, String fieldName, FieldReader reader) {
+
+        return new RepeatedListJsonConverter(fieldId, fieldName, reader);
+    }
+
+    @Override
+    public void abort() throws IOException {
+
+        LOG.debug("Aborting, dropping " + pending.size() + " pending documents");
+
+        pending.clear();
+    }
+
+    @Override
+    public void cleanup() throws IOException {
+
+        flush();
+
+        LOG.debug("Wrote " + written + " documents to bucket " + bucket.name());
+
+        if (generator != null) {
+            generator.close();
+        }
+    }
+
+    /**
+     * Leaves a field out
+     */
+    private class SkipConverter extends FieldConverter {
+
+        public SkipConverter(int fieldId, String fieldName, FieldReader reader) {
+            super(fieldId, fieldName, reader);
+        }
+
+        @Override
+        public void writeField() throws IOException {
+        }
+    }
+
+    private class MapJsonConverter extends FieldConverter {
+
+        private final List<FieldConverter> converters = new ArrayList<>();
+
+        public MapJsonConverter(int fieldId, String fieldName, FieldReader reader) {
+
+            super(fieldId, fieldName, reader);
+
+            int i = 0;
+
+            for (String name : reader) {
+                converters.add(EventBasedRecordWriter.getConverter(CBRecordWriter.this, i++, name, reader.reader(name)));
+            }
+        }
+
+        @Override
+        public void startField() throws IOException {
+            gen.writeFieldName(fieldName);
+        }
+
+        @Override
+        public void writeField() throws IOException {
+
+            gen.writeStartObject();
+
+            for (FieldConverter converter : converters) {
+                converter.startField();
+                converter.writeField();
+            }
+
+            gen.writeEndObject();
+        }
+    }
+
+    private class RepeatedMapJsonConverter extends FieldConverter {
+
+        private final List<FieldConverter> converters = new ArrayList<>();
+
+        public RepeatedMapJsonConverter(int fieldId, String fieldName, FieldReader reader) {
+
+            super(fieldId, fieldName, reader);
+
+            int i = 0;
+
+            for (String name : reader) {
+                converters.add(EventBasedRecordWriter.getConverter(CBRecordWriter.this, i++, name, reader.reader(name)));
+            }
+        }
+
+        @Override
+        public void startField() throws IOException {
+            gen.writeFieldName(fieldName);
+        }
+
+        @Override
+        public void writeField() throws IOException {
+
+            gen.writeStartArray();
+
+            while (reader.next()) {
+
+                gen.writeStartObject();
+
+                for (FieldConverter converter : converters) {
+                    converter.startField();
+                    converter.writeField();
+                }
+
+                gen.writeEndObject();
+            }
+
+            gen.writeEndArray();
+        }
+    }
+
+    private class RepeatedListJsonConverter extends FieldConverter {
+
+        private final FieldConverter converter;
+
+        public RepeatedListJsonConverter(int fieldId, String fieldName, FieldReader reader) {
+
+            super(fieldId, fieldName, reader);
+
+            converter = EventBasedRecordWriter.getConverter(CBRecordWriter.this, fieldId, fieldName, reader.reader());
+        }
+
+        @Override
+        public void startField() throws IOException {
+            gen.writeFieldName(fieldName);
+        }
+
+        @Override
+        public void writeField() throws IOException {
+
+            gen.writeStartArray();
+
+            while (reader.next()) {
+                converter.writeField();
+            }
+
+            gen.writeEndArray();
+        }
+    }
+}
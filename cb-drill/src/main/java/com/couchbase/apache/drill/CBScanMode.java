@@ -0,0 +1,59 @@
+/*
+ * Copyright 2015 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.apache.drill;
+
+/**
+ * The ways how a Couchbase bucket can be scanned
+ * 
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public enum CBScanMode {
+    
+    /**
+     * The keys are listed via N1QL, the documents are fetched via the 
+     * Key-Value API. The work is split up by ranges of document keys, or of
+     * an indexed field.
+     */
+    KV,
+    
+    /**
+     * The rows are directly retrieved via a N1QL query
+     */
+    N1QL,
+    
+    /**
+     * Only the documents with the given keys are fetched via the Key-Value
+     * API. The work is split up by the vBuckets of the keys.
+     */
+    KEYS,
+    
+    /**
+     * The documents are streamed via DCP. The work is split up by vBuckets.
+     */
+    DCP,
+    
+    /**
+     * The number of documents is taken from the statistics of the bucket. 
+     * No document is read.
+     */
+    COUNT,
+    
+    /**
+     * The rows of a map/reduce view are read, their documents are fetched via
+     * the Key-Value API. The work is split up by ranges of view keys.
+     */
+    VIEW
+}
@@ -17,18 +17,27 @@
 package com.couchbase.apache.drill;
 
 import com.couchbase.apache.drill.config.CBStoragePluginConfig;
-import com.couchbase.apache.drill.config.ConfigFactory;
+import com.couchbase.apache.drill.config.CouchbaseConfig;
+import com.couchbase.apache.drill.conn.CBConnectionRegistry;
+import com.couchbase.apache.drill.n1ql.N1qlPreparedCache;
+import com.couchbase.apache.drill.partition.KeySampleCache;
+import com.couchbase.apache.drill.schema.BucketSchemaCache;
 import com.couchbase.apache.drill.schema.CBSchemaFactory;
+import com.couchbase.apache.drill.stats.BucketStatsCache;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableSet;
 import java.io.IOException;
+import java.util.Set;
 import org.apache.calcite.schema.SchemaPlus;
 import org.apache.drill.common.JSONOptions;
 import org.apache.drill.common.logical.StoragePluginConfig;
+import org.apache.drill.exec.ops.OptimizerRulesContext;
 import org.apache.drill.exec.physical.base.AbstractGroupScan;
 import org.apache.drill.exec.server.DrillbitContext;
 import org.apache.drill.exec.store.AbstractStoragePlugin;
 import org.apache.drill.exec.store.SchemaConfig;
+import org.apache.drill.exec.store.StoragePluginOptimizerRule;
 import org.apache.log4j.Logger;
 
 /**
@@ -55,6 +64,31 @@ public class CBStoragePlugin extends AbstractStoragePlugin {
      * The drill context
      */
     private final DrillbitContext context;
+    
+    /**
+     * The connections of this plug-in instance
+     */
+    private final CBConnectionRegistry connections;
+    
+    /**
+     * The cached bucket statistics
+     */
+    private final BucketStatsCache statsCache;
+    
+    /**
+     * The cached bucket schemas
+     */
+    private final BucketSchemaCache schemaCache;
+
+    /**
+     * The sampled document keys per bucket
+     */
+    private final KeySampleCache keySampleCache;
+    
+    /**
+     * The prepared N1QL statements, null if statements are executed ad hoc
+     */
+    private final N1qlPreparedCache preparedCache;
    
     
     /**
@@ -71,6 +105,12 @@ public class CBStoragePlugin extends AbstractStoragePlugin {
         
         this.config = config;
         this.context = context;
+        this.connections = new CBConnectionRegistry(config.getCBConfig());
+        this.statsCache = new BucketStatsCache(connections);
+        this.schemaCache = new BucketSchemaCache(connections);
+        this.keySampleCache = new KeySampleCache(connections);
+        this.preparedCache = config.getCBConfig().getN1qlPreparedCacheSize() > 0
+                ? new N1qlPreparedCache(config.getCBConfig().getN1qlPreparedCacheSize()) : null;
         this.schemaFactory = new CBSchemaFactory(this, name);        
     }
     
@@ -85,6 +125,15 @@ public class CBStoragePlugin extends AbstractStoragePlugin {
         return this.config;
     }
 
+    /**
+     * Gets the parsed Couchbase configuration of this plug-in instance
+     * 
+     * @return 
+     */
+    public CouchbaseConfig getCBConfig() {
+        return this.config.getCBConfig();
+    }
+
     /**
      * Gets the passed context
      * 
@@ -94,6 +143,44 @@ public class CBStoragePlugin extends AbstractStoragePlugin {
         return this.context;
     }
     
+    /**
+     * Gets the connections of this plug-in instance
+     * 
+     * @return 
+     */
+    public CBConnectionRegistry getConnections() {
+        return this.connections;
+    }
+
+    public BucketStatsCache getStatsCache() {
+        return this.statsCache;
+    }
+
+    public BucketSchemaCache getSchemaCache() {
+        return this.schemaCache;
+    }
+
+    public KeySampleCache getKeySampleCache() {
+        return this.keySampleCache;
+    }
+
+    public N1qlPreparedCache getPreparedCache() {
+        return this.preparedCache;
+    }
+    
+    /**
+     * Stops the bucket catalog and closes the buckets, the cluster reference 
+     * and the environment of this plug-in instance
+     */
+    @Override
+    public void close() {
+        
+        LOG.debug("Closing Couchbase Storage Plugin ...");
+        
+        this.schemaFactory.close();
+        this.connections.close();
+    }
+    
     
     /**
      * Register the schema
@@ -129,7 +216,7 @@ public class CBStoragePlugin extends AbstractStoragePlugin {
      */
     @Override
     public boolean supportsWrite() {
-       return false;
+       return true;
     }
 
     @Override
@@ -144,5 +231,23 @@ public class CBStoragePlugin extends AbstractStoragePlugin {
         return new CBDefaultGroupScan(userName,this,scanSpec);
         
     }    
+
+    /**
+     * The rules which push parts of the query down into the Couchbase scan
+     * 
+     * @param optimizerRulesContext
+     * @return 
+     */
+    @Override
+    public Set<StoragePluginOptimizerRule> getOptimizerRules(OptimizerRulesContext optimizerRulesContext) {
+        
+        return ImmutableSet.of(CBPushDownFilterForScan.INSTANCE,
+                CBPushDownLimitForScan.LIMIT_ON_SCAN,
+                CBPushDownLimitForScan.LIMIT_ON_SORT_ON_SCAN,
+                CBPushDownAggregateForScan.AGG_ON_SCAN,
+                CBPushDownAggregateForScan.AGG_ON_PROJ_ON_SCAN,
+                CBPushDownAggregateForScan.AGG_ON_FILTER_ON_SCAN,
+                CBPushDownAggregateForScan.AGG_ON_PROJ_ON_FILTER_ON_SCAN);
+    }
     
 }
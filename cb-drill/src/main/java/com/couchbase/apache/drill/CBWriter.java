@@ -0,0 +1,122 @@
+/*
+ * Copyright 2015 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.apache.drill;
+
+import com.couchbase.apache.drill.config.CBStoragePluginConfig;
+import com.fasterxml.jackson.annotation.JacksonInject;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonTypeName;
+import org.apache.drill.common.exceptions.ExecutionSetupException;
+import org.apache.drill.common.logical.StoragePluginConfig;
+import org.apache.drill.exec.physical.base.AbstractWriter;
+import org.apache.drill.exec.physical.base.PhysicalOperator;
+import org.apache.drill.exec.store.StoragePluginRegistry;
+import org.apache.log4j.Logger;
+
+/**
+ * Writes the records of its child into a bucket
+ *
+ * Every fragment gets its own writer, so the writes are executed in
+ * parallel.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+@JsonTypeName("couchbase-writer")
+public class CBWriter extends AbstractWriter {
+
+    private static final Logger LOG = Logger.getLogger(CBWriter.class.getName());
+
+    /**
+     * The associated storage plugin
+     */
+    private final CBStoragePlugin plugin;
+
+    /**
+     * The bucket to write to
+     */
+    private final String bucket;
+
+    /**
+     * Construct from JSON
+     *
+     * @param child
+     * @param bucket
+     * @param config
+     * @param pluginRegistry
+     * @throws ExecutionSetupException
+     */
+    @JsonCreator
+    public CBWriter(
+            @JsonProperty("child") PhysicalOperator child,
+            @JsonProperty("bucket") String bucket,
+            @JsonProperty("storage") StoragePluginConfig config,
+            @JacksonInject StoragePluginRegistry pluginRegistry) throws ExecutionSetupException {
+
+        this(child, (CBStoragePlugin) pluginRegistry.getPlugin(config), bucket);
+    }
+
+    /**
+     * The short constructor
+     *
+     * @param child
+     * @param plugin
+     * @param bucket
+     */
+    public CBWriter(PhysicalOperator child, CBStoragePlugin plugin, String bucket) {
+
+        super(child);
+
+        LOG.debug("Initializing Writer ...");
+        LOG.debug("bucket = " + bucket);
+
+        this.plugin = plugin;
+        this.bucket = bucket;
+    }
+
+    @Override
+    protected PhysicalOperator getNewWithChild(PhysicalOperator child) {
+
+        return new CBWriter(child, plugin, bucket);
+    }
+
+    /**
+     * The type as integer of our Couchbase writer operator
+     *
+     * @return
+     */
+    @Override
+    public int getOperatorType() {
+
+        return 20000 + 'c' + 'o' + 'u' + 'c' + 'h';
+    }
+
+    @JsonProperty("bucket")
+    public String getBucket() {
+        return bucket;
+    }
+
+    @JsonProperty("storage")
+    public CBStoragePluginConfig getConfig() {
+        return (CBStoragePluginConfig) plugin.getConfig();
+    }
+
+    @JsonIgnore
+    public CBStoragePlugin getPlugin() {
+        return plugin;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2015 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.apache.drill;
+
+import com.couchbase.apache.drill.config.CouchbaseConfig;
+import java.util.List;
+import org.apache.drill.common.exceptions.ExecutionSetupException;
+import org.apache.drill.exec.ops.FragmentContext;
+import org.apache.drill.exec.physical.impl.BatchCreator;
+import org.apache.drill.exec.physical.impl.WriterRecordBatch;
+import org.apache.drill.exec.record.CloseableRecordBatch;
+import org.apache.drill.exec.record.RecordBatch;
+import org.apache.log4j.Logger;
+
+/**
+ * Creates the writer batch of a writer
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class CBWriterBatchCreator implements BatchCreator<CBWriter> {
+
+    private static final Logger LOG = Logger.getLogger(CBWriterBatchCreator.class.getName());
+
+    /**
+     * One writer writes the records of its only child
+     *
+     * @param context
+     * @param config
+     * @param children
+     * @return
+     * @throws ExecutionSetupException
+     */
+    @Override
+    public CloseableRecordBatch getBatch(FragmentContext context, CBWriter config, List<RecordBatch> children) throws ExecutionSetupException {
+
+        LOG.debug("Creating the writer batch ...");
+
+        if (children.size() != 1) throw new IllegalArgumentException("Exactly one child is required!");
+
+        CouchbaseConfig cfg = config.getConfig().getCBConfig();
+
+        CBRecordWriter writer = new CBRecordWriter(config.getPlugin().getConnections().getAsyncBucket(config.getBucket()),
+                cfg.getWriteKeyColumn(),
+                cfg.getWriteConcurrency(),
+                cfg.getWriteBatchSize());
+
+        return new WriterRecordBatch(config, children.get(0), context, writer);
+    }
+
+}
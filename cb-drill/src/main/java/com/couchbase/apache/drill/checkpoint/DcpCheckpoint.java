@@ -0,0 +1,63 @@
+/*
+ * Copyright 2015 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.apache.drill.checkpoint;
+
+/**
+ * The position up to which the changes of a vBucket were read
+ *
+ * The sequence number is only meaningful together with the UUID of the
+ * vBucket. A vBucket gets a new UUID after a failover, in which case the
+ * changes since the sequence number can't be told apart anymore.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class DcpCheckpoint {
+
+    /**
+     * The UUID of the vBucket
+     */
+    private final long uuid;
+
+    /**
+     * The sequence number of the last change which was read
+     */
+    private final long seqno;
+
+    /**
+     * The constructor
+     *
+     * @param uuid
+     * @param seqno
+     */
+    public DcpCheckpoint(long uuid, long seqno) {
+
+        this.uuid = uuid;
+        this.seqno = seqno;
+    }
+
+    public long getUuid() {
+        return uuid;
+    }
+
+    public long getSeqno() {
+        return seqno;
+    }
+
+    @Override
+    public String toString() {
+        return "{uuid=" + uuid + ", seqno=" + seqno + "}";
+    }
+}
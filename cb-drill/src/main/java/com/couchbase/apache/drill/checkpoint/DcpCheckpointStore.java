@@ -0,0 +1,212 @@
+/*
+ * Copyright 2015 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.apache.drill.checkpoint;
+
+import com.couchbase.apache.drill.error.CheckpointReadError;
+import com.couchbase.apache.drill.error.CheckpointWriteError;
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.JsonDocument;
+import com.couchbase.client.java.document.json.JsonObject;
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+import org.apache.log4j.Logger;
+import rx.Observable;
+
+/**
+ * Stores the DCP checkpoints of a scanned bucket under a name
+ *
+ * Every vBucket has its own checkpoint document in the checkpoint bucket. The
+ * sub-scans of a query read different vBuckets, but the checkpoints are only
+ * moved if the whole query read all changes. Otherwise a query which failed
+ * in one fragment would lose the changes which the other fragments already
+ * read. So every sub-scan which read all of its changes just stages its
+ * checkpoints under the id of the query and counts its vBuckets. The sub-scan
+ * which completes the count promotes the staged checkpoints of all vBuckets.
+ * Staged checkpoints of failed queries expire.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class DcpCheckpointStore {
+
+    private static final Logger LOG = Logger.getLogger(DcpCheckpointStore.class.getName());
+
+    /**
+     * The prefix of the checkpoint documents
+     */
+    private static final String KEY_PREFIX = "cb-drill::checkpoint::";
+
+    /**
+     * The max. number of concurrent writes when saving
+     */
+    private static final int CONCURRENCY = 64;
+
+    /**
+     * How long staged checkpoints are kept, in seconds
+     */
+    private static final int STAGE_EXPIRY = 24 * 60 * 60;
+
+    /**
+     * The bucket which stores the checkpoints
+     */
+    private final Bucket store;
+
+    /**
+     * The scanned bucket
+     */
+    private final String bucket;
+
+    /**
+     * The name of the checkpoint
+     */
+    private final String name;
+
+    /**
+     * The id of the query which stages checkpoints
+     */
+    private final String query;
+
+    /**
+     * The number of vBuckets of the scanned bucket
+     */
+    private final int numVBuckets;
+
+    /**
+     * The constructor
+     *
+     * @param store
+     * @param bucket
+     * @param name
+     * @param query The id of the query
+     * @param numVBuckets
+     */
+    public DcpCheckpointStore(Bucket store, String bucket, String name, String query, int numVBuckets) {
+
+        this.store = store;
+        this.bucket = bucket;
+        this.name = name;
+        this.query = query;
+        this.numVBuckets = numVBuckets;
+    }
+
+    /**
+     * Get the checkpoint of a vBucket
+     *
+     * @param vBucket
+     * @return The checkpoint or null if the changes were never read
+     */
+    public DcpCheckpoint get(short vBucket) {
+
+        try {
+
+            JsonDocument doc = store.get(key(vBucket));
+
+            if (doc == null) return null;
+
+            return new DcpCheckpoint(doc.content().getLong("uuid"), doc.content().getLong("seqno"));
+
+        } catch (RuntimeException e) {
+
+            CheckpointReadError err = new CheckpointReadError(e, toString());
+            LOG.error(err.toString());
+            throw err;
+        }
+    }
+
+    /**
+     * Stage the checkpoints of the given vBuckets. They are promoted once the
+     * checkpoints of all vBuckets were staged by the query.
+     *
+     * @param checkpoints The checkpoints by vBucket
+     */
+    public void stage(Map<Short, DcpCheckpoint> checkpoints) {
+
+        LOG.debug("Staging " + checkpoints.size() + " checkpoints of " + this + " ...");
+
+        try {
+
+            write(checkpoints, this::stagedKey, STAGE_EXPIRY);
+
+            long staged = store.counter(countKey(), checkpoints.size(), checkpoints.size(), STAGE_EXPIRY).content();
+
+            if (staged == numVBuckets) promote();
+
+        } catch (RuntimeException e) {
+
+            CheckpointWriteError err = new CheckpointWriteError(e, toString());
+            LOG.error(err.toString());
+            throw err;
+        }
+    }
+
+    /**
+     * Replace the checkpoints by the ones which were staged by the query
+     */
+    private void promote() {
+
+        LOG.debug("Promoting the checkpoints of " + this + " ...");
+
+        Map<Short, DcpCheckpoint> staged = new HashMap<>();
+
+        Observable.range(0, numVBuckets)
+                .flatMap(vb -> store.async().get(stagedKey((short) (int) vb))
+                        .map(doc -> new AbstractMap.SimpleEntry<>((short) (int) vb, doc)), CONCURRENCY)
+                .toBlocking()
+                .forEach(e -> staged.put(e.getKey(), new DcpCheckpoint(
+                        e.getValue().content().getLong("uuid"), e.getValue().content().getLong("seqno"))));
+
+        write(staged, this::key, 0);
+    }
+
+    /**
+     * Write checkpoints
+     *
+     * @param checkpoints The checkpoints by vBucket
+     * @param key The key of the checkpoint document of a vBucket
+     * @param expiry The expiry of the documents, 0 if they don't expire
+     */
+    private void write(Map<Short, DcpCheckpoint> checkpoints, Function<Short, String> key, int expiry) {
+
+        Observable.from(checkpoints.entrySet())
+                .map(e -> JsonDocument.create(key.apply(e.getKey()), expiry, JsonObject.create()
+                        .put("uuid", e.getValue().getUuid())
+                        .put("seqno", e.getValue().getSeqno())))
+                .flatMap(doc -> store.async().upsert(doc), CONCURRENCY)
+                .toBlocking()
+                .lastOrDefault(null);
+    }
+
+    private String key(short vBucket) {
+
+        return KEY_PREFIX + bucket + "::" + name + "::" + vBucket;
+    }
+
+    private String stagedKey(short vBucket) {
+
+        return KEY_PREFIX + bucket + "::" + name + "::" + query + "::" + vBucket;
+    }
+
+    private String countKey() {
+
+        return KEY_PREFIX + bucket + "::" + name + "::" + query;
+    }
+
+    @Override
+    public String toString() {
+        return bucket + "@" + name;
+    }
+}
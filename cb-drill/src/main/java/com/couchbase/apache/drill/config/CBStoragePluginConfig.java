@@ -15,6 +15,7 @@
  */
 package com.couchbase.apache.drill.config;
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonTypeName;
 import java.util.Arrays;
@@ -46,6 +47,11 @@ public class CBStoragePluginConfig extends StoragePluginConfigBase {
      */
     private final Map<String, String> config;
     
+    /**
+     * The parsed and validated config
+     */
+    private final CouchbaseConfig cbConfig;
+    
     
     /**
      * Jackson's JsonCreator allows to istantiate from JSON
@@ -77,11 +83,11 @@ public class CBStoragePluginConfig extends StoragePluginConfigBase {
                 }
             });
 
-             ConfigFactory.create(props);
+             this.cbConfig = ConfigFactory.create(props);
          } else {
              
              LOG.debug("No configuration settings were passed. Using defaults.");
-             ConfigFactory.create(null);
+             this.cbConfig = ConfigFactory.create(null);
          }
         
     }
@@ -91,6 +97,11 @@ public class CBStoragePluginConfig extends StoragePluginConfigBase {
     public Map<String, String> getConfig() {
         return config;
     }
+    
+    @JsonIgnore
+    public CouchbaseConfig getCBConfig() {
+        return cbConfig;
+    }
 
     
     /**
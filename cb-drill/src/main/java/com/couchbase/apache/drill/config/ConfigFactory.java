@@ -22,14 +22,13 @@ import java.util.Properties;
 import org.apache.log4j.Logger;
 
 /**
- * To access the configurations
+ * Creates the configurations. Every storage plug-in instance has its own
+ * configuration, so none is shared here.
  *
  * @author David Maier <david.maier at couchbase.com>
  */
 public class ConfigFactory {
 
-    private static CouchbaseConfig cbConfig;
-
     private static final Logger LOG = Logger.getLogger(ConfigFactory.class.getName());
 
     /**
@@ -44,10 +43,10 @@ public class ConfigFactory {
 
             if (props == null) {
 
-                cbConfig = new CouchbaseConfig();
+                return new CouchbaseConfig();
 
             } else {
-                cbConfig = new CouchbaseConfig(props);
+                return new CouchbaseConfig(props);
             }
 
         } catch (IOException ex) {
@@ -56,38 +55,6 @@ public class ConfigFactory {
             LOG.error(err.toString());
             throw err;
         }
-
-        return cbConfig;
-
-    }
-
-    /**
-     * Get the Couchbase config or create it based on optional propeties if it
-     * was not yet created
-     *
-     * @param props
-     * @return
-     */
-    public static CouchbaseConfig getCBConfig(Properties props) {
-
-        if (cbConfig == null) {
-
-            create(props);
-
-        }
-
-        return cbConfig;
-    }
-
-    /**
-     * Get the Couchbase config or create it based on the config file if was not
-     * yet created
-     *
-     * @return
-     */
-    public static CouchbaseConfig getCBConfig() {
-
-        return getCBConfig(null);
     }
 
 }
@@ -16,6 +16,7 @@
 
 package com.couchbase.apache.drill.config;
 
+import com.couchbase.apache.drill.error.ConfigValidationError;
 import java.io.IOException;
 import java.util.Properties;
 
@@ -35,9 +36,54 @@ public class CouchbaseConfig extends BaseConfig {
     public static final String CB_BUCKETPWD = "cb.con.bucket.pwd";
     public static final String CB_ADMINUSR =  "cb.con.admin.usr";
     public static final String CB_ADMINPWD = "cb.con.admin.pwd";
+    public static final String CB_SCAN_ZEROCOPY = "cb.scan.zerocopy";
+    public static final String CB_SCAN_MODE = "cb.scan.mode";
+    public static final String CB_LOOKUP_CONCURRENCY = "cb.lookup.concurrency";
+    public static final String CB_STATS_TTL = "cb.stats.ttl";
+    public static final String CB_CATALOG_TTL = "cb.catalog.ttl";
+    public static final String CB_CATALOG_RETRY = "cb.catalog.retry";
+    public static final String CB_SCHEMA_SAMPLESIZE = "cb.schema.samplesize";
+    public static final String CB_SCHEMA_TTL = "cb.schema.ttl";
+    public static final String CB_ENV_KV_ENDPOINTS = "cb.env.kv.endpoints";
+    public static final String CB_ENV_QUERY_ENDPOINTS = "cb.env.query.endpoints";
+    public static final String CB_ENV_IO_POOLSIZE = "cb.env.io.poolsize";
+    public static final String CB_ENV_COMPUTATION_POOLSIZE = "cb.env.computation.poolsize";
+    public static final String CB_ENV_REQUESTBUFFER_SIZE = "cb.env.requestbuffer.size";
+    public static final String CB_ENV_CONNECT_TIMEOUT = "cb.env.connect.timeout";
+    public static final String CB_ENV_KV_TIMEOUT = "cb.env.kv.timeout";
+    public static final String CB_ENV_QUERY_TIMEOUT = "cb.env.query.timeout";
+    public static final String CB_WRITE_KEY_COLUMN = "cb.write.key.column";
+    public static final String CB_WRITE_CONCURRENCY = "cb.write.concurrency";
+    public static final String CB_WRITE_BATCHSIZE = "cb.write.batchsize";
+    public static final String CB_DCP_IDLE_TIMEOUT = "cb.dcp.idle.timeout";
+    public static final String CB_DCP_BUFFER_SIZE = "cb.dcp.buffer.size";
+    public static final String CB_DCP_MAX_STREAMS = "cb.dcp.max.streams";
+    public static final String CB_DCP_CHECKPOINT_BUCKET = "cb.dcp.checkpoint.bucket";
+    public static final String CB_N1QL_PARTITIONS = "cb.n1ql.partitions";
+    public static final String CB_N1QL_SAMPLESIZE = "cb.n1ql.samplesize";
+    public static final String CB_N1QL_SAMPLE_TTL = "cb.n1ql.sample.ttl";
+    public static final String CB_N1QL_PAGESIZE = "cb.n1ql.pagesize";
+    public static final String CB_N1QL_PREPARED_CACHESIZE = "cb.n1ql.prepared.cachesize";
+    public static final String CB_VIEW_PARTITIONS = "cb.view.partitions";
+    public static final String CB_VIEW_PAGESIZE = "cb.view.pagesize";
+    public static final String CB_VIEW_STALE = "cb.view.stale";
     public static final String[] PROPS = new String[]{CB_HOSTS, CB_PORT, CB_BUCKET, 
                                                 CB_BUCKETPWD, CB_ADMINUSR, 
-                                                CB_ADMINPWD};
+                                                CB_ADMINPWD, CB_SCAN_ZEROCOPY,
+                                                CB_SCAN_MODE, CB_LOOKUP_CONCURRENCY,
+                                                CB_STATS_TTL, CB_CATALOG_TTL, CB_CATALOG_RETRY,
+                                                CB_SCHEMA_SAMPLESIZE, CB_SCHEMA_TTL,
+                                                CB_ENV_KV_ENDPOINTS, CB_ENV_QUERY_ENDPOINTS,
+                                                CB_ENV_IO_POOLSIZE, CB_ENV_COMPUTATION_POOLSIZE,
+                                                CB_ENV_REQUESTBUFFER_SIZE, CB_ENV_CONNECT_TIMEOUT,
+                                                CB_ENV_KV_TIMEOUT, CB_ENV_QUERY_TIMEOUT,
+                                                CB_WRITE_KEY_COLUMN, CB_WRITE_CONCURRENCY,
+                                                CB_WRITE_BATCHSIZE, CB_DCP_IDLE_TIMEOUT,
+                                                CB_DCP_BUFFER_SIZE, CB_DCP_MAX_STREAMS,
+                                                CB_DCP_CHECKPOINT_BUCKET, CB_N1QL_PARTITIONS,
+                                                CB_N1QL_SAMPLESIZE, CB_N1QL_SAMPLE_TTL, CB_N1QL_PAGESIZE,
+                                                CB_N1QL_PREPARED_CACHESIZE, CB_VIEW_PARTITIONS,
+                                                CB_VIEW_PAGESIZE, CB_VIEW_STALE};
     
     
     //Settings
@@ -47,6 +93,37 @@ public class CouchbaseConfig extends BaseConfig {
     private String password;
     private String adminUser;
     private String adminPassword;
+    private boolean zeroCopy;
+    private String scanMode;
+    private int lookupConcurrency;
+    private int statsTtl;
+    private int catalogTtl;
+    private int catalogRetry;
+    private int schemaSampleSize;
+    private int schemaTtl;
+    private int kvEndpoints;
+    private int queryEndpoints;
+    private int ioPoolSize;
+    private int computationPoolSize;
+    private int requestBufferSize;
+    private long connectTimeout;
+    private long kvTimeout;
+    private long queryTimeout;
+    private String writeKeyColumn;
+    private int writeConcurrency;
+    private int writeBatchSize;
+    private long dcpIdleTimeout;
+    private long dcpBufferSize;
+    private int dcpMaxStreams;
+    private String dcpCheckpointBucket;
+    private int n1qlPartitions;
+    private int n1qlSampleSize;
+    private int n1qlSampleTtl;
+    private int n1qlPageSize;
+    private int n1qlPreparedCacheSize;
+    private int viewPartitions;
+    private int viewPageSize;
+    private String viewStale;
        
     /**
      * The constructor which loads by default from the properties file
@@ -75,11 +152,78 @@ public class CouchbaseConfig extends BaseConfig {
     private void init() {
         
         this.hosts = this.props.getProperty(CB_HOSTS).split(",");
-        this.port = Integer.parseInt(this.props.getProperty(CB_PORT));
+        this.port = intProperty(CB_PORT, 8091, 1);
         this.bucket = props.getProperty(CB_BUCKET);
         this.password = this.props.getProperty(CB_BUCKETPWD);
         this.adminUser = props.getProperty(CB_ADMINUSR);
         this.adminPassword =  props.getProperty(CB_ADMINPWD);
+        this.zeroCopy = Boolean.parseBoolean(props.getProperty(CB_SCAN_ZEROCOPY, "true"));
+        this.scanMode = props.getProperty(CB_SCAN_MODE, "kv");
+        this.lookupConcurrency = intProperty(CB_LOOKUP_CONCURRENCY, 64, 1);
+        this.statsTtl = intProperty(CB_STATS_TTL, 60, 0);
+        this.catalogTtl = intProperty(CB_CATALOG_TTL, 60, 0);
+        this.catalogRetry = intProperty(CB_CATALOG_RETRY, 5, 0);
+        this.schemaSampleSize = intProperty(CB_SCHEMA_SAMPLESIZE, 100, 0);
+        this.schemaTtl = intProperty(CB_SCHEMA_TTL, 300, 0);
+        this.kvEndpoints = intProperty(CB_ENV_KV_ENDPOINTS, 1, 1);
+        this.queryEndpoints = intProperty(CB_ENV_QUERY_ENDPOINTS, 1, 1);
+        this.ioPoolSize = intProperty(CB_ENV_IO_POOLSIZE, 0, 0);
+        this.computationPoolSize = intProperty(CB_ENV_COMPUTATION_POOLSIZE, 0, 0);
+        this.requestBufferSize = intProperty(CB_ENV_REQUESTBUFFER_SIZE, 16384, 1);
+        this.connectTimeout = intProperty(CB_ENV_CONNECT_TIMEOUT, 5000, 1);
+        this.kvTimeout = intProperty(CB_ENV_KV_TIMEOUT, 2500, 1);
+        this.queryTimeout = intProperty(CB_ENV_QUERY_TIMEOUT, 75000, 1);
+        this.writeKeyColumn = props.getProperty(CB_WRITE_KEY_COLUMN, "_key");
+        this.writeConcurrency = intProperty(CB_WRITE_CONCURRENCY, 64, 1);
+        this.writeBatchSize = intProperty(CB_WRITE_BATCHSIZE, 1024, 1);
+        this.dcpIdleTimeout = intProperty(CB_DCP_IDLE_TIMEOUT, 2000, 1);
+        this.dcpBufferSize = intProperty(CB_DCP_BUFFER_SIZE, 20971520, 1);
+        this.dcpMaxStreams = intProperty(CB_DCP_MAX_STREAMS, 8, 1);
+        this.dcpCheckpointBucket = props.getProperty(CB_DCP_CHECKPOINT_BUCKET, "").trim();
+        this.n1qlPartitions = intProperty(CB_N1QL_PARTITIONS, 16, 1);
+        this.n1qlSampleSize = intProperty(CB_N1QL_SAMPLESIZE, 1000, 1);
+        this.n1qlSampleTtl = intProperty(CB_N1QL_SAMPLE_TTL, 300, 0);
+        this.n1qlPageSize = intProperty(CB_N1QL_PAGESIZE, 1000, 1);
+        this.n1qlPreparedCacheSize = intProperty(CB_N1QL_PREPARED_CACHESIZE, 256, 0);
+        this.viewPartitions = intProperty(CB_VIEW_PARTITIONS, 16, 1);
+        this.viewPageSize = intProperty(CB_VIEW_PAGESIZE, 1000, 1);
+        this.viewStale = props.getProperty(CB_VIEW_STALE, "update_after").trim();
+        
+        //The request buffer is a ring buffer
+        if (Integer.bitCount(requestBufferSize) != 1) {
+            throw new ConfigValidationError(CB_ENV_REQUESTBUFFER_SIZE, String.valueOf(requestBufferSize), "a power of two");
+        }
+        
+        //Passed as is to the view engine
+        if (!viewStale.equals("ok") && !viewStale.equals("false") && !viewStale.equals("update_after")) {
+            throw new ConfigValidationError(CB_VIEW_STALE, viewStale, "ok, false or update_after");
+        }
+    }
+    
+    /**
+     * Read an integer property
+     * 
+     * @param key
+     * @param def The default value
+     * @param min The min. allowed value
+     * @return 
+     */
+    private int intProperty(String key, int def, int min) {
+        
+        String value = props.getProperty(key, String.valueOf(def)).trim();
+        
+        try {
+            
+            int result = Integer.parseInt(value);
+            
+            if (result >= min) return result;
+        
+        } catch (NumberFormatException e) {
+            
+            //Handled below
+        }
+        
+        throw new ConfigValidationError(key, value, "an integer >= " + min);
     }
     
 
@@ -103,11 +247,324 @@ public class CouchbaseConfig extends BaseConfig {
         return this.password;
     }
 
+    /**
+     * The password of a specific bucket. Only the password of the configured
+     * bucket is known, all other buckets are opened without a password.
+     *
+     * @param bucket
+     * @return The password or null
+     */
+    public String getPassword(String bucket) {
+
+        return this.bucket.equals(bucket) ? this.password : null;
+    }
+
     public String getAdminUser() {
         return this.adminUser;
     }
 
     public String getAdminPassword() {
         return this.adminPassword;
-    }  
+    }
+
+    /**
+     * If the documents are parsed directly from the client's buffers instead
+     * of copying them into a Drill buffer first
+     * 
+     * @return 
+     */
+    public boolean isZeroCopy() {
+        return this.zeroCopy;
+    }
+
+    /**
+     * The default scan mode for the buckets
+     * 
+     * @return 
+     */
+    public String getScanMode() {
+        return this.scanMode;
+    }
+
+    /**
+     * If DCP streams are needed because the buckets are scanned via DCP or
+     * the changes since checkpoints can be read
+     * 
+     * @return 
+     */
+    public boolean isDcpEnabled() {
+        return "dcp".equalsIgnoreCase(this.scanMode) || getDcpCheckpointBucket() != null;
+    }
+
+    /**
+     * The max. number of concurrent gets of a key lookup
+     * 
+     * @return 
+     */
+    public int getLookupConcurrency() {
+        return this.lookupConcurrency;
+    }
+
+    /**
+     * How long the bucket statistics are cached in seconds
+     * 
+     * @return 
+     */
+    public int getStatsTtl() {
+        return this.statsTtl;
+    }
+
+    /**
+     * How long the bucket names are cached in seconds before they are 
+     * refreshed in the background
+     * 
+     * @return 
+     */
+    public int getCatalogTtl() {
+        return this.catalogTtl;
+    }
+
+    /**
+     * How long a failure to load the bucket names is cached in seconds before
+     * the next lookup tries again
+     * 
+     * @return 
+     */
+    public int getCatalogRetry() {
+        return this.catalogRetry;
+    }
+
+    /**
+     * The number of documents which are sampled in order to infer the schema
+     * of a bucket, 0 disables the schema inference
+     * 
+     * @return 
+     */
+    public int getSchemaSampleSize() {
+        return this.schemaSampleSize;
+    }
+
+    /**
+     * How long an inferred schema is cached in seconds
+     * 
+     * @return 
+     */
+    public int getSchemaTtl() {
+        return this.schemaTtl;
+    }
+
+    /**
+     * The number of KV connections per node
+     * 
+     * @return 
+     */
+    public int getKvEndpoints() {
+        return this.kvEndpoints;
+    }
+
+    /**
+     * The number of query connections per node
+     * 
+     * @return 
+     */
+    public int getQueryEndpoints() {
+        return this.queryEndpoints;
+    }
+
+    /**
+     * The number of IO threads, 0 if the client's default is used
+     * 
+     * @return 
+     */
+    public int getIoPoolSize() {
+        return this.ioPoolSize;
+    }
+
+    /**
+     * The number of computation threads, 0 if the client's default is used
+     * 
+     * @return 
+     */
+    public int getComputationPoolSize() {
+        return this.computationPoolSize;
+    }
+
+    /**
+     * The size of the request ring buffer, a power of two
+     * 
+     * @return 
+     */
+    public int getRequestBufferSize() {
+        return this.requestBufferSize;
+    }
+
+    /**
+     * The connect timeout in milliseconds
+     * 
+     * @return 
+     */
+    public long getConnectTimeout() {
+        return this.connectTimeout;
+    }
+
+    /**
+     * The timeout of KV operations in milliseconds
+     * 
+     * @return 
+     */
+    public long getKvTimeout() {
+        return this.kvTimeout;
+    }
+
+    /**
+     * The timeout of N1QL queries in milliseconds
+     * 
+     * @return 
+     */
+    public long getQueryTimeout() {
+        return this.queryTimeout;
+    }
+
+    /**
+     * The column which provides the keys of the written documents
+     * 
+     * @return 
+     */
+    public String getWriteKeyColumn() {
+        return this.writeKeyColumn;
+    }
+
+    /**
+     * The max. number of concurrent upserts of a writer
+     * 
+     * @return 
+     */
+    public int getWriteConcurrency() {
+        return this.writeConcurrency;
+    }
+
+    /**
+     * The number of documents which a writer collects before it upserts them
+     * 
+     * @return 
+     */
+    public int getWriteBatchSize() {
+        return this.writeBatchSize;
+    }
+
+    /**
+     * How long a DCP stream may be idle after its last snapshot was started,
+     * in milliseconds
+     * 
+     * @return 
+     */
+    public long getDcpIdleTimeout() {
+        return this.dcpIdleTimeout;
+    }
+
+    /**
+     * The max. number of bytes of DCP mutations which a sub-scan queues for
+     * its reader before it pauses its streams. This doesn't bound the memory,
+     * because the client keeps buffering the messages of paused streams.
+     * 
+     * @return 
+     */
+    public long getDcpBufferSize() {
+        return this.dcpBufferSize;
+    }
+
+    /**
+     * The max. number of DCP streams which a sub-scan opens at the same time.
+     * This bounds the memory of a sub-scan, since the client may buffer whole
+     * vBuckets of the open streams.
+     * 
+     * @return 
+     */
+    public int getDcpMaxStreams() {
+        return this.dcpMaxStreams;
+    }
+
+    /**
+     * The bucket which stores the DCP checkpoints, null if the changes since
+     * a checkpoint can't be read
+     * 
+     * @return 
+     */
+    public String getDcpCheckpointBucket() {
+        return this.dcpCheckpointBucket.isEmpty() ? null : this.dcpCheckpointBucket;
+    }
+
+    /**
+     * The max. number of key ranges which a N1QL or KV scan is split into
+     * 
+     * @return 
+     */
+    public int getN1qlPartitions() {
+        return this.n1qlPartitions;
+    }
+
+    /**
+     * The sample size which the key or index ranges are derived from. The
+     * keys are sampled by as many lookups of the primary index.
+     * 
+     * @return 
+     */
+    public int getN1qlSampleSize() {
+        return this.n1qlSampleSize;
+    }
+
+    /**
+     * The time to live of the sampled keys of a bucket in seconds
+     * 
+     * @return 
+     */
+    public int getN1qlSampleTtl() {
+        return this.n1qlSampleTtl;
+    }
+
+    /**
+     * The max. number of rows per page of a key range
+     * 
+     * @return 
+     */
+    public int getN1qlPageSize() {
+        return this.n1qlPageSize;
+    }
+
+    /**
+     * The max. number of prepared N1QL statements per plug-in instance, 0 if
+     * the statements are executed ad hoc
+     * 
+     * @return 
+     */
+    public int getN1qlPreparedCacheSize() {
+        return this.n1qlPreparedCacheSize;
+    }
+
+    /**
+     * The max. number of key ranges which a view scan is split into
+     * 
+     * @return 
+     */
+    public int getViewPartitions() {
+        return this.viewPartitions;
+    }
+
+    /**
+     * The max. number of view rows per page of a key range
+     * 
+     * @return 
+     */
+    public int getViewPageSize() {
+        return this.viewPageSize;
+    }
+
+    /**
+     * If views are queried with stale=ok, stale=false or stale=update_after
+     * 
+     * @return 
+     */
+    public String getViewStale() {
+        return this.viewStale;
+    }
 }
@@ -0,0 +1,412 @@
+/*
+ * Copyright 2015 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.apache.drill.conn;
+
+import com.couchbase.apache.drill.config.CouchbaseConfig;
+import com.couchbase.apache.drill.error.BucketConfigRetrievalError;
+import com.couchbase.apache.drill.error.BucketConnectError;
+import com.couchbase.apache.drill.error.ClusterRefCreationError;
+import com.couchbase.client.core.config.BucketConfig;
+import com.couchbase.client.core.config.CouchbaseBucketConfig;
+import com.couchbase.client.core.message.ResponseStatus;
+import com.couchbase.client.core.message.cluster.GetClusterConfigRequest;
+import com.couchbase.client.core.message.cluster.GetClusterConfigResponse;
+import com.couchbase.client.core.message.dcp.OpenConnectionRequest;
+import com.couchbase.client.core.message.dcp.OpenConnectionResponse;
+import com.couchbase.client.java.AsyncBucket;
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.Cluster;
+import com.couchbase.client.java.CouchbaseCluster;
+import com.couchbase.client.java.env.CouchbaseEnvironment;
+import com.couchbase.client.java.env.DefaultCouchbaseEnvironment;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.log4j.Logger;
+
+/**
+ * The connections of one storage plug-in instance
+ *
+ * Every bucket is opened once, when it is used for the first time, and is
+ * then shared by all scans of the plug-in. A bucket which is already open
+ * is returned without any locking. The environment, which owns the IO and
+ * computation pools and the request buffer, is built from the plug-in's
+ * configuration. Closing the registry closes its buckets, its cluster
+ * reference and its environment, including the environment's threads.
+ * DCP streams are not shared, see DcpConnection.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class CBConnectionRegistry {
+
+    private static final Logger LOG = Logger.getLogger(CBConnectionRegistry.class.getName());
+
+    /**
+     * The configuration of the plug-in
+     */
+    private final CouchbaseConfig cfg;
+
+    /**
+     * The environment, null if not yet created
+     */
+    private CouchbaseEnvironment env;
+
+    /**
+     * The open buckets by name
+     */
+    private final ConcurrentMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+    /**
+     * The open DCP connections
+     */
+    private final Set<DcpConnection> dcpConnections = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The cluster reference, null if not yet created
+     */
+    private volatile Cluster cluster;
+
+    /**
+     * If the registry was closed
+     */
+    private volatile boolean closed;
+
+    /**
+     * The constructor
+     *
+     * @param cfg
+     */
+    public CBConnectionRegistry(CouchbaseConfig cfg) {
+
+        this.cfg = cfg;
+    }
+
+    /**
+     * Get the configuration of the plug-in
+     *
+     * @return
+     */
+    public CouchbaseConfig getConfig() {
+
+        return cfg;
+    }
+
+    /**
+     * Get the cluster reference
+     *
+     * @return
+     */
+    public Cluster getCluster() {
+
+        Cluster c = cluster;
+
+        if (c == null) {
+
+            synchronized (this) {
+
+                if (closed) {
+                    throw new IllegalStateException("The connections were already closed");
+                }
+
+                if (cluster == null) {
+                    cluster = createCluster();
+                }
+
+                c = cluster;
+            }
+        }
+
+        return c;
+    }
+
+    /**
+     * Get a bucket. It's opened when it's used for the first time.
+     *
+     * @param name
+     * @return
+     */
+    public Bucket getBucket(String name) {
+
+        Bucket b = buckets.get(name);
+
+        if (b == null) {
+            b = buckets.computeIfAbsent(name, this::openBucket);
+        }
+
+        return b;
+    }
+
+    public AsyncBucket getAsyncBucket(String name) {
+
+        return getBucket(name).async();
+    }
+
+    /**
+     * Get the current configuration of a bucket. It contains the number
+     * of vBuckets and the vBucket map.
+     *
+     * @param name
+     * @return
+     */
+    public CouchbaseBucketConfig getBucketConfig(String name) {
+
+        Bucket b = getBucket(name);
+
+        try {
+
+            GetClusterConfigResponse resp = b.core()
+                    .<GetClusterConfigResponse>send(new GetClusterConfigRequest())
+                    .toBlocking().single();
+
+            BucketConfig cfg = resp.config().bucketConfig(b.name());
+
+            if (!(cfg instanceof CouchbaseBucketConfig)) {
+                throw new IllegalStateException("Bucket " + b.name() + " is not a Couchbase bucket");
+            }
+
+            return (CouchbaseBucketConfig) cfg;
+
+        } catch (RuntimeException e) {
+
+            BucketConfigRetrievalError err = new BucketConfigRetrievalError(e, b.name());
+            LOG.error(err.toString());
+            throw err;
+        }
+    }
+
+    /**
+     * Open a new DCP connection to a bucket. It's used by one sub-scan only
+     * and has to be closed by it.
+     *
+     * @param name
+     * @return
+     */
+    public DcpConnection openDcpConnection(String name) {
+
+        String connection = "cb-drill-" + UUID.randomUUID();
+
+        LOG.debug("Opening DCP connection " + connection + " to bucket " + name + " ...");
+
+        Cluster dedicated = null;
+        Bucket b = null;
+
+        try {
+
+            //Makes sure that the environment exists
+            getCluster();
+
+            dedicated = CouchbaseCluster.create(env, Arrays.asList(cfg.getHosts()));
+
+            String password = cfg.getPassword(name);
+            b = password != null && !password.equals("") ? dedicated.openBucket(name, password) : dedicated.openBucket(name);
+
+            OpenConnectionResponse resp = b.core()
+                    .<OpenConnectionResponse>send(new OpenConnectionRequest(connection, name, password == null ? "" : password))
+                    .toBlocking().single();
+
+            if (resp.status() != ResponseStatus.SUCCESS) {
+                throw new IllegalStateException("Status " + resp.status());
+            }
+
+        } catch (RuntimeException e) {
+
+            if (dedicated != null) {
+
+                try {
+
+                    dedicated.disconnect();
+
+                } catch (RuntimeException ex) {
+
+                    LOG.error("Could not disconnect DCP connection " + connection + " from the cluster: " + ex);
+                }
+            }
+
+            BucketConnectError err = new BucketConnectError(e, name);
+            LOG.error(err.toString());
+            throw err;
+        }
+
+        DcpConnection result = new DcpConnection(this, connection, dedicated, b);
+        dcpConnections.add(result);
+
+        //The registry might have been closed in the meantime
+        if (closed) {
+            result.close();
+            throw new IllegalStateException("The connections were already closed");
+        }
+
+        return result;
+    }
+
+    /**
+     * Stop tracking a closed DCP connection
+     *
+     * @param connection
+     */
+    void release(DcpConnection connection) {
+
+        dcpConnections.remove(connection);
+    }
+
+    /**
+     * Close all buckets, the cluster reference and the environment
+     */
+    public synchronized void close() {
+
+        if (closed) return;
+
+        closed = true;
+
+        for (DcpConnection c : dcpConnections.toArray(new DcpConnection[0])) {
+            c.close();
+        }
+
+        for (Bucket b : buckets.values()) {
+
+            try {
+
+                b.close();
+
+            } catch (RuntimeException e) {
+
+                LOG.error("Could not close bucket " + b.name() + ": " + e);
+            }
+        }
+
+        buckets.clear();
+
+        if (cluster != null) {
+
+            try {
+
+                cluster.disconnect();
+
+            } catch (RuntimeException e) {
+
+                LOG.error("Could not disconnect from the cluster: " + e);
+            }
+
+            cluster = null;
+        }
+
+        if (env != null) {
+
+            LOG.debug("Shutting the Couchbase environment down ...");
+
+            try {
+
+                env.shutdown().toBlocking().single();
+
+            } catch (RuntimeException e) {
+
+                LOG.error("Could not shut the Couchbase environment down: " + e);
+            }
+
+            env = null;
+        }
+    }
+
+    /**
+     * Open a bucket based on the configuration
+     *
+     * @param name
+     * @return
+     */
+    private Bucket openBucket(String name) {
+
+        String password = cfg.getPassword(name);
+
+        LOG.debug("Opening bucket " + name + " ...");
+
+        try {
+
+            if (password != null && !password.equals("")) {
+                return getCluster().openBucket(name, password);
+            } else {
+                return getCluster().openBucket(name);
+            }
+
+        } catch (RuntimeException e) {
+
+            BucketConnectError err = new BucketConnectError(e, name);
+            LOG.error(err.toString());
+            throw err;
+        }
+    }
+
+    /**
+     * Create a cluster reference based on the configuration
+     *
+     * @return
+     */
+    private Cluster createCluster() {
+
+        String[] hosts = cfg.getHosts();
+
+        try {
+
+            if (env == null) {
+                env = createEnvironment();
+            }
+
+            return CouchbaseCluster.create(env, Arrays.asList(hosts));
+
+        } catch (RuntimeException ex) {
+
+            ClusterRefCreationError err = new ClusterRefCreationError(ex, hosts);
+            LOG.error(err.toString());
+            throw err;
+        }
+    }
+
+    /**
+     * Create the environment based on the configuration. The pools use the
+     * client's defaults, which depend on the number of cores, unless their
+     * size is configured.
+     *
+     * @return
+     */
+    private CouchbaseEnvironment createEnvironment() {
+
+        LOG.debug("Creating the Couchbase environment ...");
+
+        DefaultCouchbaseEnvironment.Builder builder = DefaultCouchbaseEnvironment.builder()
+                .kvEndpoints(cfg.getKvEndpoints())
+                .queryEndpoints(cfg.getQueryEndpoints())
+                .requestBufferSize(cfg.getRequestBufferSize())
+                .connectTimeout(cfg.getConnectTimeout())
+                .kvTimeout(cfg.getKvTimeout())
+                .queryTimeout(cfg.getQueryTimeout())
+                .dcpEnabled(cfg.isDcpEnabled());
+
+        if (cfg.getIoPoolSize() > 0) {
+            builder.ioPoolSize(cfg.getIoPoolSize());
+        }
+
+        if (cfg.getComputationPoolSize() > 0) {
+            builder.computationPoolSize(cfg.getComputationPoolSize());
+        }
+
+        CouchbaseEnvironment result = builder.build();
+
+        LOG.debug("env = " + result);
+
+        return result;
+    }
+}
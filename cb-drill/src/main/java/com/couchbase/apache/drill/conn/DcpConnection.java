@@ -0,0 +1,123 @@
+/*
+ * Copyright 2015 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.apache.drill.conn;
+
+import com.couchbase.client.core.ClusterFacade;
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.Cluster;
+import org.apache.log4j.Logger;
+
+/**
+ * A DCP connection of one sub-scan
+ *
+ * The server allows only one stream per vBucket and connection, and the
+ * client can't close a stream before it reached its end sequence number.
+ * So every sub-scan streams via its own connection, which has its own
+ * cluster reference and bucket core. They share the environment of the
+ * plug-in. Closing the connection closes all of its streams on the server.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class DcpConnection {
+
+    private static final Logger LOG = Logger.getLogger(DcpConnection.class.getName());
+
+    /**
+     * The registry which tracks the connection
+     */
+    private final CBConnectionRegistry registry;
+
+    /**
+     * The name of the connection
+     */
+    private final String name;
+
+    /**
+     * The dedicated cluster reference
+     */
+    private final Cluster cluster;
+
+    /**
+     * The dedicated bucket
+     */
+    private final Bucket bucket;
+
+    /**
+     * If the connection was closed
+     */
+    private boolean closed;
+
+    DcpConnection(CBConnectionRegistry registry, String name, Cluster cluster, Bucket bucket) {
+
+        this.registry = registry;
+        this.name = name;
+        this.cluster = cluster;
+        this.bucket = bucket;
+    }
+
+    /**
+     * Get the name of the connection
+     *
+     * @return
+     */
+    public String getName() {
+
+        return name;
+    }
+
+    /**
+     * Get the core which the streams are requested from
+     *
+     * @return
+     */
+    public ClusterFacade core() {
+
+        return bucket.core();
+    }
+
+    /**
+     * Close the bucket and the cluster reference, and so the connection and
+     * its streams
+     */
+    public synchronized void close() {
+
+        if (closed) return;
+
+        closed = true;
+
+        LOG.debug("Closing DCP connection " + name + " ...");
+
+        try {
+
+            bucket.close();
+
+        } catch (RuntimeException e) {
+
+            LOG.error("Could not close DCP connection " + name + ": " + e);
+        }
+
+        try {
+
+            cluster.disconnect();
+
+        } catch (RuntimeException e) {
+
+            LOG.error("Could not disconnect DCP connection " + name + " from the cluster: " + e);
+        }
+
+        registry.release(this);
+    }
+}
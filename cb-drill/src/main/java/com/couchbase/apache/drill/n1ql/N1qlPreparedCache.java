@@ -0,0 +1,215 @@
+/*
+ * Copyright 2015 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.apache.drill.n1ql;
+
+import com.couchbase.apache.drill.error.StatementPrepareError;
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.query.N1qlQuery;
+import com.couchbase.client.java.query.N1qlQueryResult;
+import com.couchbase.client.java.query.N1qlQueryRow;
+import com.couchbase.client.java.query.PrepareStatement;
+import com.couchbase.client.java.query.PreparedPayload;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.apache.log4j.Logger;
+
+/**
+ * Caches the prepared N1QL statements of a storage plug-in instance
+ *
+ * A statement is prepared when it's executed for the first time. The plan
+ * is then reused by all scans which execute the same statement, so the
+ * query service doesn't need to parse and plan it again. The statements are
+ * keyed by bucket and by the statement text with normalized white spaces.
+ * If the cache is full, then the least recently used plan is evicted.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class N1qlPreparedCache {
+
+    private static final Logger LOG = Logger.getLogger(N1qlPreparedCache.class.getName());
+
+    /**
+     * The max. number of prepared statements
+     */
+    private final int capacity;
+
+    /**
+     * The prepared statements in the order of their last use
+     */
+    private final Map<String, PreparedPayload> plans;
+
+    /**
+     * The constructor
+     *
+     * @param capacity
+     */
+    public N1qlPreparedCache(int capacity) {
+
+        this.capacity = capacity;
+        this.plans = new LinkedHashMap<String, PreparedPayload>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedPayload> eldest) {
+
+                if (size() > N1qlPreparedCache.this.capacity) {
+
+                    LOG.debug("Evicting the prepared statement " + eldest.getValue().preparedName());
+                    return true;
+                }
+
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Get the prepared statement. It's prepared if it isn't yet cached.
+     *
+     * @param bucket
+     * @param statement
+     * @return
+     */
+    public PreparedPayload get(Bucket bucket, String statement) {
+
+        String key = key(bucket.name(), statement);
+
+        synchronized (plans) {
+
+            PreparedPayload plan = plans.get(key);
+
+            if (plan != null) return plan;
+        }
+
+        //Not prepared under the lock, another scan might prepare the same statement concurrently
+        PreparedPayload plan = prepare(bucket, statement);
+
+        synchronized (plans) {
+
+            plans.put(key, plan);
+        }
+
+        return plan;
+    }
+
+    /**
+     * Remove a prepared statement which is no longer known by the query
+     * service. It's prepared again when it's used the next time.
+     *
+     * @param bucket
+     * @param statement
+     */
+    public void invalidate(Bucket bucket, String statement) {
+
+        synchronized (plans) {
+
+            plans.remove(key(bucket.name(), statement));
+        }
+    }
+
+    /**
+     * Prepare the statement via the query service
+     *
+     * @param bucket
+     * @param statement
+     * @return
+     */
+    private static PreparedPayload prepare(Bucket bucket, String statement) {
+
+        PrepareStatement prepare = PrepareStatement.prepare(statement);
+
+        LOG.debug("Preparing: " + statement);
+
+        try {
+
+            N1qlQueryResult result = bucket.query(N1qlQuery.simple(prepare));
+
+            if (!result.finalSuccess()) {
+                throw new IllegalStateException("The query failed: " + result.errors());
+            }
+
+            Iterator<N1qlQueryRow> rows = result.iterator();
+
+            if (!rows.hasNext()) {
+                throw new IllegalStateException("The query returned no plan");
+            }
+
+            JsonObject plan = rows.next().value();
+
+            return new PreparedPayload(prepare.originalStatement(), plan.getString("name"), plan.getString("encoded_plan"));
+
+        } catch (RuntimeException e) {
+
+            StatementPrepareError err = new StatementPrepareError(e, bucket.name());
+            LOG.error(err.toString());
+            throw err;
+        }
+    }
+
+    /**
+     * The key of a statement. White spaces outside of literals and
+     * identifiers are collapsed, because they don't change the plan.
+     *
+     * @param bucket The name of the bucket
+     * @param statement
+     * @return
+     */
+    static String key(String bucket, String statement) {
+
+        String stmt = statement.trim();
+
+        StringBuilder sb = new StringBuilder(bucket.length() + stmt.length() + 2);
+        sb.append(bucket).append("::");
+
+        char quote = 0;
+        boolean space = false;
+
+        for (int i = 0; i < stmt.length(); i++) {
+
+            char c = stmt.charAt(i);
+
+            if (quote == 0 && Character.isWhitespace(c)) {
+
+                space = true;
+                continue;
+            }
+
+            if (space) {
+
+                sb.append(' ');
+                space = false;
+            }
+
+            sb.append(c);
+
+            if (quote != 0 && c == '\\' && i + 1 < stmt.length()) {
+
+                sb.append(stmt.charAt(++i));
+
+            } else if (quote == 0 && (c == '"' || c == '\'' || c == '`')) {
+
+                quote = c;
+
+            } else if (c == quote) {
+
+                quote = 0;
+            }
+        }
+
+        return sb.toString();
+    }
+}
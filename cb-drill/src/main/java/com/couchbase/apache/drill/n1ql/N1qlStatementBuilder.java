@@ -0,0 +1,200 @@
+/*
+ * Copyright 2015 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.apache.drill.n1ql;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds the N1QL statements which are executed by the scans
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class N1qlStatementBuilder {
+
+    /**
+     * The bucket to query
+     */
+    private final String bucket;
+
+    /**
+     * The SELECT list
+     */
+    private String select = N1qlUtil.ALIAS + ".*";
+
+    /**
+     * The secondary index to use, null if the query engine chooses
+     */
+    private String index;
+
+    /**
+     * The conditions which are combined via AND
+     */
+    private final List<String> conditions = new ArrayList<>();
+
+    /**
+     * The GROUP BY list, null if the result is not grouped
+     */
+    private String groupBy;
+
+    /**
+     * The ORDER BY list, null if the result is not ordered
+     */
+    private String orderBy;
+
+    /**
+     * The max. number of rows or a parameter, null if unlimited
+     */
+    private String limit;
+
+    /**
+     * The constructor
+     *
+     * @param bucket
+     */
+    public N1qlStatementBuilder(String bucket) {
+        this.bucket = bucket;
+    }
+
+    /**
+     * Set the SELECT list
+     *
+     * @param select
+     * @return
+     */
+    public N1qlStatementBuilder select(String select) {
+
+        this.select = select;
+        return this;
+    }
+
+    /**
+     * Use the given secondary index, null lets the query engine choose
+     *
+     * @param index
+     * @return
+     */
+    public N1qlStatementBuilder useIndex(String index) {
+
+        this.index = index;
+        return this;
+    }
+
+    /**
+     * Add a condition, null is ignored
+     *
+     * @param condition
+     * @return
+     */
+    public N1qlStatementBuilder where(String condition) {
+
+        if (condition != null) {
+            conditions.add(condition);
+        }
+
+        return this;
+    }
+
+    /**
+     * Set the GROUP BY list, null means ungrouped
+     *
+     * @param groupBy
+     * @return
+     */
+    public N1qlStatementBuilder groupBy(String groupBy) {
+
+        this.groupBy = groupBy;
+        return this;
+    }
+
+    /**
+     * Set the ORDER BY list, null means unordered
+     *
+     * @param orderBy
+     * @return
+     */
+    public N1qlStatementBuilder orderBy(String orderBy) {
+
+        this.orderBy = orderBy;
+        return this;
+    }
+
+    /**
+     * Set the max. number of rows, null means unlimited
+     *
+     * @param limit
+     * @return
+     */
+    public N1qlStatementBuilder limit(Integer limit) {
+
+        this.limit = limit == null ? null : limit.toString();
+        return this;
+    }
+
+    /**
+     * Set the max. number of rows to a parameter, e.g. $limit
+     *
+     * @param param
+     * @return
+     */
+    public N1qlStatementBuilder limit(String param) {
+
+        this.limit = param;
+        return this;
+    }
+
+    /**
+     * Build the statement
+     *
+     * @return
+     */
+    public String build() {
+
+        StringBuilder sb = new StringBuilder("SELECT ");
+        sb.append(select).append(' ').append(N1qlUtil.from(bucket));
+
+        if (index != null) {
+
+            sb.append(" USE INDEX (").append(N1qlUtil.identifier(index)).append(" USING GSI)");
+        }
+
+        if (conditions.size() == 1) {
+
+            sb.append(" WHERE ").append(conditions.get(0));
+
+        } else if (!conditions.isEmpty()) {
+
+            sb.append(" WHERE (").append(String.join(") AND (", conditions)).append(')');
+        }
+
+        if (groupBy != null) {
+
+            sb.append(" GROUP BY ").append(groupBy);
+        }
+
+        if (orderBy != null) {
+
+            sb.append(" ORDER BY ").append(orderBy);
+        }
+
+        if (limit != null) {
+
+            sb.append(" LIMIT ").append(limit);
+        }
+
+        return sb.toString();
+    }
+}
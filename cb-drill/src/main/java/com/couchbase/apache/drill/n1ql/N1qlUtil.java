@@ -0,0 +1,242 @@
+/*
+ * Copyright 2015 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.apache.drill.n1ql;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import org.apache.drill.common.expression.PathSegment;
+import org.apache.drill.common.expression.SchemaPath;
+
+/**
+ * Helps to render parts of the generated N1QL statements
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class N1qlUtil {
+
+    /**
+     * The alias of the bucket in all generated statements
+     */
+    public static final String ALIAS = "b";
+
+    /**
+     * The pseudo field which holds the document key
+     */
+    public static final String KEY_FIELD = "_key";
+
+    /**
+     * The N1QL expression of the document key
+     */
+    public static final String KEY = "META(" + ALIAS + ").id";
+
+    /**
+     * The document key as pseudo field of the SELECT list
+     */
+    public static final String KEY_SELECT = KEY + " AS `" + KEY_FIELD + "`";
+
+    /**
+     * Escape an identifier by using back ticks
+     *
+     * @param name
+     * @return The escaped identifier or null if the name can't be escaped
+     */
+    public static String identifier(String name) {
+
+        if (name == null || name.indexOf('`') >= 0) return null;
+
+        return "`" + name + "`";
+    }
+
+    /**
+     * The FROM clause for a bucket
+     *
+     * @param bucket
+     * @return
+     */
+    public static String from(String bucket) {
+
+        return "FROM " + identifier(bucket) + " " + ALIAS;
+    }
+
+    /**
+     * Render the SELECT list for the projected columns. Only the top-level
+     * fields are selected, Drill takes care of the nested parts. The document
+     * key is selected as pseudo field.
+     *
+     * @param columns
+     * @return
+     */
+    public static String select(Collection<SchemaPath> columns) {
+
+        String key = KEY_SELECT;
+
+        if (isStar(columns)) return ALIAS + ".*, " + key;
+
+        Set<String> fields = new LinkedHashSet<>();
+
+        for (SchemaPath col : columns) {
+
+            if (isKey(col)) {
+
+                fields.add(key);
+                continue;
+            }
+
+            String name = identifier(col.getRootSegment().getPath());
+
+            //Fall back to all fields if a field name can't be escaped
+            if (name == null) return ALIAS + ".*, " + key;
+
+            fields.add(ALIAS + "." + name);
+        }
+
+        return String.join(", ", fields);
+    }
+
+    /**
+     * Check if all columns are projected
+     *
+     * @param columns
+     * @return
+     */
+    public static boolean isStar(Collection<SchemaPath> columns) {
+
+        if (columns == null || columns.isEmpty()) return true;
+
+        for (SchemaPath col : columns) {
+
+            if (col.getRootSegment().getPath().equals("*")) return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Check if no document field is projected, apart from the document key
+     *
+     * @param columns
+     * @return
+     */
+    public static boolean isKeyOnly(Collection<SchemaPath> columns) {
+
+        if (columns == null) return false;
+
+        for (SchemaPath col : columns) {
+
+            if (!isKey(col)) return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Check if a column is the document key
+     *
+     * @param col
+     * @return
+     */
+    public static boolean isKey(SchemaPath col) {
+
+        return col.getRootSegment().getChild() == null && col.getRootSegment().getPath().equals(KEY_FIELD);
+    }
+
+    /**
+     * Render a field path like b.`address`.`lines`[0]. The document key is
+     * rendered as META(b).id.
+     *
+     * @param path
+     * @return The path or null if it can't be rendered
+     */
+    public static String path(SchemaPath path) {
+
+        if (isKey(path)) return KEY;
+
+        StringBuilder sb = new StringBuilder(ALIAS);
+
+        PathSegment seg = path.getRootSegment();
+
+        while (seg != null) {
+
+            if (seg.isNamed()) {
+
+                String name = identifier(seg.getNameSegment().getPath());
+
+                if (name == null) return null;
+
+                sb.append('.').append(name);
+
+            } else {
+
+                sb.append('[').append(seg.getArraySegment().getIndex()).append(']');
+            }
+
+            seg = seg.getChild();
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Render a literal. Strings are rendered as JSON strings.
+     *
+     * @param value
+     * @return The literal or null if the type is not supported
+     */
+    public static String literal(Object value) {
+
+        if (value == null) return "NULL";
+
+        if (value instanceof Number || value instanceof Boolean) return value.toString();
+
+        if (value instanceof String) return string((String) value);
+
+        return null;
+    }
+
+    /**
+     * Render a string as JSON string
+     *
+     * @param value
+     * @return
+     */
+    public static String string(String value) {
+
+        StringBuilder sb = new StringBuilder(value.length() + 2);
+        sb.append('"');
+
+        for (int i = 0; i < value.length(); i++) {
+
+            char c = value.charAt(i);
+
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+
+        return sb.append('"').toString();
+    }
+}
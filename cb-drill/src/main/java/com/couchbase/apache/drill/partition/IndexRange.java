@@ -0,0 +1,131 @@
+/*
+ * Copyright 2015 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.apache.drill.partition;
+
+import com.couchbase.client.java.document.json.JsonObject;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * A range of the values of an indexed field which is read via a certain
+ * secondary index. The start is inclusive and the end is exclusive. A missing
+ * start or end means that the range is unbounded on that side. The bounds
+ * are passed as named parameters, so the statements of all ranges are the
+ * same and share one prepared plan.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class IndexRange {
+
+    /**
+     * The name of the index
+     */
+    private final String index;
+
+    /**
+     * The N1QL path of the indexed field
+     */
+    private final String path;
+
+    /**
+     * The first value, null if unbounded
+     */
+    private final Object start;
+
+    /**
+     * The value after the last one, null if unbounded
+     */
+    private final Object end;
+
+    /**
+     * Jackson allows to create an instance from JSON
+     *
+     * @param index
+     * @param path
+     * @param start
+     * @param end
+     */
+    @JsonCreator
+    public IndexRange(@JsonProperty("index") String index,
+                      @JsonProperty("path") String path,
+                      @JsonProperty("start") Object start,
+                      @JsonProperty("end") Object end) {
+
+        this.index = index;
+        this.path = path;
+        this.start = start;
+        this.end = end;
+    }
+
+    @JsonProperty("index")
+    public String getIndex() {
+        return index;
+    }
+
+    @JsonProperty("path")
+    public String getPath() {
+        return path;
+    }
+
+    @JsonProperty("start")
+    public Object getStart() {
+        return start;
+    }
+
+    @JsonProperty("end")
+    public Object getEnd() {
+        return end;
+    }
+
+    /**
+     * The N1QL condition which restricts the field to this range. The bounds
+     * are the parameters $rangeStart and $rangeEnd.
+     *
+     * @return The condition or null if the range is unbounded
+     */
+    public String toCondition() {
+
+        String lower = start == null ? null : path + " >= $rangeStart";
+        String upper = end == null ? null : path + " < $rangeEnd";
+
+        if (lower == null) return upper;
+        if (upper == null) return lower;
+
+        return lower + " AND " + upper;
+    }
+
+    /**
+     * The values of the parameters of the condition
+     *
+     * @return The parameters or null if the range is unbounded
+     */
+    public JsonObject params() {
+
+        if (start == null && end == null) return null;
+
+        JsonObject params = JsonObject.create();
+
+        if (start != null) params.put("rangeStart", start);
+        if (end != null) params.put("rangeEnd", end);
+
+        return params;
+    }
+
+    @Override
+    public String toString() {
+        return index + ":" + path + "[" + (start == null ? "" : start) + "," + (end == null ? "" : end) + ")";
+    }
+}
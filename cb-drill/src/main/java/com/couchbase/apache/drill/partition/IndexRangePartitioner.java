@@ -0,0 +1,221 @@
+/*
+ * Copyright 2015 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.apache.drill.partition;
+
+import com.couchbase.apache.drill.n1ql.N1qlStatementBuilder;
+import com.couchbase.apache.drill.n1ql.N1qlUtil;
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.query.N1qlQuery;
+import com.couchbase.client.java.query.N1qlQueryResult;
+import com.couchbase.client.java.query.N1qlQueryRow;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import org.apache.log4j.Logger;
+
+/**
+ * Splits a N1QL scan into ranges of the values of an indexed field
+ *
+ * A field qualifies if the pushed down filter restricts it to a range and if
+ * an online secondary index without a condition has it as its leading key.
+ * The boundaries are the quantiles of a random sample of the field values
+ * within the filtered range, which is read from the index only. Equivalent
+ * indexes, which are the replicas of an index, are used in turns, so the
+ * ranges are spread across the index nodes.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class IndexRangePartitioner {
+
+    private static final Logger LOG = Logger.getLogger(IndexRangePartitioner.class.getName());
+
+    /**
+     * The assumed share of the documents which match a range condition
+     */
+    private static final double RANGE_SELECTIVITY = 0.25;
+
+    /**
+     * Split the scan up
+     *
+     * @param bucket
+     * @param ranges The range conditions per field path
+     * @param num The number of ranges
+     * @param itemCount The number of documents, 0 if unknown
+     * @param sampleSize
+     * @return The index ranges or null if no index qualifies or the sampled
+     * values can't be ordered
+     */
+    public static List<IndexRange> split(Bucket bucket, Map<String, String> ranges, int num, long itemCount, int sampleSize) {
+
+        List<JsonObject> indexes = indexesOf(bucket);
+
+        for (Map.Entry<String, String> range : ranges.entrySet()) {
+
+            List<String> replicas = replicasOf(indexes, range.getKey());
+
+            if (replicas.isEmpty()) continue;
+
+            LOG.debug("Splitting via the indexes " + replicas + " on " + range.getKey());
+
+            List<Object> bounds = boundaries(bucket, replicas.get(0), range.getKey(), range.getValue(), num, itemCount, sampleSize);
+
+            if (bounds == null) return null;
+
+            List<IndexRange> result = new ArrayList<>(num);
+
+            for (int i = 0; i < num; i++) {
+
+                result.add(new IndexRange(replicas.get(i % replicas.size()), range.getKey(),
+                        i == 0 ? null : bounds.get(i - 1),
+                        i == num - 1 ? null : bounds.get(i)));
+            }
+
+            return result;
+        }
+
+        return null;
+    }
+
+    /**
+     * Get the usable secondary indexes of a bucket
+     *
+     * @param bucket
+     * @return
+     */
+    private static List<JsonObject> indexesOf(Bucket bucket) {
+
+        String stmt = "SELECT i.name, i.index_key, i.`condition` FROM system:indexes i"
+                + " WHERE i.keyspace_id = " + N1qlUtil.string(bucket.name())
+                + " AND i.state = \"online\" AND i.`using` = \"gsi\" AND (i.is_primary IS MISSING OR i.is_primary = false)";
+
+        N1qlQueryResult result = query(bucket, stmt);
+
+        List<JsonObject> indexes = new ArrayList<>();
+
+        for (N1qlQueryRow row : result) {
+
+            //A partial index doesn't contain all documents of a range
+            if (row.value().get("condition") == null) {
+                indexes.add(row.value());
+            }
+        }
+
+        return indexes;
+    }
+
+    /**
+     * Get the equivalent indexes which have the field as their leading key
+     *
+     * @param indexes
+     * @param path
+     * @return The names of the indexes
+     */
+    private static List<String> replicasOf(List<JsonObject> indexes, String path) {
+
+        List<String> names = new ArrayList<>();
+        JsonArray keys = null;
+
+        for (JsonObject index : indexes) {
+
+            JsonArray indexKeys = index.getArray("index_key");
+
+            if (indexKeys == null || indexKeys.size() == 0
+                    || !path.equals(N1qlUtil.ALIAS + "." + indexKeys.getString(0))) {
+                continue;
+            }
+
+            if (keys == null) {
+                keys = indexKeys;
+            }
+
+            if (keys.equals(indexKeys)) {
+                names.add(index.getString("name"));
+            }
+        }
+
+        return names;
+    }
+
+    /**
+     * Sample the values of the field within the filtered range and derive
+     * the boundaries of the ranges
+     *
+     * @return The num - 1 boundaries or null
+     */
+    private static List<Object> boundaries(Bucket bucket, String index, String path, String condition, int num, long itemCount, int sampleSize) {
+
+        double matching = itemCount * RANGE_SELECTIVITY;
+        double p = matching > sampleSize ? sampleSize / matching : 1.0;
+
+        String stmt = new N1qlStatementBuilder(bucket.name())
+                .select(path + " AS v")
+                .useIndex(index)
+                .where(condition)
+                .where(p < 1.0 ? "RANDOM() < " + p : null)
+                .limit(sampleSize)
+                .build();
+
+        LOG.debug("Sampling values: " + stmt);
+
+        List<Object> values = new ArrayList<>();
+
+        for (N1qlQueryRow row : query(bucket, stmt)) {
+            values.add(row.value().get("v"));
+        }
+
+        TreeSet<Object> sorted;
+
+        if (!values.isEmpty() && values.stream().allMatch(v -> v instanceof Number)) {
+
+            sorted = new TreeSet<>(Comparator.comparingDouble(v -> ((Number) v).doubleValue()));
+
+        } else if (!values.isEmpty() && values.stream().allMatch(v -> v instanceof String)) {
+
+            sorted = new TreeSet<>((a, b) -> KeyRangePartitioner.KEY_ORDER.compare((String) a, (String) b));
+
+        } else {
+
+            LOG.debug("The sampled values can't be ordered: " + values.size());
+            return null;
+        }
+
+        sorted.addAll(values);
+
+        List<Object> sample = new ArrayList<>(sorted);
+        List<Object> bounds = new ArrayList<>(num - 1);
+
+        for (int i = 1; i < num; i++) {
+            bounds.add(sample.get((int) ((long) i * sample.size() / num)));
+        }
+
+        return bounds;
+    }
+
+    private static N1qlQueryResult query(Bucket bucket, String stmt) {
+
+        N1qlQueryResult result = bucket.query(N1qlQuery.simple(stmt));
+
+        if (!result.finalSuccess()) {
+            throw new IllegalStateException("The query failed: " + result.errors());
+        }
+
+        return result;
+    }
+}
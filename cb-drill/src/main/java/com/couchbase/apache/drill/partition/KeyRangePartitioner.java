@@ -0,0 +1,316 @@
+/*
+ * Copyright 2015 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.apache.drill.partition;
+
+import com.couchbase.apache.drill.n1ql.N1qlStatementBuilder;
+import com.couchbase.apache.drill.n1ql.N1qlUtil;
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.query.N1qlParams;
+import com.couchbase.client.java.query.N1qlQuery;
+import com.couchbase.client.java.query.N1qlQueryResult;
+import com.couchbase.client.java.query.N1qlQueryRow;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.function.UnaryOperator;
+import org.apache.log4j.Logger;
+
+/**
+ * Splits the key space of a bucket into ranges which can be scanned in
+ * parallel via the primary index
+ *
+ * The boundaries are the quantiles of a sample of the document keys. N1QL
+ * compares strings by their UTF-8 bytes, so the sample is sorted the same
+ * way. Otherwise the ranges could overlap.
+ *
+ * The sample must not walk the whole primary index, because it's taken while
+ * a query is planned. So only single keys are looked up: The first key of
+ * the index and the key after a probe. The last key is found by a binary
+ * search over its code points. The probes are spread evenly between the
+ * first and the last key. The first code points after their common prefix
+ * are interpolated for this. So the number of lookups is bounded by the
+ * sample size, plus the ones of the binary search.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class KeyRangePartitioner {
+
+    private static final Logger LOG = Logger.getLogger(KeyRangePartitioner.class.getName());
+
+    /**
+     * Orders keys like N1QL does
+     */
+    public static final Comparator<String> KEY_ORDER = (a, b) -> {
+
+        byte[] x = a.getBytes(StandardCharsets.UTF_8);
+        byte[] y = b.getBytes(StandardCharsets.UTF_8);
+
+        for (int i = 0; i < Math.min(x.length, y.length); i++) {
+
+            int cmp = Integer.compare(x[i] & 0xff, y[i] & 0xff);
+
+            if (cmp != 0) return cmp;
+        }
+
+        return Integer.compare(x.length, y.length);
+    };
+
+    /**
+     * The number of code points after the common prefix which are
+     * interpolated. Three code points still fit into a long.
+     */
+    private static final int DIGITS = 3;
+
+    /**
+     * The number of code points, which is the base of the interpolation
+     */
+    private static final long BASE = Character.MAX_CODE_POINT + 1L;
+
+    /**
+     * Sample the document keys of a bucket via the primary index
+     *
+     * @param bucket
+     * @param sampleSize The number of probes
+     * @return The sorted sample without duplicates
+     */
+    public static List<String> sample(Bucket bucket, int sampleSize) {
+
+        String stmt = new N1qlStatementBuilder(bucket.name())
+                .select(N1qlUtil.KEY + " AS id")
+                .where(N1qlUtil.KEY + " >= $probe")
+                .limit(1)
+                .build();
+
+        LOG.debug("Sampling keys: " + stmt);
+
+        //The statement is prepared once and executed for every probe
+        N1qlParams params = N1qlParams.build().adhoc(false);
+
+        List<String> keys = sample(probe -> {
+
+            N1qlQueryResult result = bucket.query(N1qlQuery.parameterized(stmt, JsonObject.create().put("probe", probe), params));
+
+            if (!result.finalSuccess()) {
+                throw new IllegalStateException("The query failed: " + result.errors());
+            }
+
+            List<N1qlQueryRow> rows = result.allRows();
+
+            return rows.isEmpty() ? null : rows.get(0).value().getString("id");
+
+        }, sampleSize);
+
+        LOG.debug("sampleSize = " + keys.size());
+
+        return keys;
+    }
+
+    /**
+     * Sample the document keys via a lookup of the first key after a probe
+     *
+     * @param next Returns the first key which is equal to or after the probe,
+     * null if there is none
+     * @param sampleSize The number of probes
+     * @return The sorted sample without duplicates
+     */
+    static List<String> sample(UnaryOperator<String> next, int sampleSize) {
+
+        String first = next.apply("");
+
+        if (first == null) return Collections.emptyList();
+
+        int[] lo = first.codePoints().toArray();
+        int[] hi = last(next, lo);
+
+        int prefix = 0;
+
+        while (prefix < lo.length && prefix < hi.length && lo[prefix] == hi[prefix]) prefix++;
+
+        long from = digits(lo, prefix);
+        long to = digits(hi, prefix);
+
+        TreeSet<String> keys = new TreeSet<>(KEY_ORDER);
+        keys.add(first);
+
+        for (int i = 1; i < sampleSize; i++) {
+
+            String key = next.apply(toString(lo, prefix, from + (long) ((double) (to - from) * i / sampleSize)));
+
+            if (key != null) keys.add(key);
+        }
+
+        return new ArrayList<>(keys);
+    }
+
+    /**
+     * Find the first code points of the last key. Only the code points up to
+     * the ones which are interpolated are needed.
+     *
+     * @param next
+     * @param first The code points of the first key
+     * @return
+     */
+    private static int[] last(UnaryOperator<String> next, int[] first) {
+
+        List<Integer> last = new ArrayList<>();
+        StringBuilder prefix = new StringBuilder();
+        int diverged = -1;
+
+        while (diverged < 0 || last.size() < diverged + DIGITS) {
+
+            //The last key is equal to the prefix
+            if (next.apply(prefix.toString() + '\0') == null) break;
+
+            boolean same = diverged < 0 && last.size() < first.length;
+
+            //The last key is at least the first one
+            int low = same ? first[last.size()] : 0;
+            int high = Character.MAX_CODE_POINT;
+
+            //Skip the search while the last key shares the first one's prefix
+            if (same && (low == high || next.apply(prefix.toString() + probe(low + 1)) == null)) high = low;
+
+            while (low < high) {
+
+                int mid = low + (high - low + 1) / 2;
+
+                if (next.apply(prefix.toString() + probe(mid)) != null) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+
+            if (diverged < 0 && (!same || low != first[last.size()])) diverged = last.size();
+
+            last.add(low);
+            prefix.append(probe(low));
+        }
+
+        return last.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * The interpolated code points after the prefix as number
+     *
+     * @param codePoints
+     * @param prefix
+     * @return
+     */
+    private static long digits(int[] codePoints, int prefix) {
+
+        long value = 0;
+
+        for (int i = prefix; i < prefix + DIGITS; i++) {
+            value = value * BASE + (i < codePoints.length ? codePoints[i] : 0);
+        }
+
+        return value;
+    }
+
+    /**
+     * Render a probe from the common prefix and the interpolated code points
+     *
+     * @param codePoints
+     * @param prefix
+     * @param value
+     * @return
+     */
+    private static String toString(int[] codePoints, int prefix, long value) {
+
+        int[] digits = new int[DIGITS];
+
+        for (int i = DIGITS - 1; i >= 0; i--) {
+
+            digits[i] = (int) (value % BASE);
+            value /= BASE;
+        }
+
+        StringBuilder sb = new StringBuilder(new String(codePoints, 0, prefix));
+
+        int len = DIGITS;
+
+        //Trailing NULs only make the probe longer
+        while (len > 0 && digits[len - 1] == 0) len--;
+
+        for (int i = 0; i < len; i++) {
+            sb.append(probe(digits[i]));
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * A code point as string. A surrogate isn't a valid code point, so it's
+     * replaced by the next valid one.
+     *
+     * @param codePoint
+     * @return
+     */
+    private static String probe(int codePoint) {
+
+        if (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE) {
+            codePoint = Character.MAX_SURROGATE + 1;
+        }
+
+        return new String(Character.toChars(codePoint));
+    }
+
+    /**
+     * Split the key space into ranges with about the same number of keys
+     *
+     * @param sample The sorted sample
+     * @param num The number of ranges
+     * @return The ranges, which cover the whole key space. A range is empty
+     * if the sample has less keys than ranges.
+     */
+    public static List<KeyRange> split(List<String> sample, int num) {
+
+        if (num < 1) throw new IllegalArgumentException("Invalid number of ranges: " + num);
+
+        List<KeyRange> ranges = new ArrayList<>(num);
+
+        if (sample.isEmpty()) {
+
+            //Everything is scanned by the first range
+            ranges.add(new KeyRange(null, null));
+
+            while (ranges.size() < num) {
+                ranges.add(new KeyRange("", ""));
+            }
+
+            return ranges;
+        }
+
+        String start = null;
+
+        for (int i = 1; i < num; i++) {
+
+            String end = sample.get((int) ((long) i * sample.size() / num));
+
+            ranges.add(new KeyRange(start, end));
+            start = end;
+        }
+
+        ranges.add(new KeyRange(start, null));
+
+        return ranges;
+    }
+}
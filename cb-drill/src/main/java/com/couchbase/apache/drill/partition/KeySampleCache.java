@@ -0,0 +1,116 @@
+/*
+ * Copyright 2015 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.apache.drill.partition;
+
+import com.couchbase.apache.drill.config.CouchbaseConfig;
+import com.couchbase.apache.drill.conn.CBConnectionRegistry;
+import com.couchbase.apache.drill.error.KeySampleError;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.log4j.Logger;
+
+/**
+ * Caches the sample of the document keys per bucket
+ *
+ * The key ranges of every N1QL or KV scan are derived from this sample, so
+ * the bucket is sampled only once per time to live instead of once per
+ * planned query. Every storage plug-in instance has its own cache.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class KeySampleCache {
+
+    private static final Logger LOG = Logger.getLogger(KeySampleCache.class.getName());
+
+    /**
+     * The connections of the plug-in
+     */
+    private final CBConnectionRegistry connections;
+
+    /**
+     * The sample per bucket name
+     */
+    private final Map<String, Sample> samples = new ConcurrentHashMap<>();
+
+    /**
+     * The constructor
+     *
+     * @param connections
+     */
+    public KeySampleCache(CBConnectionRegistry connections) {
+
+        this.connections = connections;
+    }
+
+    /**
+     * Get the sorted sample of the document keys of a bucket
+     *
+     * @param bucket
+     * @return The sample, empty if sampling failed
+     */
+    public List<String> getSample(String bucket) {
+
+        CouchbaseConfig cfg = connections.getConfig();
+
+        Sample sample = samples.get(bucket);
+
+        if (sample == null || sample.isExpired(cfg.getN1qlSampleTtl() * 1000L)) {
+
+            try {
+
+                sample = new Sample(KeyRangePartitioner.sample(connections.getBucket(bucket), cfg.getN1qlSampleSize()));
+                samples.put(bucket, sample);
+
+            } catch (RuntimeException e) {
+
+                //Planning should not fail because of a missing sample
+                LOG.error(new KeySampleError(e, bucket).toString());
+                return Collections.emptyList();
+            }
+        }
+
+        return sample.keys;
+    }
+
+    /**
+     * Drop the cached sample of a bucket
+     *
+     * @param bucket
+     */
+    public void invalidate(String bucket) {
+
+        samples.remove(bucket);
+    }
+
+    /**
+     * A sample and the time when it was taken
+     */
+    private static class Sample {
+
+        private final List<String> keys;
+        private final long timestamp = System.currentTimeMillis();
+
+        private Sample(List<String> keys) {
+            this.keys = Collections.unmodifiableList(keys);
+        }
+
+        private boolean isExpired(long ttl) {
+            return System.currentTimeMillis() - timestamp > ttl;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2015 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.apache.drill.partition;
+
+import com.couchbase.client.core.config.CouchbaseBucketConfig;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.log4j.Logger;
+
+/**
+ * Knows which node is the master of which vBucket. The nodes are identified
+ * by their IP address.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class VBucketMap {
+
+    private static final Logger LOG = Logger.getLogger(VBucketMap.class.getName());
+
+    /**
+     * The master host per vBucket, null if the vBucket has currently no master
+     */
+    private final String[] masters;
+
+    /**
+     * Create the map from the bucket configuration
+     *
+     * @param config
+     */
+    public VBucketMap(CouchbaseBucketConfig config) {
+
+        this.masters = new String[config.numberOfPartitions()];
+
+        for (int vb = 0; vb < masters.length; vb++) {
+
+            short idx = config.nodeIndexForMaster(vb);
+
+            if (idx >= 0) {
+                masters[vb] = config.nodeAtIndex(idx).hostname().getHostAddress();
+            }
+        }
+    }
+
+    /**
+     * Create the map from the master host per vBucket
+     *
+     * @param masters
+     */
+    VBucketMap(String[] masters) {
+
+        this.masters = masters;
+    }
+
+    /**
+     * The number of vBuckets
+     *
+     * @return
+     */
+    public int size() {
+        return masters.length;
+    }
+
+    /**
+     * The host which is the master of the vBucket
+     *
+     * @param vBucket
+     * @return
+     */
+    public String getMaster(int vBucket) {
+        return masters[vBucket];
+    }
+
+    /**
+     * Count the vBuckets per master host
+     *
+     * @return
+     */
+    public Map<String, Integer> countByHost() {
+
+        Map<String, Integer> counts = new HashMap<>();
+
+        for (String host : masters) {
+
+            if (host != null) {
+                counts.merge(host, 1, Integer::sum);
+            }
+        }
+
+        return counts;
+    }
+
+    /**
+     * Count the vBuckets of a subset per master host
+     *
+     * @param vBuckets
+     * @return
+     */
+    public Map<String, Integer> countByHost(Collection<Integer> vBuckets) {
+
+        Map<String, Integer> counts = new HashMap<>();
+
+        for (int vb : vBuckets) {
+
+            if (masters[vb] != null) {
+                counts.merge(masters[vb], 1, Integer::sum);
+            }
+        }
+
+        return counts;
+    }
+
+    /**
+     * Normalize a host name to the IP address in order to be able to compare
+     * it with the hosts of the vBucket map
+     *
+     * @param host
+     * @return
+     */
+    public static String normalize(String host) {
+
+        try {
+
+            return InetAddress.getByName(host).getHostAddress();
+
+        } catch (UnknownHostException e) {
+
+            LOG.debug("Could not resolve host " + host);
+            return host;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2015 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.apache.drill.partition;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+/**
+ * Splits the vBuckets of a bucket into ranges which can be scanned in parallel
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class VBucketPartitioner {
+
+    /**
+     * Assign the vBuckets to fragments. Every fragment gets a balanced number
+     * of vBuckets. A fragment prefers the vBuckets which are mastered by the
+     * host the fragment is running on. The vBuckets without a local fragment
+     * are used to fill up the remaining fragments.
+     *
+     * @param map
+     * @param fragmentHosts The normalized host per fragment
+     * @return The vBucket ranges per fragment
+     */
+    public static List<List<VBucketRange>> assign(VBucketMap map, List<String> fragmentHosts) {
+
+        List<Integer> all = new ArrayList<>(map.size());
+
+        for (int vb = 0; vb < map.size(); vb++) {
+            all.add(vb);
+        }
+
+        return assign(map, all, fragmentHosts);
+    }
+
+    /**
+     * Assign a subset of the vBuckets to fragments in the same way. If the
+     * subset is empty then one fragment gets no vBuckets.
+     *
+     * @param map
+     * @param candidates The vBuckets to assign
+     * @param fragmentHosts The normalized host per fragment
+     * @return The vBucket ranges per fragment
+     */
+    public static List<List<VBucketRange>> assign(VBucketMap map, List<Integer> candidates, List<String> fragmentHosts) {
+
+        int num = fragmentHosts.size();
+        int numVBuckets = candidates.size();
+
+        if (num < 1 || num > Math.max(1, numVBuckets)) throw new IllegalArgumentException("Invalid number of fragments: " + num);
+
+        int size = numVBuckets / num;
+        int rest = numVBuckets % num;
+
+        int[] capacity = new int[num];
+        List<List<Integer>> vBuckets = new ArrayList<>(num);
+        Map<String, List<Integer>> fragmentsByHost = new HashMap<>();
+
+        for (int i = 0; i < num; i++) {
+
+            capacity[i] = size + (i < rest ? 1 : 0);
+            vBuckets.add(new ArrayList<>());
+            fragmentsByHost.computeIfAbsent(fragmentHosts.get(i), h -> new ArrayList<>()).add(i);
+        }
+
+        boolean[] assigned = new boolean[map.size()];
+
+        //Local pass: Fill the fragments of a host with the vBuckets of this host
+        Map<String, Integer> cursors = new HashMap<>();
+
+        for (int vb : candidates) {
+
+            String host = map.getMaster(vb);
+            List<Integer> fragments = host == null ? null : fragmentsByHost.get(host);
+
+            if (fragments != null) {
+
+                int cursor = cursors.getOrDefault(host, 0);
+
+                while (cursor < fragments.size() && capacity[fragments.get(cursor)] == 0) cursor++;
+
+                cursors.put(host, cursor);
+
+                if (cursor < fragments.size()) {
+
+                    int fragment = fragments.get(cursor);
+                    vBuckets.get(fragment).add(vb);
+                    capacity[fragment]--;
+                    assigned[vb] = true;
+                }
+            }
+        }
+
+        //Remote pass: Fill up the fragments with the remaining vBuckets
+        int fragment = 0;
+
+        for (int vb : candidates) {
+
+            if (!assigned[vb]) {
+
+                while (capacity[fragment] == 0) fragment++;
+
+                vBuckets.get(fragment).add(vb);
+                capacity[fragment]--;
+            }
+        }
+
+        List<List<VBucketRange>> result = new ArrayList<>(num);
+
+        for (List<Integer> vbs : vBuckets) {
+            result.add(toRanges(vbs));
+        }
+
+        return result;
+    }
+
+    /**
+     * Compress a list of vBuckets into ranges
+     *
+     * @param vBuckets
+     * @return
+     */
+    public static List<VBucketRange> toRanges(List<Integer> vBuckets) {
+
+        List<Integer> sorted = new ArrayList<>(vBuckets);
+        Collections.sort(sorted);
+
+        List<VBucketRange> ranges = new ArrayList<>();
+
+        int i = 0;
+
+        while (i < sorted.size()) {
+
+            int start = sorted.get(i);
+            int end = start + 1;
+            i++;
+
+            while (i < sorted.size() && sorted.get(i) == end) {
+                end++;
+                i++;
+            }
+
+            ranges.add(new VBucketRange(start, end));
+        }
+
+        return ranges;
+    }
+
+    /**
+     * Calculate the vBucket of a document key. This is the same hash function
+     * which is used by the client to locate a key.
+     *
+     * @param key
+     * @param numVBuckets
+     * @return
+     */
+    public static int vBucketOf(String key, int numVBuckets) {
+
+        CRC32 crc = new CRC32();
+        crc.update(key.getBytes(StandardCharsets.UTF_8));
+
+        long rv = (crc.getValue() >> 16) & 0x7fff;
+
+        return (int) rv & (numVBuckets - 1);
+    }
+
+    /**
+     * Calculate the distinct vBuckets of a set of document keys
+     *
+     * @param keys
+     * @param numVBuckets
+     * @return The sorted vBuckets
+     */
+    public static List<Integer> vBucketsOf(Collection<String> keys, int numVBuckets) {
+
+        TreeSet<Integer> vBuckets = new TreeSet<>();
+
+        for (String key : keys) {
+            vBuckets.add(vBucketOf(key, numVBuckets));
+        }
+
+        return new ArrayList<>(vBuckets);
+    }
+
+    /**
+     * Check if a vBucket is part of one of the ranges
+     *
+     * @param ranges
+     * @param vBucket
+     * @return
+     */
+    public static boolean contains(List<VBucketRange> ranges, int vBucket) {
+
+        for (VBucketRange range : ranges) {
+
+            if (range.contains(vBucket)) return true;
+        }
+
+        return false;
+    }
+}
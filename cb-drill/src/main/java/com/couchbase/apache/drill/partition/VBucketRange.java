@@ -0,0 +1,111 @@
+/*
+ * Copyright 2015 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.apache.drill.partition;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * A contiguous range of vBuckets. The start is inclusive and the end is
+ * exclusive.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class VBucketRange {
+
+    /**
+     * The first vBucket of the range
+     */
+    private final int start;
+
+    /**
+     * The vBucket after the last one of the range
+     */
+    private final int end;
+
+    /**
+     * Jackson allows to create an instance from JSON
+     *
+     * @param start
+     * @param end
+     */
+    @JsonCreator
+    public VBucketRange(@JsonProperty("start") int start, @JsonProperty("end") int end) {
+
+        if (start < 0 || end < start) throw new IllegalArgumentException("Invalid vBucket range [" + start + "," + end + ")");
+
+        this.start = start;
+        this.end = end;
+    }
+
+    @JsonProperty("start")
+    public int getStart() {
+        return start;
+    }
+
+    @JsonProperty("end")
+    public int getEnd() {
+        return end;
+    }
+
+    /**
+     * The number of vBuckets in this range
+     *
+     * @return
+     */
+    @JsonIgnore
+    public int size() {
+        return end - start;
+    }
+
+    /**
+     * Check if a vBucket is part of this range
+     *
+     * @param vBucket
+     * @return
+     */
+    public boolean contains(int vBucket) {
+        return vBucket >= start && vBucket < end;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + start + "," + end + ")";
+    }
+
+    @Override
+    public boolean equals(Object o) {
+
+        if (o instanceof VBucketRange)
+        {
+            VBucketRange that = (VBucketRange) o;
+            return this.start == that.start && this.end == that.end;
+        }
+        else
+        {
+            return false;
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 7;
+        hash = 31 * hash + this.start;
+        hash = 31 * hash + this.end;
+        return hash;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2015 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.apache.drill.partition;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.util.Objects;
+
+/**
+ * A range of the keys of a view. The start is inclusive and the end is
+ * exclusive. A missing start or end means that the range is unbounded on that
+ * side. The keys are JSON values, so they are kept as JSON.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class ViewRange {
+
+    /**
+     * The JSON of the first key of the range, null if unbounded
+     */
+    private final String start;
+
+    /**
+     * The JSON of the key after the last one of the range, null if unbounded
+     */
+    private final String end;
+
+    /**
+     * Jackson allows to create an instance from JSON
+     *
+     * @param start
+     * @param end
+     */
+    @JsonCreator
+    public ViewRange(@JsonProperty("start") String start, @JsonProperty("end") String end) {
+
+        this.start = start;
+        this.end = end;
+    }
+
+    @JsonProperty("start")
+    public String getStart() {
+        return start;
+    }
+
+    @JsonProperty("end")
+    public String getEnd() {
+        return end;
+    }
+
+    /**
+     * If the range can't contain any key. Null is the lowest key of a view.
+     *
+     * @return
+     */
+    @JsonIgnore
+    public boolean isEmpty() {
+        return end != null && (end.equals(start) || end.equals("null"));
+    }
+
+    @Override
+    public String toString() {
+        return "[" + (start == null ? "" : start) + "," + (end == null ? "" : end) + ")";
+    }
+
+    @Override
+    public boolean equals(Object o) {
+
+        if (o instanceof ViewRange)
+        {
+            ViewRange that = (ViewRange) o;
+            return Objects.equals(this.start, that.start) && Objects.equals(this.end, that.end);
+        }
+        else
+        {
+            return false;
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 7;
+        hash = 31 * hash + Objects.hashCode(this.start);
+        hash = 31 * hash + Objects.hashCode(this.end);
+        return hash;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2015 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.apache.drill.partition;
+
+import com.couchbase.apache.drill.view.ViewUtil;
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.view.Stale;
+import com.couchbase.client.java.view.ViewQuery;
+import com.couchbase.client.java.view.ViewRow;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.log4j.Logger;
+
+/**
+ * Splits the key space of a view into ranges which can be scanned in parallel
+ *
+ * Views can't be sampled randomly. The boundaries are the keys at evenly
+ * spaced offsets of the view instead. Every boundary is read by skipping to
+ * its offset, so the index isn't updated and no rows are transferred for
+ * this. The view engine still has to step over the skipped rows.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class ViewRangePartitioner {
+
+    private static final Logger LOG = Logger.getLogger(ViewRangePartitioner.class.getName());
+
+    /**
+     * Split the view into ranges
+     *
+     * @param bucket
+     * @param view The view as design/view
+     * @param num The number of ranges
+     * @return Exactly num ranges. The ranges are empty after the first one if
+     * the view has less rows than ranges.
+     */
+    public static List<ViewRange> split(Bucket bucket, String view, int num) {
+
+        if (num < 1) throw new IllegalArgumentException("Invalid number of ranges: " + num);
+
+        int total = ViewUtil.totalRows(bucket, sampleQuery(view).limit(1));
+
+        LOG.debug("totalRows = " + total);
+
+        if (total < num) return unsplit(num);
+
+        List<ViewRange> ranges = new ArrayList<>(num);
+        String start = null;
+
+        for (int i = 1; i < num; i++) {
+
+            List<ViewRow> rows = ViewUtil.rows(bucket, sampleQuery(view).skip((int) ((long) i * total / num)).limit(1));
+
+            if (rows.isEmpty()) break;
+
+            String end = ViewUtil.toJson(rows.get(0).key());
+
+            ranges.add(new ViewRange(start, end));
+            start = end;
+        }
+
+        ranges.add(new ViewRange(start, null));
+
+        while (ranges.size() < num) {
+            ranges.add(new ViewRange("null", "null"));
+        }
+
+        return ranges;
+    }
+
+    /**
+     * Let the first range cover the whole view
+     *
+     * @param num
+     * @return
+     */
+    public static List<ViewRange> unsplit(int num) {
+
+        List<ViewRange> ranges = new ArrayList<>(num);
+
+        ranges.add(new ViewRange(null, null));
+
+        while (ranges.size() < num) {
+            ranges.add(new ViewRange("null", "null"));
+        }
+
+        return ranges;
+    }
+
+    /**
+     * A query of the map rows which doesn't update the index
+     *
+     * @param view
+     * @return
+     */
+    private static ViewQuery sampleQuery(String view) {
+
+        return ViewUtil.query(view, Stale.TRUE.identifier()).reduce(false);
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2015 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.apache.drill.schema;
+
+import com.couchbase.apache.drill.config.CouchbaseConfig;
+import com.couchbase.apache.drill.conn.CBConnectionRegistry;
+import com.couchbase.apache.drill.error.BucketListRetrievalError;
+import com.couchbase.client.java.cluster.BucketSettings;
+import com.couchbase.client.java.cluster.ClusterManager;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.log4j.Logger;
+
+/**
+ * Caches the names of the buckets
+ *
+ * Only the very first lookup has to wait for the cluster manager. Afterwards
+ * the cached names are returned immediately. If they are older than the
+ * configured time to live then they are refreshed in the background. There
+ * is at most one refresh in flight, concurrent lookups share it. If a refresh
+ * fails then the previous names are kept.
+ *
+ * If the very first load fails, then the failure is cached for the
+ * configured retry interval. Lookups within this interval fail immediately
+ * instead of blocking on the cluster manager again.
+ *
+ * Every catalog runs its refreshes on its own thread, which is stopped when
+ * the catalog is closed together with its plug-in.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class BucketCatalog {
+
+    private static final Logger LOG = Logger.getLogger(BucketCatalog.class.getName());
+
+    /**
+     * The connections of the plug-in
+     */
+    private final CBConnectionRegistry connections;
+
+    /**
+     * Runs the refreshes
+     */
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "cb-bucket-catalog");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * The bucket names, null if not yet loaded
+     */
+    private volatile Set<String> buckets;
+
+    /**
+     * When the bucket names were loaded
+     */
+    private volatile long loadedAt;
+
+    /**
+     * The failure of the last load, null if it succeeded
+     */
+    private volatile BucketListRetrievalError failure;
+
+    /**
+     * When the last load failed
+     */
+    private volatile long failedAt;
+
+    /**
+     * The refresh which is in flight, null if there is none
+     */
+    private final AtomicReference<CompletableFuture<Set<String>>> refresh = new AtomicReference<>();
+
+    /**
+     * The constructor
+     *
+     * @param connections
+     */
+    public BucketCatalog(CBConnectionRegistry connections) {
+
+        this.connections = connections;
+    }
+
+    /**
+     * Get the bucket names
+     *
+     * @return An immutable set of names
+     */
+    public Set<String> getBucketNames() {
+
+        Set<String> current = buckets;
+        CouchbaseConfig cfg = connections.getConfig();
+
+        if (current == null) {
+
+            BucketListRetrievalError failed = failure;
+
+            if (failed != null && System.currentTimeMillis() - failedAt < cfg.getCatalogRetry() * 1000L) {
+
+                LOG.error(failed.toString());
+                throw failed;
+            }
+
+            try {
+
+                return refresh().join();
+
+            } catch (CompletionException e) {
+
+                BucketListRetrievalError err = e.getCause() instanceof BucketListRetrievalError
+                        ? (BucketListRetrievalError) e.getCause()
+                        : new BucketListRetrievalError(e);
+
+                LOG.error(err.toString());
+                throw err;
+            }
+        }
+
+        if (System.currentTimeMillis() - loadedAt > cfg.getCatalogTtl() * 1000L) {
+            refresh();
+        }
+
+        return current;
+    }
+
+    /**
+     * Start a refresh unless one is already in flight
+     *
+     * @return The refresh
+     */
+    private CompletableFuture<Set<String>> refresh() {
+
+        CompletableFuture<Set<String>> next = new CompletableFuture<>();
+
+        if (!refresh.compareAndSet(null, next)) {
+
+            CompletableFuture<Set<String>> inFlight = refresh.get();
+
+            //The other refresh might have just finished
+            return inFlight != null ? inFlight : refresh();
+        }
+
+        LOG.debug("Refreshing the bucket names ...");
+
+        try {
+
+            executor.execute(() -> load(next));
+
+        } catch (RejectedExecutionException e) {
+
+            //The catalog was closed
+            refresh.set(null);
+            next.completeExceptionally(new BucketListRetrievalError(e));
+        }
+
+        return next;
+    }
+
+    /**
+     * Load the bucket names and complete the refresh
+     *
+     * @param next The refresh
+     */
+    private void load(CompletableFuture<Set<String>> next) {
+
+        try {
+
+            Set<String> names = load();
+
+            buckets = names;
+            loadedAt = System.currentTimeMillis();
+            failure = null;
+
+            LOG.debug("buckets = " + names);
+
+            refresh.set(null);
+            next.complete(names);
+
+        } catch (RuntimeException e) {
+
+            LOG.error("Could not refresh the bucket names: " + e);
+
+            failure = e instanceof BucketListRetrievalError ? (BucketListRetrievalError) e : new BucketListRetrievalError(e);
+            failedAt = System.currentTimeMillis();
+
+            refresh.set(null);
+            next.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Load the bucket names from the cluster manager
+     *
+     * @return
+     */
+    private Set<String> load() {
+
+        try {
+
+            ClusterManager manager = connections.getCluster()
+                    .clusterManager(connections.getConfig().getAdminUser(), connections.getConfig().getAdminPassword());
+
+            Set<String> names = new HashSet<>();
+
+            for (BucketSettings bs : manager.getBuckets()) {
+                names.add(bs.name());
+            }
+
+            return Collections.unmodifiableSet(names);
+
+        } catch (RuntimeException e) {
+
+            throw new BucketListRetrievalError(e);
+        }
+    }
+
+    /**
+     * Stop the refresh thread once a refresh which is in flight finished.
+     * Later lookups can't refresh the names anymore.
+     */
+    public void close() {
+
+        executor.shutdown();
+    }
+}
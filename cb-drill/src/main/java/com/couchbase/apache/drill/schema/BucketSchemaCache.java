@@ -0,0 +1,145 @@
+/*
+ * Copyright 2015 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.apache.drill.schema;
+
+import com.couchbase.apache.drill.config.CouchbaseConfig;
+import com.couchbase.apache.drill.conn.CBConnectionRegistry;
+import com.couchbase.apache.drill.error.SchemaInferenceError;
+import com.couchbase.apache.drill.n1ql.N1qlStatementBuilder;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.query.N1qlQuery;
+import com.couchbase.client.java.query.N1qlQueryResult;
+import com.couchbase.client.java.query.N1qlQueryRow;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.log4j.Logger;
+
+/**
+ * Caches the inferred schema per bucket
+ *
+ * The schema is inferred from the first documents of a primary index scan.
+ * It is inferred again after the configured time to live or if it was
+ * invalidated. Every storage plug-in instance has its own cache.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class BucketSchemaCache {
+
+    private static final Logger LOG = Logger.getLogger(BucketSchemaCache.class.getName());
+
+    /**
+     * The connections of the plug-in
+     */
+    private final CBConnectionRegistry connections;
+
+    /**
+     * The schema per bucket name
+     */
+    private final Map<String, InferredSchema> schemas = new ConcurrentHashMap<>();
+
+    /**
+     * The constructor
+     *
+     * @param connections
+     */
+    public BucketSchemaCache(CBConnectionRegistry connections) {
+
+        this.connections = connections;
+    }
+
+    /**
+     * Get the schema of a bucket
+     *
+     * @param bucket
+     * @return The schema or null if sampling is disabled or failed
+     */
+    public InferredSchema getSchema(String bucket) {
+
+        CouchbaseConfig cfg = connections.getConfig();
+
+        if (cfg.getSchemaSampleSize() <= 0) return null;
+
+        InferredSchema schema = schemas.get(bucket);
+
+        if (schema == null || schema.isExpired(cfg.getSchemaTtl() * 1000L)) {
+
+            try {
+
+                schema = sample(bucket, cfg.getSchemaSampleSize());
+                schemas.put(bucket, schema);
+
+            } catch (SchemaInferenceError err) {
+
+                //Fall back to a dynamic schema
+                LOG.error(err.toString());
+                return null;
+            }
+        }
+
+        return schema;
+    }
+
+    /**
+     * Drop the cached schema of a bucket
+     *
+     * @param bucket
+     */
+    public void invalidate(String bucket) {
+
+        schemas.remove(bucket);
+    }
+
+    /**
+     * Infer the schema from sample documents
+     *
+     * @param bucket
+     * @param size
+     * @return
+     */
+    private InferredSchema sample(String bucket, int size) {
+
+        String stmt = new N1qlStatementBuilder(bucket).limit(size).build();
+
+        LOG.debug("Sampling: " + stmt);
+
+        try {
+
+            N1qlQueryResult result = connections.getBucket(bucket).query(N1qlQuery.simple(stmt));
+
+            if (!result.finalSuccess()) {
+                throw new IllegalStateException("The query failed: " + result.errors());
+            }
+
+            List<JsonObject> docs = new ArrayList<>();
+
+            for (N1qlQueryRow row : result) {
+                docs.add(row.value());
+            }
+
+            InferredSchema schema = InferredSchema.infer(docs);
+
+            LOG.debug("schema = " + schema);
+
+            return schema;
+
+        } catch (RuntimeException e) {
+
+            throw new SchemaInferenceError(e, bucket);
+        }
+    }
+}
@@ -16,19 +16,21 @@
 package com.couchbase.apache.drill.schema;
 
 import com.couchbase.apache.drill.CBDefaultScanSpec;
+import com.couchbase.apache.drill.CBScanMode;
 import com.couchbase.apache.drill.CBStoragePlugin;
+import com.couchbase.apache.drill.CBWriter;
 import com.couchbase.apache.drill.config.CBStoragePluginConfig;
-import com.couchbase.apache.drill.config.ConfigFactory;
-import com.couchbase.apache.drill.conn.ClusterFactory;
-import com.couchbase.apache.drill.error.BucketListRetrievalError;
-import com.couchbase.client.java.cluster.BucketSettings;
-import com.couchbase.client.java.cluster.ClusterManager;
+import com.couchbase.apache.drill.view.ViewUtil;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import org.apache.calcite.schema.SchemaPlus;
 import org.apache.calcite.schema.Table;
+import org.apache.drill.exec.physical.base.PhysicalOperator;
+import org.apache.drill.exec.physical.base.Writer;
+import org.apache.drill.exec.planner.logical.CreateTableEntry;
 import org.apache.drill.exec.planner.logical.DynamicDrillTable;
 import org.apache.drill.exec.store.AbstractSchema;
 import org.apache.log4j.Logger;
@@ -41,10 +43,20 @@ public class CBSchema extends AbstractSchema {
     
     private final static Logger LOG = Logger.getLogger(CBSchema.class.getName());
     
+    /**
+     * Separates the bucket from the checkpoint in a table name
+     */
+    private static final char CHECKPOINT_SEPARATOR = '@';
+    
+    /**
+     * Marks the table name of a CTAS which writes into a bucket
+     */
+    private static final char WRITE_SUFFIX = '+';
+    
     /**
      * N1QL is using buckets like tables, so let's map a bucket to a table here
      */
-    private final Set<String> buckets = new HashSet<>();
+    private final BucketCatalog catalog;
     
     /**
      * Seems to be a kind of schema definition
@@ -62,13 +74,15 @@ public class CBSchema extends AbstractSchema {
      * 
      * @param plugin
      * @param name 
+     * @param catalog 
      */
-    public CBSchema(CBStoragePlugin plugin, String name) {
+    public CBSchema(CBStoragePlugin plugin, String name, BucketCatalog catalog) {
         
         //No parent schemas
         super(new ArrayList<>(), name);
         
         this.plugin = plugin;
+        this.catalog = catalog;
     }    
     
     /**
@@ -110,6 +124,8 @@ public class CBSchema extends AbstractSchema {
     /**
      * Get the table names. We map tables to buckets in our case.
      * 
+     * The names are served from the catalog cache
+     * 
      * @return 
      */
     @Override
@@ -117,26 +133,7 @@ public class CBSchema extends AbstractSchema {
        
         LOG.debug("Retrieving bucket names ...");
         
-        try {
-
-            ClusterManager manager = ClusterFactory.getCluster()
-                    .clusterManager(ConfigFactory.getCBConfig()
-                            .getAdminUser(), ConfigFactory.getCBConfig().getAdminPassword());
-
-            List<BucketSettings> bucketSettings = manager.getBuckets();
-
-            bucketSettings.stream().forEach((bs) -> {
-                this.buckets.add(bs.name());
-            });
-
-        } catch (RuntimeException e) {
-
-            BucketListRetrievalError err = new BucketListRetrievalError(e);
-            LOG.error(err.toString());
-            throw err;
-        }
-
-        return this.buckets;
+        return catalog.getBucketNames();
     }
 
     /**
@@ -150,6 +147,62 @@ public class CBSchema extends AbstractSchema {
         this.schemaPlus = schemaPlus;
     }
 
+    /**
+     * Documents can be written to the buckets
+     * 
+     * @return 
+     */
+    @Override
+    public boolean isMutable() {
+        return true;
+    }
+
+    /**
+     * Write the result of a CTAS into an existing bucket. The buckets are 
+     * managed by the cluster, so a bucket is never created here.
+     * 
+     * Drill rejects a CTAS into a table which already exists, and every 
+     * bucket is a table. So the target is named like the bucket followed by
+     * a plus sign, e.g. CREATE TABLE `travel-sample+` AS SELECT ..., and such
+     * a name never refers to a table. Bucket names can't contain a plus sign.
+     * 
+     * @param tableName The bucket name followed by the write suffix
+     * @param partitionColumns
+     * @return 
+     */
+    @Override
+    public CreateTableEntry createNewTable(String tableName, List<String> partitionColumns) {
+        
+        LOG.debug("Creating a writer for table " + tableName + " ...");
+        
+        if (partitionColumns != null && !partitionColumns.isEmpty()) {
+            throw new UnsupportedOperationException("Buckets can't be partitioned by columns");
+        }
+        
+        if (!isWriteTarget(tableName)) {
+            throw new IllegalArgumentException("A CTAS writes into an existing bucket and has to use a table name of the form " + tableName + WRITE_SUFFIX);
+        }
+        
+        String bucket = tableName.substring(0, tableName.length() - 1);
+        
+        if (!catalog.getBucketNames().contains(bucket)) {
+            throw new IllegalArgumentException("Bucket " + bucket + " does not exist");
+        }
+        
+        return new CreateTableEntry() {
+            
+            @Override
+            public Writer getWriter(PhysicalOperator child) {
+                return new CBWriter(child, plugin, bucket);
+            }
+
+            @Override
+            public List<String> getPartitionColumns() {
+                return Collections.emptyList();
+            }
+        };
+    }
+
     public SchemaPlus getSchemaPlus() {
         return schemaPlus;
     }
@@ -162,13 +215,65 @@ public class CBSchema extends AbstractSchema {
     /**
      * Get a specific table
      * 
+     * The table is dynamic, so every field of the documents can be queried.
+     * A schema which is inferred from sample documents can't know all fields,
+     * so it's only used by the record reader to create the vectors of the
+     * known fields up front.
+     * 
+     * A table name of the form bucket@checkpoint refers to the documents of 
+     * the bucket which changed since the named checkpoint. The checkpoint is
+     * moved forward by every query which reads all of the changes.
+     * 
+     * A table name of the form bucket/design/view refers to the documents of
+     * the rows of the view.
+     * 
+     * A table name of the form bucket+ is the target of a CTAS into the bucket
+     * and doesn't refer to a table.
+     * 
      * @param name
      * @return 
      */
     @Override
     public Table getTable(String name) {
     
-        //TODO: Trying to use the DynamicDrillTable here
-        return new DynamicDrillTable(plugin, name, new CBDefaultScanSpec(name));
+        //Only the target of a CTAS, so it must not exist
+        if (isWriteTarget(name)) return null;
+        
+        CBDefaultScanSpec scanSpec;
+        String bucket = name;
+        int at = name.indexOf(CHECKPOINT_SEPARATOR);
+        int slash = name.indexOf(ViewUtil.SEPARATOR);
+        
+        if (slash > 0 && (at < 0 || slash < at) && ViewUtil.isView(name.substring(slash + 1))) {
+            
+            bucket = name.substring(0, slash);
+            scanSpec = new CBDefaultScanSpec(bucket, CBScanMode.VIEW, name.substring(slash + 1));
+            
+        } else if (at > 0 && at < name.length() - 1) {
+            
+            if (plugin.getCBConfig().getDcpCheckpointBucket() == null) {
+                throw new UnsupportedOperationException("No checkpoint bucket is configured, so the changes of " + name + " can't be read");
+            }
+            
+            bucket = name.substring(0, at);
+            scanSpec = new CBDefaultScanSpec(bucket, name.substring(at + 1));
+            
+        } else {
+            
+            CBScanMode mode = CBScanMode.valueOf(plugin.getCBConfig().getScanMode().toUpperCase());
+            
+            if (mode == CBScanMode.VIEW) {
+                throw new UnsupportedOperationException("A view has to be read via a table name of the form " + name + "/design/view");
+            }
+            
+            scanSpec = new CBDefaultScanSpec(name, mode);
+        }
+        
+        return new DynamicDrillTable(plugin, name, scanSpec);
     }  
+    
+    private static boolean isWriteTarget(String name) {
+        
+        return name.length() > 1 && name.charAt(name.length() - 1) == WRITE_SUFFIX;
+    }
 }
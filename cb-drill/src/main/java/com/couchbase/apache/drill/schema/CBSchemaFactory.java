@@ -36,6 +36,11 @@ public class CBSchemaFactory implements SchemaFactory {
      * The associated plug-in
      */
     private final CBStoragePlugin plugin;
+    
+    /**
+     * The cached bucket names, shared by all schemas of the plug-in
+     */
+    private final BucketCatalog catalog;
 
     /**
      * The constructor
@@ -46,6 +51,7 @@ public class CBSchemaFactory implements SchemaFactory {
     public CBSchemaFactory(CBStoragePlugin plugin, String name) {
         this.name = name;
         this.plugin = plugin;
+        this.catalog = new BucketCatalog(plugin.getConnections());
     }
     
     /**
@@ -58,9 +64,17 @@ public class CBSchemaFactory implements SchemaFactory {
     @Override
     public void registerSchemas(SchemaConfig schemaConfig, SchemaPlus parent) throws IOException {
         
-        CBSchema schema = new CBSchema(plugin, name);
+        CBSchema schema = new CBSchema(plugin, name, catalog);
         SchemaPlus plus = parent.add(name, schema);
         schema.setSchemaPlus(plus);
     }
+
+    /**
+     * Close the bucket catalog
+     */
+    public void close() {
+        
+        catalog.close();
+    }
     
 }
@@ -0,0 +1,280 @@
+/*
+ * Copyright 2015 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.apache.drill.schema;
+
+import com.couchbase.apache.drill.n1ql.N1qlUtil;
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.apache.drill.common.expression.SchemaPath;
+import org.apache.drill.common.types.TypeProtos.MinorType;
+import org.apache.drill.exec.vector.complex.writer.BaseWriter.MapWriter;
+
+/**
+ * The schema of a bucket which was inferred from sample documents
+ *
+ * Every field has the Drill type of its values. Nested objects are maps with
+ * their own fields. A field whose values have different types, or which is
+ * an array, has no type. Such a field is left to the JSON reader.
+ *
+ * The schema isn't exposed to the planner, because the sample can't contain
+ * every field of the bucket. The record reader only uses it to create the
+ * vectors of the known fields up front.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class InferredSchema {
+
+    /**
+     * The top-level fields
+     */
+    private final Map<String, Field> fields = new LinkedHashMap<>();
+
+    /**
+     * When the schema was inferred
+     */
+    private final long timestamp = System.currentTimeMillis();
+
+    /**
+     * Infer the schema of the given documents
+     *
+     * @param docs
+     * @return
+     */
+    public static InferredSchema infer(Iterable<JsonObject> docs) {
+
+        InferredSchema schema = new InferredSchema();
+
+        for (JsonObject doc : docs) {
+            merge(schema.fields, doc);
+        }
+
+        return schema;
+    }
+
+    /**
+     * Merge the fields of a document into the fields which were seen so far
+     *
+     * @param fields
+     * @param doc
+     */
+    private static void merge(Map<String, Field> fields, JsonObject doc) {
+
+        for (String name : doc.getNames()) {
+
+            Object value = doc.get(name);
+
+            //NULL doesn't tell anything about the type
+            if (value == null) {
+
+                fields.putIfAbsent(name, new Field(null));
+                continue;
+            }
+
+            MinorType type = typeOf(value);
+            Field field = fields.get(name);
+
+            if (field == null) {
+
+                field = new Field(type);
+                fields.put(name, field);
+
+            } else if (!field.conflict && field.type == null && field.children.isEmpty()) {
+
+                //Only NULL values were seen before
+                field.type = type;
+
+            } else if (field.type != type) {
+
+                field.conflict = true;
+                field.type = null;
+            }
+
+            if (type == MinorType.MAP && !field.conflict) {
+                merge(field.children, (JsonObject) value);
+            }
+        }
+    }
+
+    /**
+     * The type of a JSON value as written by Drill's JSON reader
+     *
+     * @param value
+     * @return The type or null if the type is not fixed
+     */
+    private static MinorType typeOf(Object value) {
+
+        if (value instanceof String) return MinorType.VARCHAR;
+        if (value instanceof Boolean) return MinorType.BIT;
+        if (value instanceof Integer || value instanceof Long) return MinorType.BIGINT;
+        if (value instanceof Double || value instanceof Float || value instanceof BigDecimal) return MinorType.FLOAT8;
+        if (value instanceof JsonObject) return MinorType.MAP;
+        if (value instanceof JsonArray) return MinorType.LIST;
+
+        return null;
+    }
+
+    /**
+     * Create the vectors of the projected fields up front, so that every
+     * batch has the same schema, even if a field is missing in a batch.
+     * Fields without a fixed type are created by the JSON reader on demand.
+     *
+     * @param root
+     * @param columns
+     */
+    public void allocate(MapWriter root, Collection<SchemaPath> columns) {
+
+        boolean star = N1qlUtil.isStar(columns);
+
+        for (Map.Entry<String, Field> e : fields.entrySet()) {
+
+            if (star || columns.contains(SchemaPath.getSimplePath(e.getKey()))) {
+                allocate(root, e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    /**
+     * Create the vector of a field
+     *
+     * @param parent
+     * @param name
+     * @param field
+     */
+    private static void allocate(MapWriter parent, String name, Field field) {
+
+        if (field.type == null || field.conflict) return;
+
+        switch (field.type) {
+
+            case VARCHAR: parent.varChar(name); break;
+            case BIT: parent.bit(name); break;
+            case BIGINT: parent.bigInt(name); break;
+            case FLOAT8: parent.float8(name); break;
+
+            case MAP:
+
+                MapWriter map = parent.map(name);
+
+                for (Map.Entry<String, Field> e : field.children.entrySet()) {
+                    allocate(map, e.getKey(), e.getValue());
+                }
+
+                break;
+        }
+    }
+
+    /**
+     * Get the inferred type of a field
+     *
+     * @param path The names of the parent maps and of the field
+     * @return The type or null if the field is unknown, was always NULL or
+     * has values of different types
+     */
+    MinorType getType(String... path) {
+
+        Field field = getField(path);
+
+        return field == null || field.conflict ? null : field.type;
+    }
+
+    /**
+     * Check if a field was seen in the sample
+     *
+     * @param path The names of the parent maps and of the field
+     * @return
+     */
+    boolean hasField(String... path) {
+
+        return getField(path) != null;
+    }
+
+    private Field getField(String... path) {
+
+        Map<String, Field> current = fields;
+        Field field = null;
+
+        for (String name : path) {
+
+            if (current == null) return null;
+
+            field = current.get(name);
+
+            if (field == null) return null;
+
+            current = field.type == MinorType.MAP ? field.children : null;
+        }
+
+        return field;
+    }
+
+    /**
+     * Check if the schema is older than the given time to live
+     *
+     * @param ttl The time to live in milliseconds
+     * @return
+     */
+    public boolean isExpired(long ttl) {
+        return System.currentTimeMillis() - timestamp > ttl;
+    }
+
+    @Override
+    public String toString() {
+        return fields.toString();
+    }
+
+    /**
+     * An inferred field
+     */
+    private static class Field {
+
+        /**
+         * The type, null if unknown
+         */
+        private MinorType type;
+
+        /**
+         * If values of different types were seen
+         */
+        private boolean conflict;
+
+        /**
+         * The fields of a map
+         */
+        private final Map<String, Field> children = new LinkedHashMap<>();
+
+        private Field(MinorType type) {
+            this.type = type;
+        }
+
+        /**
+         * If the field has a fixed scalar type
+         *
+         * @return
+         */
+        private boolean isScalar() {
+            return !conflict && type != null && type != MinorType.MAP && type != MinorType.LIST;
+        }
+
+        @Override
+        public String toString() {
+            return conflict ? "ANY" : type == MinorType.MAP ? children.toString() : String.valueOf(type);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2015 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.apache.drill.source;
+
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+
+/**
+ * A source of records for the record reader. Every record is the raw JSON
+ * of a document or a query result row.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public interface CBRecordSource {
+
+    /**
+     * Get the next record. The caller owns the returned buffer and has to
+     * release it.
+     *
+     * @return The raw JSON of the record or null if there are no more records
+     */
+    ByteBuf next();
+
+    /**
+     * Get the document key of the record which was returned last
+     *
+     * @return The key or null if the record is no document
+     */
+    String key();
+
+    /**
+     * Stop reading and release all buffered records
+     */
+    void close();
+}
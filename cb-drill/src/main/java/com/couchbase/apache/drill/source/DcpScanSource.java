@@ -0,0 +1,562 @@
+/*
+ * Copyright 2015 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.apache.drill.source;
+
+import com.couchbase.apache.drill.checkpoint.DcpCheckpoint;
+import com.couchbase.apache.drill.checkpoint.DcpCheckpointStore;
+import com.couchbase.apache.drill.conn.DcpConnection;
+import com.couchbase.apache.drill.error.BaseRuntimeError;
+import com.couchbase.apache.drill.error.RecordReadError;
+import com.couchbase.apache.drill.partition.VBucketRange;
+import com.couchbase.client.core.ClusterFacade;
+import com.couchbase.client.core.message.CouchbaseResponse;
+import com.couchbase.client.core.message.ResponseStatus;
+import com.couchbase.client.core.message.dcp.DCPRequest;
+import com.couchbase.client.core.message.dcp.MutationMessage;
+import com.couchbase.client.core.message.dcp.SnapshotMarkerMessage;
+import com.couchbase.client.core.message.dcp.StreamRequestRequest;
+import com.couchbase.client.core.message.dcp.StreamRequestResponse;
+import com.couchbase.client.core.message.kv.FailoverObserveSeqnoResponse;
+import com.couchbase.client.core.message.kv.NoFailoverObserveSeqnoResponse;
+import com.couchbase.client.core.message.kv.ObserveSeqnoRequest;
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.log4j.Logger;
+import rx.Subscriber;
+
+/**
+ * Streams the documents of vBuckets via DCP
+ *
+ * For every vBucket a stream from sequence number 0 up to the current high
+ * sequence number is opened. Deletions are skipped.
+ *
+ * If checkpoints are given, then a vBucket is only streamed from the sequence
+ * number of its checkpoint on. A vBucket without a checkpoint or with another
+ * UUID, because it failed over in the meantime, is streamed completely. The
+ * high sequence numbers are staged as the new checkpoints once all changes
+ * were read. They replace the checkpoints only after every sub-scan of the
+ * query staged its checkpoints, see DcpCheckpointStore. A scan which was
+ * aborted or limited doesn't move the checkpoints.
+ *
+ * The client does not report the end of a stream, and mutations don't carry
+ * their sequence number. A vBucket is therefore finished if the snapshot
+ * which ends at or after the high sequence number was started and no message
+ * arrived for the idle timeout afterwards.
+ *
+ * The client of this version has no DCP flow control. It buffers the messages
+ * of an open stream without limit, regardless of how many of them were
+ * requested. So the memory of a sub-scan is only bounded by the number of
+ * streams which are open at the same time, and a slow reader may hold up to
+ * that many whole vBuckets. The buffer size limits how many bytes of
+ * documents are handed over to the reader's queue. Every stream requests its
+ * messages one by one and stops requesting as soon as the queued but not yet
+ * written documents exceed the buffer size. No further stream is opened then
+ * either. The bytes of a document are acknowledged when the record reader
+ * asks for the next record, which means that the document was written into
+ * the value vectors. Paused streams are resumed as soon as the
+ * acknowledgements freed enough buffer space.
+ *
+ * The server allows only one stream per vBucket and connection, and the
+ * client can neither end a stream early nor report its end. So the source
+ * owns its DCP connection and closes it once it's closed. This ends the
+ * streams which are still open on the server, e.g. because of a limit.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class DcpScanSource implements CBRecordSource {
+
+    private static final Logger LOG = Logger.getLogger(DcpScanSource.class.getName());
+
+    /**
+     * The DCP connection of this source
+     */
+    private final DcpConnection connection;
+
+    /**
+     * The core of the connection
+     */
+    private final ClusterFacade core;
+
+    /**
+     * The name of the bucket
+     */
+    private final String bucket;
+
+    /**
+     * The password of the bucket
+     */
+    private final String password;
+
+    /**
+     * How long a vBucket may be idle after its last snapshot was started, in
+     * milliseconds
+     */
+    private final long idleTimeout;
+
+    /**
+     * The max. number of bytes of queued but not yet written documents. The
+     * client buffers further messages of the open streams.
+     */
+    private final long bufferSize;
+
+    /**
+     * The max. number of streams which are open at the same time
+     */
+    private final int maxStreams;
+
+    /**
+     * The max. number of documents to emit, null if unlimited
+     */
+    private final Integer limit;
+
+    /**
+     * The checkpoints since which the changes are read, null if all
+     * documents are read
+     */
+    private final DcpCheckpointStore checkpoints;
+
+    /**
+     * The checkpoints which are reached once all changes were read
+     */
+    private final Map<Short, DcpCheckpoint> reached = new HashMap<>();
+
+    /**
+     * The vBuckets which are not yet streamed
+     */
+    private final Deque<Short> pending = new ArrayDeque<>();
+
+    /**
+     * The open streams
+     */
+    private final List<VBucketStream> active = new ArrayList<>();
+
+    /**
+     * The received mutations, or errors
+     */
+    private final LinkedBlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+
+    /**
+     * The bytes of the received but not yet acknowledged documents
+     */
+    private final AtomicLong buffered = new AtomicLong();
+
+    /**
+     * The streams which wait for buffer space
+     */
+    private final Queue<VBucketStream> paused = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The size of the last emitted document, to be acknowledged
+     */
+    private int unacknowledged;
+
+    /**
+     * The number of emitted documents
+     */
+    private int emitted;
+
+    /**
+     * If all documents were consumed
+     */
+    private boolean done;
+
+    /**
+     * The key of the last emitted document
+     */
+    private String key;
+
+    /**
+     * The constructor
+     *
+     * @param connection The connection, which is closed with the source
+     * @param bucket
+     * @param password
+     * @param vBuckets
+     * @param idleTimeout
+     * @param bufferSize
+     * @param maxStreams
+     * @param checkpoints The checkpoints or null
+     * @param limit
+     */
+    public DcpScanSource(DcpConnection connection, String bucket, String password, List<VBucketRange> vBuckets,
+            long idleTimeout, long bufferSize, int maxStreams, DcpCheckpointStore checkpoints, Integer limit) {
+
+        this.connection = connection;
+        this.core = connection.core();
+        this.bucket = bucket;
+        this.password = password == null ? "" : password;
+        this.idleTimeout = idleTimeout;
+        this.bufferSize = bufferSize;
+        this.maxStreams = maxStreams;
+        this.checkpoints = checkpoints;
+        this.limit = limit;
+
+        for (VBucketRange range : vBuckets) {
+
+            for (int vb = range.getStart(); vb < range.getEnd(); vb++) {
+                pending.add((short) vb);
+            }
+        }
+    }
+
+    @Override
+    public ByteBuf next() {
+
+        if (done) return null;
+
+        //The previous document was written
+        acknowledge();
+
+        if (limit != null && emitted >= limit) {
+            return finish();
+        }
+
+        try {
+
+            Object item;
+
+            while ((item = poll()) == null) {
+
+                if (active.isEmpty() && pending.isEmpty() && queue.isEmpty()) {
+
+                    if (checkpoints != null) {
+                        checkpoints.stage(reached);
+                    }
+
+                    return finish();
+                }
+            }
+
+            if (item instanceof Throwable) {
+                throw new IllegalStateException((Throwable) item);
+            }
+
+            MutationMessage mutation = (MutationMessage) item;
+
+            emitted++;
+            key = mutation.key();
+            unacknowledged = mutation.content().readableBytes();
+
+            return mutation.content();
+
+        } catch (InterruptedException e) {
+
+            Thread.currentThread().interrupt();
+            throw error(e);
+
+        } catch (BaseRuntimeError e) {
+
+            finish();
+            throw e;
+
+        } catch (RuntimeException e) {
+
+            throw error(e);
+        }
+    }
+
+    /**
+     * Replace the finished streams and wait for the next item
+     *
+     * @return The item or null if none arrived within the idle timeout
+     * @throws InterruptedException
+     */
+    private Object poll() throws InterruptedException {
+
+        long now = System.currentTimeMillis();
+
+        for (Iterator<VBucketStream> it = active.iterator(); it.hasNext();) {
+
+            VBucketStream stream = it.next();
+
+            if (stream.isFinished(now)) {
+
+                stream.close();
+                it.remove();
+            }
+        }
+
+        //A new stream would only be buffered by the client while the reader is behind
+        while (active.size() < maxStreams && !pending.isEmpty() && buffered.get() < bufferSize) {
+
+            VBucketStream stream = new VBucketStream(pending.poll());
+
+            if (stream.endSeqno > stream.startSeqno) {
+
+                active.add(stream);
+                stream.open();
+            }
+        }
+
+        if (active.isEmpty()) {
+            return queue.poll();
+        }
+
+        return queue.poll(idleTimeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Free the buffer space of the last emitted document
+     */
+    private void acknowledge() {
+
+        if (unacknowledged > 0) {
+
+            buffered.addAndGet(-unacknowledged);
+            unacknowledged = 0;
+            resume();
+        }
+    }
+
+    /**
+     * Resume paused streams while there is buffer space
+     */
+    private void resume() {
+
+        VBucketStream stream;
+
+        while (buffered.get() < bufferSize && (stream = paused.poll()) != null) {
+            stream.resume();
+        }
+    }
+
+    private ByteBuf finish() {
+
+        done = true;
+        close();
+
+        return null;
+    }
+
+    private RecordReadError error(Exception e) {
+
+        done = true;
+        close();
+
+        RecordReadError err = new RecordReadError(e, bucket);
+        LOG.error(err.toString());
+
+        return err;
+    }
+
+    @Override
+    public String key() {
+
+        return key;
+    }
+
+    @Override
+    public void close() {
+
+        for (VBucketStream stream : active) {
+            stream.close();
+        }
+
+        active.clear();
+        paused.clear();
+
+        Object item;
+
+        while ((item = queue.poll()) != null) {
+
+            if (item instanceof MutationMessage) {
+                ((MutationMessage) item).content().release();
+            }
+        }
+
+        //Ends the streams on the server, the client can't close them one by one
+        connection.close();
+    }
+
+    /**
+     * The stream of one vBucket
+     */
+    private class VBucketStream extends Subscriber<DCPRequest> {
+
+        private final short vBucket;
+
+        /**
+         * The UUID of the vBucket
+         */
+        private long uuid;
+
+        /**
+         * The sequence number after which the stream starts
+         */
+        private long startSeqno;
+
+        /**
+         * The high sequence number when the stream was opened
+         */
+        private long endSeqno;
+
+        /**
+         * If the snapshot which contains the high sequence number was started
+         */
+        private volatile boolean lastSnapshot;
+
+        /**
+         * If the stream was completed by the client
+         */
+        private volatile boolean completed;
+
+        /**
+         * If the stream waits for buffer space
+         */
+        private volatile boolean waiting;
+
+        /**
+         * When the last message arrived or the stream was resumed
+         */
+        private volatile long lastActivity;
+
+        VBucketStream(short vBucket) {
+
+            this.vBucket = vBucket;
+
+            ObserveSeqnoRequest request = new ObserveSeqnoRequest(0, true, (short) 0, bucket, password);
+            request.partition(vBucket);
+
+            CouchbaseResponse resp = core.<CouchbaseResponse>send(request).toBlocking().single();
+
+            if (resp instanceof NoFailoverObserveSeqnoResponse) {
+
+                this.uuid = ((NoFailoverObserveSeqnoResponse) resp).vbucketUUID();
+                this.endSeqno = ((NoFailoverObserveSeqnoResponse) resp).currentSeqNo();
+
+            } else if (resp instanceof FailoverObserveSeqnoResponse) {
+
+                this.uuid = ((FailoverObserveSeqnoResponse) resp).newVbucketUUID();
+                this.endSeqno = ((FailoverObserveSeqnoResponse) resp).currentSeqNo();
+
+            } else {
+
+                throw new IllegalStateException("Could not observe vBucket " + vBucket + ": " + resp.status());
+            }
+
+            if (checkpoints != null) {
+
+                DcpCheckpoint last = checkpoints.get(vBucket);
+
+                if (last != null && last.getUuid() == uuid && last.getSeqno() <= endSeqno) {
+                    this.startSeqno = last.getSeqno();
+                } else if (last != null) {
+                    LOG.debug("vBucket " + vBucket + " failed over since " + last + ", streaming it completely");
+                }
+
+                reached.put(vBucket, new DcpCheckpoint(uuid, endSeqno));
+            }
+        }
+
+        void open() {
+
+            StreamRequestResponse resp = core.<StreamRequestResponse>send(
+                    new StreamRequestRequest(vBucket, uuid, startSeqno, endSeqno, startSeqno, startSeqno, bucket, password))
+                    .toBlocking().single();
+
+            if (resp.status() != ResponseStatus.SUCCESS) {
+                throw new IllegalStateException("Could not stream vBucket " + vBucket + ": " + resp.status());
+            }
+
+            lastActivity = System.currentTimeMillis();
+
+            resp.stream().subscribe(this);
+        }
+
+        @Override
+        public void onStart() {
+
+            request(1);
+        }
+
+        @Override
+        public void onNext(DCPRequest msg) {
+
+            lastActivity = System.currentTimeMillis();
+
+            if (msg instanceof SnapshotMarkerMessage) {
+
+                if (((SnapshotMarkerMessage) msg).endSequenceNumber() >= endSeqno) {
+                    lastSnapshot = true;
+                }
+
+            } else if (msg instanceof MutationMessage) {
+
+                buffered.addAndGet(((MutationMessage) msg).content().readableBytes());
+                queue.add(msg);
+            }
+
+            //Deletions are not emitted
+
+            if (buffered.get() < bufferSize) {
+
+                request(1);
+
+            } else {
+
+                waiting = true;
+                paused.add(this);
+
+                //The reader might have freed the space in the meantime
+                resume();
+            }
+        }
+
+        @Override
+        public void onError(Throwable e) {
+
+            queue.add(e);
+        }
+
+        @Override
+        public void onCompleted() {
+
+            completed = true;
+        }
+
+        void resume() {
+
+            lastActivity = System.currentTimeMillis();
+            waiting = false;
+            request(1);
+        }
+
+        boolean isFinished(long now) {
+
+            return completed || (lastSnapshot && !waiting && now - lastActivity >= idleTimeout);
+        }
+
+        /**
+         * Stop receiving the messages of the stream. The stream itself ends
+         * with the connection.
+         */
+        void close() {
+
+            unsubscribe();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2015 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.apache.drill.source;
+
+import com.couchbase.apache.drill.n1ql.N1qlUtil;
+import com.couchbase.apache.drill.stats.BucketStatsCache;
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+import com.couchbase.client.deps.io.netty.buffer.Unpooled;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.drill.common.expression.SchemaPath;
+import org.apache.log4j.Logger;
+
+/**
+ * Emits the number of documents of a bucket as one record
+ *
+ * The item count is taken from the current statistics of the bucket, so no
+ * document is read. Every column of the record holds the count.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class ItemCountSource implements CBRecordSource {
+
+    private static final Logger LOG = Logger.getLogger(ItemCountSource.class.getName());
+
+    /**
+     * The statistics of the buckets
+     */
+    private final BucketStatsCache stats;
+
+    /**
+     * The bucket to count
+     */
+    private final String bucket;
+
+    /**
+     * The columns of the record
+     */
+    private final List<SchemaPath> columns;
+
+    /**
+     * If the record was emitted
+     */
+    private boolean done;
+
+    /**
+     * The constructor
+     *
+     * @param stats
+     * @param bucket
+     * @param columns
+     */
+    public ItemCountSource(BucketStatsCache stats, String bucket, List<SchemaPath> columns) {
+
+        this.stats = stats;
+        this.bucket = bucket;
+        this.columns = columns;
+    }
+
+    @Override
+    public ByteBuf next() {
+
+        if (done) return null;
+
+        done = true;
+
+        long count = stats.getCurrentStats(bucket).getItemCount();
+
+        LOG.debug("count = " + count);
+
+        List<String> fields = new ArrayList<>(columns.size());
+
+        for (SchemaPath col : columns) {
+            fields.add(N1qlUtil.string(col.getRootSegment().getPath()) + ":" + count);
+        }
+
+        return Unpooled.wrappedBuffer(("{" + String.join(",", fields) + "}").getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public String key() {
+
+        return null;
+    }
+
+    @Override
+    public void close() {
+
+        //Nothing is buffered
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2015 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.apache.drill.source;
+
+import com.couchbase.apache.drill.error.RecordReadError;
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+import com.couchbase.client.deps.io.netty.buffer.Unpooled;
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.BinaryDocument;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import org.apache.log4j.Logger;
+import rx.Observable;
+
+/**
+ * Scans the documents whose keys are listed by a query
+ *
+ * The keys are listed by a N1QL source which only covers the range of keys,
+ * or of an indexed field, which was assigned to this scan. So every document
+ * is listed by exactly one scan. Only the key field of a row is parsed. The
+ * documents are then fetched in batches as binary documents, so the body is
+ * never decoded into a String or a JsonObject. No more gets than the lookup
+ * concurrency are in flight at the same time. If a limit was pushed down then
+ * no more documents than needed are fetched. If only the keys are needed, then
+ * no document is fetched at all. An empty document is emitted per key
+ * instead.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class KeyListScanSource implements CBRecordSource {
+
+    private static final Logger LOG = Logger.getLogger(KeyListScanSource.class.getName());
+
+    /**
+     * The body which is emitted for every key if only the keys are read
+     */
+    private static final byte[] EMPTY_DOC = {'{', '}'};
+
+    /**
+     * The bucket to scan
+     */
+    private final Bucket bucket;
+
+    /**
+     * The rows which contain the document keys
+     */
+    private final CBRecordSource keys;
+
+    /**
+     * The number of documents which are fetched at once
+     */
+    private final int batchSize;
+
+    /**
+     * The max. number of gets which are in flight at the same time
+     */
+    private final int concurrency;
+
+    /**
+     * If only the keys are read
+     */
+    private final boolean keysOnly;
+
+    /**
+     * The max. number of documents to emit, null if unlimited
+     */
+    private final Integer limit;
+
+    /**
+     * The number of emitted documents
+     */
+    private int emitted;
+
+    /**
+     * If all keys were listed
+     */
+    private boolean listed;
+
+    /**
+     * The fetched but not yet consumed documents
+     */
+    private final Deque<BinaryDocument> docs = new ArrayDeque<>();
+
+    /**
+     * The key of the last emitted document
+     */
+    private String key;
+
+    /**
+     * The constructor
+     *
+     * @param bucket
+     * @param keys The rows which contain the document keys
+     * @param batchSize
+     * @param concurrency The max. number of concurrent gets
+     * @param keysOnly
+     * @param limit
+     */
+    public KeyListScanSource(Bucket bucket, CBRecordSource keys, int batchSize, int concurrency, boolean keysOnly, Integer limit) {
+
+        this.bucket = bucket;
+        this.keys = keys;
+        this.batchSize = batchSize;
+        this.concurrency = concurrency;
+        this.keysOnly = keysOnly;
+        this.limit = limit;
+    }
+
+    @Override
+    public ByteBuf next() {
+
+        if (limit != null && emitted >= limit) return null;
+
+        try {
+
+            while (docs.isEmpty() && !listed) {
+                fetch();
+            }
+
+        } catch (IOException | RuntimeException e) {
+
+            RecordReadError err = new RecordReadError(e, bucket.name());
+            LOG.error(err.toString());
+            throw err;
+        }
+
+        BinaryDocument doc = docs.poll();
+
+        if (doc == null) return null;
+
+        emitted++;
+        key = doc.id();
+
+        return doc.content();
+    }
+
+    /**
+     * Fetch the documents of the next batch of keys
+     *
+     * @throws IOException If a row has no document key
+     */
+    private void fetch() throws IOException {
+
+        int size = limit == null ? batchSize : Math.min(batchSize, limit - emitted);
+
+        List<String> batch = new ArrayList<>(size);
+
+        while (batch.size() < size) {
+
+            ByteBuf row = keys.next();
+
+            if (row == null) {
+
+                listed = true;
+                break;
+            }
+
+            try {
+
+                batch.add(N1qlKeyRangeSource.parseKey(row));
+
+            } finally {
+
+                row.release();
+            }
+        }
+
+        if (keysOnly) {
+
+            for (String k : batch) {
+                docs.add(BinaryDocument.create(k, Unpooled.wrappedBuffer(EMPTY_DOC)));
+            }
+
+        } else if (!batch.isEmpty()) {
+
+            //Documents which were deleted in the meantime are just not emitted
+            docs.addAll(Observable.from(batch)
+                    .flatMap(k -> bucket.async().get(k, BinaryDocument.class), concurrency)
+                    .toList()
+                    .toBlocking()
+                    .single());
+        }
+    }
+
+    @Override
+    public String key() {
+
+        return key;
+    }
+
+    @Override
+    public void close() {
+
+        //Stops the running key listing
+        keys.close();
+
+        for (BinaryDocument doc : docs) {
+            doc.content().release();
+        }
+
+        docs.clear();
+    }
+}
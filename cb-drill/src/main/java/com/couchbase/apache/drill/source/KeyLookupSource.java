@@ -0,0 +1,212 @@
+/*
+ * Copyright 2015 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.apache.drill.source;
+
+import com.couchbase.apache.drill.error.RecordReadError;
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+import com.couchbase.client.java.AsyncBucket;
+import com.couchbase.client.java.document.BinaryDocument;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import org.apache.log4j.Logger;
+import rx.Observable;
+import rx.Subscription;
+
+/**
+ * Fetches the documents with the given keys
+ *
+ * All gets are issued asynchronously with a bounded number of gets in flight.
+ * The documents are handed over as soon as they arrive, so the order of the
+ * keys is not preserved. Keys without a document are skipped.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class KeyLookupSource implements CBRecordSource {
+
+    private static final Logger LOG = Logger.getLogger(KeyLookupSource.class.getName());
+
+    /**
+     * Marks the end of the result
+     */
+    private static final Object END = new Object();
+
+    /**
+     * The bucket to read from
+     */
+    private final AsyncBucket bucket;
+
+    /**
+     * The keys to fetch
+     */
+    private final List<String> keys;
+
+    /**
+     * The max. number of concurrent gets
+     */
+    private final int concurrency;
+
+    /**
+     * The max. number of documents to fetch, null if unlimited
+     */
+    private final Integer limit;
+
+    /**
+     * The received documents, followed by END or by an error
+     */
+    private final LinkedBlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+
+    /**
+     * The subscription to the documents
+     */
+    private Subscription subscription;
+
+    /**
+     * If all documents were consumed
+     */
+    private boolean done;
+
+    /**
+     * If the source was closed. Gets which are still in flight may deliver
+     * their documents afterwards.
+     */
+    private volatile boolean closed;
+
+    /**
+     * The key of the last emitted document
+     */
+    private String key;
+
+    /**
+     * The constructor
+     *
+     * @param bucket
+     * @param keys
+     * @param concurrency
+     * @param limit
+     */
+    public KeyLookupSource(AsyncBucket bucket, List<String> keys, int concurrency, Integer limit) {
+
+        this.bucket = bucket;
+        this.keys = keys;
+        this.concurrency = concurrency;
+        this.limit = limit;
+    }
+
+    @Override
+    public ByteBuf next() {
+
+        if (done) return null;
+
+        if (subscription == null) start();
+
+        Object item;
+
+        try {
+
+            item = queue.take();
+
+        } catch (InterruptedException e) {
+
+            Thread.currentThread().interrupt();
+            throw new RecordReadError(e, bucket.name());
+        }
+
+        if (item == END) {
+
+            done = true;
+            return null;
+        }
+
+        if (item instanceof Exception) {
+
+            done = true;
+            RecordReadError err = new RecordReadError((Exception) item, bucket.name());
+            LOG.error(err.toString());
+            throw err;
+        }
+
+        BinaryDocument doc = (BinaryDocument) item;
+        key = doc.id();
+
+        return doc.content();
+    }
+
+    /**
+     * Issue the gets
+     */
+    private void start() {
+
+        LOG.debug("Fetching " + keys.size() + " keys with a concurrency of " + concurrency);
+
+        Observable<BinaryDocument> docs = Observable.from(keys)
+                .flatMap(k -> bucket.get(k, BinaryDocument.class), concurrency);
+
+        if (limit != null) {
+            docs = docs.take(limit);
+        }
+
+        subscription = docs.subscribe(
+                this::receive,
+                e -> queue.add(e instanceof Exception ? e : new RuntimeException(e)),
+                () -> queue.add(END));
+    }
+
+    /**
+     * Queue a received document, or release it if the source was closed
+     *
+     * @param doc
+     */
+    private void receive(BinaryDocument doc) {
+
+        queue.add(doc);
+
+        //The document might have arrived after close() drained the queue
+        if (closed) drain();
+    }
+
+    @Override
+    public String key() {
+
+        return key;
+    }
+
+    @Override
+    public void close() {
+
+        closed = true;
+
+        if (subscription != null) {
+            subscription.unsubscribe();
+        }
+
+        drain();
+    }
+
+    /**
+     * Release the queued documents
+     */
+    private void drain() {
+
+        Object item;
+
+        while ((item = queue.poll()) != null) {
+
+            if (item instanceof BinaryDocument) {
+                ((BinaryDocument) item).content().release();
+            }
+        }
+    }
+}
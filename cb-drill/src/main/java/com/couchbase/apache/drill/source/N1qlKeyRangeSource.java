@@ -0,0 +1,297 @@
+/*
+ * Copyright 2015 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.apache.drill.source;
+
+import com.couchbase.apache.drill.error.RecordReadError;
+import com.couchbase.apache.drill.n1ql.N1qlPreparedCache;
+import com.couchbase.apache.drill.n1ql.N1qlStatementBuilder;
+import com.couchbase.apache.drill.n1ql.N1qlUtil;
+import com.couchbase.apache.drill.partition.KeyRange;
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+import com.couchbase.client.deps.io.netty.buffer.ByteBufInputStream;
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import org.apache.log4j.Logger;
+
+/**
+ * Reads the result rows of a N1QL query for a range of document keys
+ *
+ * The rows are read in pages which are ordered by the document key. Every
+ * page continues after the key of the last row of the previous page, so the
+ * primary index is never scanned from the start of the range again. Only the
+ * last row of a full page is parsed to get its key. A page with less rows
+ * than requested is the last one.
+ *
+ * The keys and the page size are passed as named parameters. So all pages of
+ * all ranges execute one of a few statements, which can be prepared once.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class N1qlKeyRangeSource implements CBRecordSource {
+
+    private static final Logger LOG = Logger.getLogger(N1qlKeyRangeSource.class.getName());
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * The bucket to query
+     */
+    private final Bucket bucket;
+
+    /**
+     * The password of the bucket
+     */
+    private final String password;
+
+    /**
+     * The SELECT list, including the document key
+     */
+    private final String select;
+
+    /**
+     * The N1QL condition, null if all documents of the range are read
+     */
+    private final String where;
+
+    /**
+     * The range of document keys
+     */
+    private final KeyRange range;
+
+    /**
+     * The max. number of rows per page
+     */
+    private final int pageSize;
+
+    /**
+     * The max. number of rows to emit, null if unlimited
+     */
+    private final Integer limit;
+
+    /**
+     * The prepared statements, null if the pages are queried ad hoc
+     */
+    private final N1qlPreparedCache cache;
+
+    /**
+     * The current page, null if the next one has to be requested
+     */
+    private N1qlScanSource page;
+
+    /**
+     * The max. number of rows of the current page
+     */
+    private int pageLimit;
+
+    /**
+     * The number of rows of the current page which were emitted
+     */
+    private int pageRows;
+
+    /**
+     * The key of the last row of the previous page, null if on the first page
+     */
+    private String last;
+
+    /**
+     * The number of emitted rows
+     */
+    private int emitted;
+
+    /**
+     * If all rows were read
+     */
+    private boolean done;
+
+    /**
+     * The constructor
+     *
+     * @param bucket
+     * @param password
+     * @param select
+     * @param where
+     * @param range
+     * @param pageSize
+     * @param limit
+     * @param cache The prepared statements or null
+     */
+    public N1qlKeyRangeSource(Bucket bucket, String password, String select, String where, KeyRange range, int pageSize, Integer limit, N1qlPreparedCache cache) {
+
+        this.bucket = bucket;
+        this.password = password;
+        this.select = select.contains(N1qlUtil.KEY_SELECT) ? select : select + ", " + N1qlUtil.KEY_SELECT;
+        this.where = where;
+        this.range = range;
+        this.pageSize = pageSize;
+        this.limit = limit;
+        this.cache = cache;
+    }
+
+    @Override
+    public ByteBuf next() {
+
+        while (!done) {
+
+            if (page == null) {
+
+                pageLimit = limit == null ? pageSize : Math.min(pageSize, limit - emitted);
+                pageRows = 0;
+
+                if (pageLimit <= 0) {
+
+                    done = true;
+                    return null;
+                }
+
+                page = new N1qlScanSource(bucket, password, statement(), params(), cache);
+            }
+
+            ByteBuf row = page.next();
+
+            if (row != null) {
+
+                pageRows++;
+                emitted++;
+
+                if (pageRows == pageLimit) {
+                    last = keyOf(row);
+                }
+
+                return row;
+            }
+
+            page.close();
+            page = null;
+
+            done = pageRows < pageLimit;
+        }
+
+        return null;
+    }
+
+    /**
+     * Build the statement of the next page
+     *
+     * @return
+     */
+    private String statement() {
+
+        return new N1qlStatementBuilder(bucket.name())
+                .select(select)
+                .where(where)
+                .where(range.getStart() == null ? null : N1qlUtil.KEY + " >= $start")
+                .where(range.getEnd() == null ? null : N1qlUtil.KEY + " < $end")
+                .where(last == null ? null : N1qlUtil.KEY + " > $last")
+                .orderBy(N1qlUtil.KEY)
+                .limit("$limit")
+                .build();
+    }
+
+    /**
+     * The parameters of the statement of the next page
+     *
+     * @return
+     */
+    private JsonObject params() {
+
+        JsonObject params = JsonObject.create().put("limit", pageLimit);
+
+        if (range.getStart() != null) params.put("start", range.getStart());
+        if (range.getEnd() != null) params.put("end", range.getEnd());
+        if (last != null) params.put("last", last);
+
+        return params;
+    }
+
+    /**
+     * Get the document key of a row without consuming the row
+     *
+     * @param row
+     * @return
+     */
+    private String keyOf(ByteBuf row) {
+
+        try {
+
+            return parseKey(row);
+
+        } catch (IOException e) {
+
+            row.release();
+            done = true;
+
+            RecordReadError err = new RecordReadError(e, bucket.name());
+            LOG.error(err.toString());
+            throw err;
+        }
+    }
+
+    /**
+     * Read the document key field of a row without consuming the row. Only
+     * the tokens up to the key are parsed, no tree is built.
+     *
+     * @param row
+     * @return
+     * @throws IOException If the row has no document key
+     */
+    static String parseKey(ByteBuf row) throws IOException {
+
+        try (JsonParser parser = MAPPER.getFactory().createParser(new ByteBufInputStream(row.duplicate()))) {
+
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("The row is no JSON object");
+            }
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+
+                String name = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+
+                if (name.equals(N1qlUtil.KEY_FIELD) && value == JsonToken.VALUE_STRING) {
+                    return parser.getText();
+                }
+
+                parser.skipChildren();
+            }
+        }
+
+        throw new IOException("The row has no document key");
+    }
+
+    /**
+     * The key is selected as a field of the row
+     *
+     * @return
+     */
+    @Override
+    public String key() {
+
+        return null;
+    }
+
+    @Override
+    public void close() {
+
+        if (page != null) {
+            page.close();
+            page = null;
+        }
+    }
+}
@@ -0,0 +1,368 @@
+/*
+ * Copyright 2015 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.apache.drill.source;
+
+import com.couchbase.apache.drill.error.RecordReadError;
+import com.couchbase.apache.drill.n1ql.N1qlPreparedCache;
+import com.couchbase.client.core.message.query.GenericQueryRequest;
+import com.couchbase.client.core.message.query.GenericQueryResponse;
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.query.N1qlParams;
+import com.couchbase.client.java.query.N1qlQuery;
+import com.couchbase.client.java.query.PreparedN1qlQuery;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import org.apache.log4j.Logger;
+import rx.Observable;
+import rx.Subscriber;
+
+/**
+ * Reads the result rows of a N1QL query
+ *
+ * The query is sent via the core API. This way the rows are received as raw
+ * JSON buffers instead of being decoded into JsonObjects.
+ *
+ * The rows are consumed as a stream. Only a fixed number of rows is requested
+ * up front, and every row which is taken by the reader requests the next one.
+ * So no more than this number of rows is in flight between the client and
+ * the reader, and the first rows can be written into a batch before the
+ * query completed. This doesn't bound the memory of a large result: the
+ * client buffers all rows which it received from the query service, however
+ * many were requested. A large result should therefore be split up, e.g.
+ * into key ranges, or be paged.
+ *
+ * If a cache of prepared statements is given, then the statement is executed
+ * via its cached plan. A plan which the query service doesn't know (anymore)
+ * is removed from the cache, and the statement is prepared and executed once
+ * again.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class N1qlScanSource implements CBRecordSource {
+
+    private static final Logger LOG = Logger.getLogger(N1qlScanSource.class.getName());
+
+    /**
+     * Marks the end of the result
+     */
+    private static final Object END = new Object();
+
+    /**
+     * The max. number of rows which are requested but not yet taken by the
+     * reader. The client may buffer more rows.
+     */
+    private static final int PREFETCH = 128;
+
+    /**
+     * The error codes of the query service which mean that the prepared
+     * statement is unknown or can't be decoded
+     */
+    private static final List<Integer> STALE_PLAN_CODES = Arrays.asList(4040, 4050, 4070);
+
+    /**
+     * The bucket to query
+     */
+    private final Bucket bucket;
+
+    /**
+     * The password of the bucket
+     */
+    private final String password;
+
+    /**
+     * The statement to execute
+     */
+    private final String statement;
+
+    /**
+     * The named parameters of the statement, null if it has none
+     */
+    private final JsonObject params;
+
+    /**
+     * The prepared statements, null if the statement is executed ad hoc
+     */
+    private final N1qlPreparedCache cache;
+
+    /**
+     * The received rows, followed by END or by an error
+     */
+    private final LinkedBlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+
+    /**
+     * The subscriber of the result rows
+     */
+    private RowSubscriber subscriber;
+
+    /**
+     * If the whole result was consumed
+     */
+    private boolean done;
+
+    /**
+     * If the statement was already prepared again
+     */
+    private boolean reprepared;
+
+    /**
+     * If a row was already taken
+     */
+    private boolean taken;
+
+    /**
+     * The constructor
+     *
+     * @param bucket
+     * @param password
+     * @param statement
+     */
+    public N1qlScanSource(Bucket bucket, String password, String statement) {
+
+        this(bucket, password, statement, null, null);
+    }
+
+    /**
+     * The constructor
+     *
+     * @param bucket
+     * @param password
+     * @param statement
+     * @param params The named parameters or null
+     * @param cache The prepared statements or null
+     */
+    public N1qlScanSource(Bucket bucket, String password, String statement, JsonObject params, N1qlPreparedCache cache) {
+
+        this.bucket = bucket;
+        this.password = password == null ? "" : password;
+        this.statement = statement;
+        this.params = params;
+        this.cache = cache;
+    }
+
+    @Override
+    public ByteBuf next() {
+
+        if (done) return null;
+
+        if (subscriber == null) start();
+
+        Object item;
+
+        try {
+
+            item = queue.take();
+
+        } catch (InterruptedException e) {
+
+            Thread.currentThread().interrupt();
+            throw new RecordReadError(e, bucket.name());
+        }
+
+        if (item == END) {
+
+            done = true;
+            return null;
+        }
+
+        if (item instanceof StalePlanException && cache != null && !reprepared && !taken) {
+
+            LOG.debug("The prepared statement is unknown, preparing it again: " + statement);
+
+            reprepared = true;
+            cache.invalidate(bucket, statement);
+
+            //The failed query is replaced by a new one
+            subscriber.unsubscribe();
+            subscriber = null;
+
+            return next();
+        }
+
+        if (item instanceof Exception) {
+
+            done = true;
+            RecordReadError err = new RecordReadError((Exception) item, bucket.name());
+            LOG.error(err.toString());
+            throw err;
+        }
+
+        subscriber.requestNext();
+        taken = true;
+
+        return (ByteBuf) item;
+    }
+
+    /**
+     * Send the query and subscribe to the rows. The errors of the query are
+     * checked after the last row was received.
+     */
+    private void start() {
+
+        LOG.debug("Executing: " + statement + (params == null ? "" : " with " + params));
+
+        GenericQueryRequest request = GenericQueryRequest.jsonQuery(query().n1ql().toString(), bucket.name(), password);
+
+        subscriber = new RowSubscriber();
+
+        bucket.core()
+                .<GenericQueryResponse>send(request)
+                .flatMap(resp -> resp.rows().concatWith(errors(resp)))
+                .subscribe(subscriber);
+    }
+
+    /**
+     * Build the query, via the cached plan if statements are prepared
+     *
+     * @return
+     */
+    private N1qlQuery query() {
+
+        if (cache != null) {
+
+            return params == null
+                    ? new PreparedN1qlQuery(cache.get(bucket, statement), N1qlParams.build())
+                    : new PreparedN1qlQuery(cache.get(bucket, statement), params, N1qlParams.build());
+        }
+
+        return params == null ? N1qlQuery.simple(statement) : N1qlQuery.parameterized(statement, params);
+    }
+
+    /**
+     * Turn the errors of the query into an error notification
+     *
+     * @param resp
+     * @return
+     */
+    private static Observable<ByteBuf> errors(GenericQueryResponse resp) {
+
+        return resp.errors()
+                .map(buf -> {
+                    String msg = buf.toString(StandardCharsets.UTF_8);
+                    buf.release();
+                    return msg;
+                })
+                .toList()
+                .flatMap((List<String> errors) -> errors.isEmpty()
+                        ? Observable.<ByteBuf>empty()
+                        : Observable.<ByteBuf>error(isStalePlan(errors)
+                                ? new StalePlanException(errors)
+                                : new IllegalStateException("The query failed: " + errors)));
+    }
+
+    /**
+     * Check if the query failed because the prepared statement is unknown
+     *
+     * @param errors
+     * @return
+     */
+    private static boolean isStalePlan(List<String> errors) {
+
+        for (String error : errors) {
+
+            try {
+
+                if (STALE_PLAN_CODES.contains(JsonObject.fromJson(error).getInt("code"))) return true;
+
+            } catch (RuntimeException e) {
+
+                LOG.debug("Could not parse the error " + error);
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * The key is selected as a field of the row if needed
+     *
+     * @return
+     */
+    @Override
+    public String key() {
+
+        return null;
+    }
+
+    @Override
+    public void close() {
+
+        if (subscriber != null) {
+            subscriber.unsubscribe();
+        }
+
+        Object item;
+
+        while ((item = queue.poll()) != null) {
+
+            if (item instanceof ByteBuf) {
+                ((ByteBuf) item).release();
+            }
+        }
+    }
+
+    /**
+     * The query failed because the prepared statement is unknown
+     */
+    private static class StalePlanException extends IllegalStateException {
+
+        StalePlanException(List<String> errors) {
+
+            super("The prepared statement is unknown: " + errors);
+        }
+    }
+
+    /**
+     * Queues the rows and requests them in steps
+     */
+    private class RowSubscriber extends Subscriber<ByteBuf> {
+
+        @Override
+        public void onStart() {
+
+            request(PREFETCH);
+        }
+
+        @Override
+        public void onNext(ByteBuf row) {
+
+            queue.add(row);
+        }
+
+        @Override
+        public void onError(Throwable e) {
+
+            queue.add(e instanceof Exception ? e : new RuntimeException(e));
+        }
+
+        @Override
+        public void onCompleted() {
+
+            queue.add(END);
+        }
+
+        /**
+         * Replace a row which was taken
+         */
+        void requestNext() {
+
+            request(1);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2015 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.apache.drill.source;
+
+import com.couchbase.apache.drill.error.ViewReadError;
+import com.couchbase.apache.drill.n1ql.N1qlUtil;
+import com.couchbase.apache.drill.view.ViewUtil;
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+import com.couchbase.client.deps.io.netty.buffer.Unpooled;
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.view.ViewRow;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.drill.common.expression.SchemaPath;
+import org.apache.log4j.Logger;
+
+/**
+ * Emits the reduced value of a whole view as one record
+ *
+ * The view engine keeps the reduced values in its index, so no row and no
+ * document is read. Every column of the record holds the value. A view
+ * without rows has no reduced value, it's emitted as 0.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class ViewReduceSource implements CBRecordSource {
+
+    private static final Logger LOG = Logger.getLogger(ViewReduceSource.class.getName());
+
+    /**
+     * The bucket of the view
+     */
+    private final Bucket bucket;
+
+    /**
+     * The view as design/view
+     */
+    private final String view;
+
+    /**
+     * The staleness as ok, false or update_after
+     */
+    private final String stale;
+
+    /**
+     * The columns of the record
+     */
+    private final List<SchemaPath> columns;
+
+    /**
+     * If the record was emitted
+     */
+    private boolean done;
+
+    /**
+     * The constructor
+     *
+     * @param bucket
+     * @param view
+     * @param stale
+     * @param columns
+     */
+    public ViewReduceSource(Bucket bucket, String view, String stale, List<SchemaPath> columns) {
+
+        this.bucket = bucket;
+        this.view = view;
+        this.stale = stale;
+        this.columns = columns;
+    }
+
+    @Override
+    public ByteBuf next() {
+
+        if (done) return null;
+
+        done = true;
+
+        List<ViewRow> rows;
+
+        try {
+
+            rows = ViewUtil.rows(bucket, ViewUtil.query(view, stale).reduce(true));
+
+        } catch (RuntimeException e) {
+
+            ViewReadError err = new ViewReadError(e, bucket.name(), view);
+            LOG.error(err.toString());
+            throw err;
+        }
+
+        Object value = rows.isEmpty() ? 0 : rows.get(0).value();
+
+        LOG.debug("value = " + value);
+
+        List<String> fields = new ArrayList<>(columns.size());
+
+        for (SchemaPath col : columns) {
+            fields.add(N1qlUtil.string(col.getRootSegment().getPath()) + ":" + ViewUtil.toJson(value));
+        }
+
+        return Unpooled.wrappedBuffer(("{" + String.join(",", fields) + "}").getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public String key() {
+
+        return null;
+    }
+
+    @Override
+    public void close() {
+
+        //Nothing is buffered
+    }
+}
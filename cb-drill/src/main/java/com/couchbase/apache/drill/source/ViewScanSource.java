@@ -0,0 +1,293 @@
+/*
+ * Copyright 2015 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.apache.drill.source;
+
+import com.couchbase.apache.drill.error.ViewReadError;
+import com.couchbase.apache.drill.partition.ViewRange;
+import com.couchbase.apache.drill.view.ViewUtil;
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+import com.couchbase.client.deps.io.netty.buffer.Unpooled;
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.view.ViewQuery;
+import com.couchbase.client.java.view.ViewRow;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import org.apache.log4j.Logger;
+
+/**
+ * Reads the documents of the rows of a view for a range of view keys
+ *
+ * The rows are read in pages which are ordered by the view key and by the
+ * document key. Every page continues after the last row of the previous page
+ * via startkey and startkey_docid, so the view is never scanned from the
+ * start of the range again. The documents of a page are fetched via the
+ * Key-Value API. A page with less rows than requested is the last one.
+ *
+ * A document is emitted once per row which it emitted into the view.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class ViewScanSource implements CBRecordSource {
+
+    private static final Logger LOG = Logger.getLogger(ViewScanSource.class.getName());
+
+    private static final byte[] EMPTY_DOC = {'{', '}'};
+
+    /**
+     * The bucket to read from
+     */
+    private final Bucket bucket;
+
+    /**
+     * The view as design/view
+     */
+    private final String view;
+
+    /**
+     * The range of view keys
+     */
+    private final ViewRange range;
+
+    /**
+     * The max. number of rows per page
+     */
+    private final int pageSize;
+
+    /**
+     * The staleness as ok, false or update_after
+     */
+    private final String stale;
+
+    /**
+     * The max. number of concurrent gets
+     */
+    private final int concurrency;
+
+    /**
+     * If only the document keys are read
+     */
+    private final boolean keysOnly;
+
+    /**
+     * The max. number of records to emit, null if unlimited
+     */
+    private final Integer limit;
+
+    /**
+     * The documents of the current page, null if not fetching documents
+     */
+    private KeyLookupSource docs;
+
+    /**
+     * The document keys of the current page, null if the next page has to be
+     * read
+     */
+    private Iterator<String> ids;
+
+    /**
+     * The view key of the last row of the previous page
+     */
+    private Object lastKey;
+
+    /**
+     * The document key of the last row of the previous page, null if on the
+     * first page
+     */
+    private String lastId;
+
+    /**
+     * The number of rows which were read
+     */
+    private int rowsRead;
+
+    /**
+     * If the current page is the last one
+     */
+    private boolean lastPage;
+
+    /**
+     * The number of emitted records
+     */
+    private int emitted;
+
+    /**
+     * The key of the last emitted record
+     */
+    private String key;
+
+    /**
+     * If all records were read
+     */
+    private boolean done;
+
+    /**
+     * The constructor
+     *
+     * @param bucket
+     * @param view
+     * @param range
+     * @param pageSize
+     * @param stale
+     * @param concurrency
+     * @param keysOnly
+     * @param limit
+     */
+    public ViewScanSource(Bucket bucket, String view, ViewRange range, int pageSize, String stale, int concurrency, boolean keysOnly, Integer limit) {
+
+        this.bucket = bucket;
+        this.view = view;
+        this.range = range == null ? new ViewRange(null, null) : range;
+        this.pageSize = pageSize;
+        this.stale = stale;
+        this.concurrency = concurrency;
+        this.keysOnly = keysOnly;
+        this.limit = limit;
+        this.done = this.range.isEmpty();
+    }
+
+    @Override
+    public ByteBuf next() {
+
+        while (!done) {
+
+            if (limit != null && emitted >= limit) {
+
+                done = true;
+                return null;
+            }
+
+            if (ids == null) {
+
+                List<String> page = readPage();
+                ids = page.iterator();
+
+                if (!keysOnly) {
+                    docs = new KeyLookupSource(bucket.async(), page, concurrency, limit == null ? null : limit - emitted);
+                }
+            }
+
+            ByteBuf record = null;
+
+            if (docs != null) {
+
+                record = docs.next();
+                key = docs.key();
+
+            } else if (ids.hasNext()) {
+
+                key = ids.next();
+                record = Unpooled.wrappedBuffer(EMPTY_DOC);
+            }
+
+            if (record != null) {
+
+                emitted++;
+                return record;
+            }
+
+            if (docs != null) {
+                docs.close();
+                docs = null;
+            }
+
+            ids = null;
+            done = lastPage;
+        }
+
+        return null;
+    }
+
+    /**
+     * Read the next page of rows
+     *
+     * @return The document keys of the rows
+     */
+    private List<String> readPage() {
+
+        int pageLimit = limit == null ? pageSize : Math.min(pageSize, limit - emitted);
+
+        ViewQuery query = ViewUtil.query(view, stale).reduce(false).limit(pageLimit);
+
+        if (lastId != null && lastKey == null) {
+
+            //A null key can't be passed as start key, but all rows so far had it
+            query.skip(rowsRead);
+
+        } else if (lastId != null) {
+
+            ViewUtil.startKey(query, lastKey).startKeyDocId(lastId).skip(1);
+
+        } else if (range.getStart() != null) {
+
+            ViewUtil.startKey(query, ViewUtil.fromJson(range.getStart()));
+        }
+
+        if (range.getEnd() != null) {
+            ViewUtil.endKey(query, ViewUtil.fromJson(range.getEnd()));
+        }
+
+        LOG.debug("Querying: " + query);
+
+        List<ViewRow> rows;
+
+        try {
+
+            rows = ViewUtil.rows(bucket, query);
+
+        } catch (RuntimeException e) {
+
+            done = true;
+
+            ViewReadError err = new ViewReadError(e, bucket.name(), view);
+            LOG.error(err.toString());
+            throw err;
+        }
+
+        List<String> result = new ArrayList<>(rows.size());
+
+        for (ViewRow row : rows) {
+            result.add(row.id());
+        }
+
+        if (!rows.isEmpty()) {
+
+            ViewRow last = rows.get(rows.size() - 1);
+            lastKey = last.key();
+            lastId = last.id();
+        }
+
+        rowsRead += rows.size();
+        lastPage = rows.size() < pageLimit;
+
+        return result;
+    }
+
+    @Override
+    public String key() {
+
+        return key;
+    }
+
+    @Override
+    public void close() {
+
+        if (docs != null) {
+            docs.close();
+            docs = null;
+        }
+    }
+}
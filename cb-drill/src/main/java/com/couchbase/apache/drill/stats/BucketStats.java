@@ -0,0 +1,86 @@
+/*
+ * Copyright 2015 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.apache.drill.stats;
+
+/**
+ * The statistics of a bucket which are relevant for the planner
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class BucketStats {
+
+    /**
+     * The number of documents
+     */
+    private final long itemCount;
+
+    /**
+     * The average size of a document in bytes
+     */
+    private final double avgDocSize;
+
+    /**
+     * When the statistics were retrieved
+     */
+    private final long timestamp;
+
+    /**
+     * The constructor
+     *
+     * @param itemCount
+     * @param avgDocSize
+     */
+    public BucketStats(long itemCount, double avgDocSize) {
+
+        this.itemCount = itemCount;
+        this.avgDocSize = avgDocSize;
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    public long getItemCount() {
+        return itemCount;
+    }
+
+    public double getAvgDocSize() {
+        return avgDocSize;
+    }
+
+    /**
+     * The number of documents per vBucket, assuming that the keys are
+     * distributed evenly
+     *
+     * @param numVBuckets
+     * @return
+     */
+    public double getItemCountPerVBucket(int numVBuckets) {
+        return (double) itemCount / numVBuckets;
+    }
+
+    /**
+     * Check if the statistics are older than the given time to live
+     *
+     * @param ttl The time to live in milliseconds
+     * @return
+     */
+    public boolean isExpired(long ttl) {
+        return System.currentTimeMillis() - timestamp > ttl;
+    }
+
+    @Override
+    public String toString() {
+        return "{itemCount=" + itemCount + ", avgDocSize=" + avgDocSize + "}";
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2015 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.apache.drill.stats;
+
+import com.couchbase.apache.drill.config.CouchbaseConfig;
+import com.couchbase.apache.drill.conn.CBConnectionRegistry;
+import com.couchbase.apache.drill.error.BucketStatsRetrievalError;
+import com.couchbase.client.core.message.ResponseStatus;
+import com.couchbase.client.core.message.config.ClusterConfigRequest;
+import com.couchbase.client.core.message.config.ClusterConfigResponse;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.log4j.Logger;
+
+/**
+ * Caches the statistics of the buckets
+ *
+ * The item count and the data size are taken from the basic statistics of
+ * the bucket list of the cluster manager. The statistics are refreshed after
+ * the configured time to live. Every storage plug-in instance has its own
+ * cache.
+ *
+ * A failed refresh is remembered for the time to live as well. Planning then
+ * goes on with the previous statistics, or without any, instead of asking the
+ * cluster manager again for every query.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class BucketStatsCache {
+
+    private static final Logger LOG = Logger.getLogger(BucketStatsCache.class.getName());
+
+    /**
+     * The assumed size of a document if the bucket is empty
+     */
+    private static final double DEFAULT_DOC_SIZE = 1024;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * The connections of the plug-in
+     */
+    private final CBConnectionRegistry connections;
+
+    /**
+     * The statistics per bucket name
+     */
+    private final Map<String, BucketStats> stats = new ConcurrentHashMap<>();
+
+    /**
+     * When the last refresh for a bucket failed, per bucket name
+     */
+    private final Map<String, Long> failedAt = new ConcurrentHashMap<>();
+
+    /**
+     * The constructor
+     *
+     * @param connections
+     */
+    public BucketStatsCache(CBConnectionRegistry connections) {
+
+        this.connections = connections;
+    }
+
+    /**
+     * Get the statistics of a bucket
+     *
+     * @param bucket
+     * @return The statistics or null if they could not be retrieved
+     */
+    public BucketStats getStats(String bucket) {
+
+        CouchbaseConfig cfg = connections.getConfig();
+        BucketStats current = stats.get(bucket);
+        long ttl = cfg.getStatsTtl() * 1000L;
+
+        if ((current == null || current.isExpired(ttl)) && !hasFailed(bucket, ttl)) {
+
+            try {
+
+                refresh(cfg, bucket);
+
+            } catch (BucketStatsRetrievalError err) {
+
+                //Planning should not fail because of missing statistics
+                LOG.error(err.toString());
+                failedAt.put(bucket, System.currentTimeMillis());
+            }
+
+            current = stats.get(bucket);
+        }
+
+        LOG.debug("stats = " + current);
+
+        return current;
+    }
+
+    /**
+     * Check if the last refresh for a bucket failed within the time to live
+     *
+     * @param bucket
+     * @param ttl The time to live in milliseconds
+     * @return
+     */
+    private boolean hasFailed(String bucket, long ttl) {
+
+        Long failed = failedAt.get(bucket);
+
+        return failed != null && System.currentTimeMillis() - failed <= ttl;
+    }
+
+    /**
+     * Get the current statistics of a bucket, regardless of the time to live
+     *
+     * @param bucket
+     * @return
+     */
+    public BucketStats getCurrentStats(String bucket) {
+
+        try {
+
+            refresh(connections.getConfig(), bucket);
+
+        } catch (BucketStatsRetrievalError err) {
+
+            LOG.error(err.toString());
+            throw err;
+        }
+
+        BucketStats current = stats.get(bucket);
+
+        if (current == null) {
+
+            BucketStatsRetrievalError err = new BucketStatsRetrievalError(new IllegalStateException("Unknown bucket"), bucket);
+            LOG.error(err.toString());
+            throw err;
+        }
+
+        return current;
+    }
+
+    /**
+     * Retrieve the statistics of all buckets
+     *
+     * @param cfg
+     * @param bucket The bucket which is requested
+     */
+    private void refresh(CouchbaseConfig cfg, String bucket) {
+
+        try {
+
+            ClusterConfigResponse resp = connections.getBucket(bucket).core()
+                    .<ClusterConfigResponse>send(new ClusterConfigRequest(cfg.getAdminUser(), cfg.getAdminPassword()))
+                    .toBlocking().single();
+
+            if (resp.status() != ResponseStatus.SUCCESS) {
+                throw new IllegalStateException("Status " + resp.status());
+            }
+
+            for (JsonNode node : MAPPER.readTree(resp.config())) {
+
+                long itemCount = node.path("basicStats").path("itemCount").asLong();
+                long dataUsed = node.path("basicStats").path("dataUsed").asLong();
+
+                stats.put(node.path("name").asText(), new BucketStats(itemCount, itemCount > 0 ? (double) dataUsed / itemCount : DEFAULT_DOC_SIZE));
+            }
+
+            //The statistics of all buckets were refreshed
+            failedAt.clear();
+
+        } catch (IOException | RuntimeException e) {
+
+            throw new BucketStatsRetrievalError(e, bucket);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2015 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.apache.drill.view;
+
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.view.DesignDocument;
+import com.couchbase.client.java.view.Stale;
+import com.couchbase.client.java.view.View;
+import com.couchbase.client.java.view.ViewQuery;
+import com.couchbase.client.java.view.ViewResult;
+import com.couchbase.client.java.view.ViewRow;
+import java.util.List;
+
+/**
+ * Helpers to query the map/reduce views of a bucket
+ *
+ * A view is referenced as design/view. View keys are passed around as JSON,
+ * because they can be of any JSON type.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class ViewUtil {
+
+    /**
+     * Separates the design document from the view
+     */
+    public static final char SEPARATOR = '/';
+
+    /**
+     * The built-in reduce function which counts the rows
+     */
+    public static final String COUNT_REDUCE = "_count";
+
+    /**
+     * Check if the name has the form design/view
+     *
+     * @param name
+     * @return
+     */
+    public static boolean isView(String name) {
+
+        int slash = name.indexOf(SEPARATOR);
+
+        return slash > 0 && slash < name.length() - 1 && name.indexOf(SEPARATOR, slash + 1) < 0;
+    }
+
+    /**
+     * Create a query of the view
+     *
+     * @param view The view as design/view
+     * @param stale The staleness as ok, false or update_after
+     * @return
+     */
+    public static ViewQuery query(String view, String stale) {
+
+        int slash = view.indexOf(SEPARATOR);
+
+        return ViewQuery.from(view.substring(0, slash), view.substring(slash + 1))
+                .stale(stale(stale));
+    }
+
+    /**
+     * Execute a view query
+     *
+     * @param bucket
+     * @param query
+     * @return The rows
+     */
+    public static List<ViewRow> rows(Bucket bucket, ViewQuery query) {
+
+        ViewResult result = bucket.query(query);
+        List<ViewRow> rows = result.allRows();
+
+        if (!result.success()) {
+            throw new IllegalStateException("The view query failed: " + result.error());
+        }
+
+        return rows;
+    }
+
+    /**
+     * Get the number of map rows of a view
+     *
+     * @param bucket
+     * @param query
+     * @return
+     */
+    public static int totalRows(Bucket bucket, ViewQuery query) {
+
+        ViewResult result = bucket.query(query);
+        result.allRows();
+
+        if (!result.success()) {
+            throw new IllegalStateException("The view query failed: " + result.error());
+        }
+
+        return result.totalRows();
+    }
+
+    /**
+     * Get the reduce function of a view
+     *
+     * @param bucket
+     * @param view The view as design/view
+     * @return The reduce function or null if the view has none
+     */
+    public static String reduceOf(Bucket bucket, String view) {
+
+        int slash = view.indexOf(SEPARATOR);
+        String name = view.substring(slash + 1);
+
+        DesignDocument design = bucket.bucketManager().getDesignDocument(view.substring(0, slash));
+
+        if (design == null) {
+            throw new IllegalArgumentException("The design document of " + view + " does not exist");
+        }
+
+        for (View v : design.views()) {
+
+            if (v.name().equals(name)) return v.hasReduce() ? v.reduce().trim() : null;
+        }
+
+        throw new IllegalArgumentException("The view " + view + " does not exist");
+    }
+
+    /**
+     * Let the query start at the given key
+     *
+     * @param query
+     * @param key
+     * @return
+     */
+    public static ViewQuery startKey(ViewQuery query, Object key) {
+
+        if (key instanceof String) return query.startKey((String) key);
+        if (key instanceof Integer || key instanceof Long) return query.startKey(((Number) key).longValue());
+        if (key instanceof Number) return query.startKey(((Number) key).doubleValue());
+        if (key instanceof Boolean) return query.startKey((Boolean) key);
+        if (key instanceof JsonObject) return query.startKey((JsonObject) key);
+        if (key instanceof JsonArray) return query.startKey((JsonArray) key);
+
+        //Null is the lowest key
+        return query;
+    }
+
+    /**
+     * Let the query end before the given key
+     *
+     * @param query
+     * @param key Not null
+     * @return
+     */
+    public static ViewQuery endKey(ViewQuery query, Object key) {
+
+        query.inclusiveEnd(false);
+
+        if (key instanceof String) return query.endKey((String) key);
+        if (key instanceof Integer || key instanceof Long) return query.endKey(((Number) key).longValue());
+        if (key instanceof Number) return query.endKey(((Number) key).doubleValue());
+        if (key instanceof Boolean) return query.endKey((Boolean) key);
+        if (key instanceof JsonObject) return query.endKey((JsonObject) key);
+        if (key instanceof JsonArray) return query.endKey((JsonArray) key);
+
+        throw new IllegalArgumentException("Unsupported view key " + key);
+    }
+
+    /**
+     * Render a view key as JSON
+     *
+     * @param key
+     * @return
+     */
+    public static String toJson(Object key) {
+
+        String array = JsonArray.create().add(key).toString();
+
+        return array.substring(1, array.length() - 1);
+    }
+
+    /**
+     * Parse a view key from JSON
+     *
+     * @param json
+     * @return
+     */
+    public static Object fromJson(String json) {
+
+        return JsonArray.fromJson("[" + json + "]").get(0);
+    }
+
+    /**
+     * Get the staleness by its identifier
+     *
+     * @param identifier
+     * @return
+     */
+    private static Stale stale(String identifier) {
+
+        for (Stale s : Stale.values()) {
+
+            if (s.identifier().equals(identifier)) return s;
+        }
+
+        return Stale.UPDATE_AFTER;
+    }
+}
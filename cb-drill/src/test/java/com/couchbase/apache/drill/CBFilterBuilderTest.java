@@ -0,0 +1,256 @@
+/*
+ * Copyright 2015 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.apache.drill;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.apache.drill.common.expression.BooleanOperator;
+import org.apache.drill.common.expression.ExpressionPosition;
+import org.apache.drill.common.expression.FunctionCall;
+import org.apache.drill.common.expression.LogicalExpression;
+import org.apache.drill.common.expression.SchemaPath;
+import org.apache.drill.common.expression.ValueExpressions;
+import org.junit.Test;
+
+/**
+ * Tests the translation of filters into N1QL conditions
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class CBFilterBuilderTest {
+
+    private static LogicalExpression call(String name, LogicalExpression... args) {
+
+        return new FunctionCall(name, Arrays.asList(args), ExpressionPosition.UNKNOWN);
+    }
+
+    private static LogicalExpression and(LogicalExpression... args) {
+
+        return new BooleanOperator("booleanAnd", Arrays.asList(args), ExpressionPosition.UNKNOWN);
+    }
+
+    private static LogicalExpression or(LogicalExpression... args) {
+
+        return new BooleanOperator("booleanOr", Arrays.asList(args), ExpressionPosition.UNKNOWN);
+    }
+
+    private static LogicalExpression field(String... path) {
+
+        return SchemaPath.getCompoundPath(path);
+    }
+
+    private static LogicalExpression str(String value) {
+
+        return ValueExpressions.getChar(value);
+    }
+
+    private static LogicalExpression num(long value) {
+
+        return ValueExpressions.getBigInt(value);
+    }
+
+    /**
+     * A function which can't be pushed down
+     */
+    private static LogicalExpression unknown() {
+
+        return call("equal", call("lower", field("name")), str("ale"));
+    }
+
+    private static CBFilterBuilder parse(LogicalExpression e) {
+
+        CBFilterBuilder builder = new CBFilterBuilder(e);
+        builder.parseTree();
+
+        return builder;
+    }
+
+    private static String where(LogicalExpression e) {
+
+        return new CBFilterBuilder(e).parseTree();
+    }
+
+    @Test
+    public void testComparisons() {
+
+        assertEquals("b.`abv` = 5", where(call("equal", field("abv"), num(5))));
+        assertEquals("b.`abv` != 5", where(call("not_equal", field("abv"), num(5))));
+        assertEquals("b.`abv` > 5", where(call("greater_than", field("abv"), num(5))));
+        assertEquals("b.`abv` >= 5", where(call("greater_than_or_equal_to", field("abv"), num(5))));
+        assertEquals("b.`abv` < 5", where(call("less_than", field("abv"), num(5))));
+        assertEquals("b.`abv` <= 5", where(call("less_than_or_equal_to", field("abv"), num(5))));
+        assertEquals("b.`type` = \"beer\"", where(call("equal", field("type"), str("beer"))));
+        assertEquals("b.`brewery`.`geo`.`lat` > 30", where(call("greater_than", field("brewery", "geo", "lat"), num(30))));
+    }
+
+    @Test
+    public void testSwappedComparison() {
+
+        assertEquals("b.`abv` < 5", where(call("greater_than", num(5), field("abv"))));
+        assertEquals("b.`abv` >= 5", where(call("less_than_or_equal_to", num(5), field("abv"))));
+    }
+
+    @Test
+    public void testEscapedString() {
+
+        assertEquals("b.`name` = \"21\\\" \\\\ IPA\"", where(call("equal", field("name"), str("21\" \\ IPA"))));
+    }
+
+    @Test
+    public void testLike() {
+
+        assertEquals("b.`name` LIKE \"Pale%\"", where(call("like", field("name"), str("Pale%"))));
+
+        //The pattern has to be a string on the right side
+        CBFilterBuilder builder = parse(call("like", str("Pale%"), field("name")));
+        assertFalse(builder.isAllExpressionsConverted());
+    }
+
+    @Test
+    public void testValued() {
+
+        assertEquals("b.`abv` IS NOT VALUED", where(call("isnull", field("abv"))));
+        assertEquals("b.`abv` IS VALUED", where(call("isnotnull", field("abv"))));
+    }
+
+    @Test
+    public void testOrOfEqualitiesBecomesIn() {
+
+        assertEquals("b.`style` IN [\"Stout\", \"Porter\"]",
+                where(or(call("equal", field("style"), str("Stout")), call("equal", str("Porter"), field("style")))));
+    }
+
+    @Test
+    public void testOrOfDifferentFields() {
+
+        assertEquals("(b.`style` = \"Stout\") OR (b.`abv` > 8)",
+                where(or(call("equal", field("style"), str("Stout")), call("greater_than", field("abv"), num(8)))));
+    }
+
+    @Test
+    public void testAndKeepsTranslatableParts() {
+
+        CBFilterBuilder builder = new CBFilterBuilder(and(call("equal", field("type"), str("beer")), unknown()));
+
+        assertEquals("(b.`type` = \"beer\")", builder.parseTree());
+        assertFalse(builder.isAllExpressionsConverted());
+    }
+
+    @Test
+    public void testOrWithUnknownPart() {
+
+        CBFilterBuilder builder = new CBFilterBuilder(or(call("equal", field("type"), str("beer")), unknown()));
+
+        assertNull(builder.parseTree());
+        assertFalse(builder.isAllExpressionsConverted());
+    }
+
+    @Test
+    public void testKeyEquality() {
+
+        CBFilterBuilder builder = new CBFilterBuilder(call("equal", field("_key"), str("beer_1")));
+
+        assertEquals("META(b).id = \"beer_1\"", builder.parseTree());
+        assertTrue(builder.isAllExpressionsConverted());
+        assertEquals(Arrays.asList("beer_1"), builder.getKeys());
+        assertTrue(builder.isKeysOnly());
+    }
+
+    @Test
+    public void testOrOfKeys() {
+
+        CBFilterBuilder builder = parse(or(call("equal", field("_key"), str("beer_1")), call("equal", field("_key"), str("beer_2"))));
+
+        assertEquals(Arrays.asList("beer_1", "beer_2"), builder.getKeys());
+        assertTrue(builder.isKeysOnly());
+    }
+
+    @Test
+    public void testAndWithKey() {
+
+        CBFilterBuilder builder = parse(and(call("equal", field("_key"), str("beer_1")), call("greater_than", field("abv"), num(5))));
+
+        assertEquals(Arrays.asList("beer_1"), builder.getKeys());
+        assertFalse(builder.isKeysOnly());
+    }
+
+    @Test
+    public void testAndOfKeyLists() {
+
+        CBFilterBuilder builder = parse(and(
+                or(call("equal", field("_key"), str("a")), call("equal", field("_key"), str("b"))),
+                or(call("equal", field("_key"), str("b")), call("equal", field("_key"), str("c")))));
+
+        assertEquals(Arrays.asList("b"), builder.getKeys());
+        assertFalse(builder.isKeysOnly());
+    }
+
+    @Test
+    public void testOrWithoutKey() {
+
+        CBFilterBuilder builder = parse(or(call("equal", field("_key"), str("beer_1")), call("equal", field("type"), str("beer"))));
+
+        assertNull(builder.getKeys());
+        assertFalse(builder.isKeysOnly());
+    }
+
+    @Test
+    public void testKeyRangeIsNoKeyList() {
+
+        CBFilterBuilder builder = parse(call("greater_than", field("_key"), str("beer_1")));
+
+        assertNull(builder.getKeys());
+        assertFalse(builder.isKeysOnly());
+    }
+
+    @Test
+    public void testRanges() {
+
+        CBFilterBuilder builder = parse(and(
+                call("greater_than", field("abv"), num(5)),
+                call("less_than_or_equal_to", num(8), field("abv")),
+                call("equal", field("type"), str("beer")),
+                call("not_equal", field("style"), str("Stout")),
+                call("like", field("name"), str("Pale%")),
+                call("equal", field("_key"), str("beer_1"))));
+
+        Map<String, String> expected = new LinkedHashMap<>();
+        expected.put("b.`abv`", "b.`abv` > 5 AND b.`abv` >= 8");
+        expected.put("b.`type`", "b.`type` = \"beer\"");
+
+        assertEquals(expected, builder.getRanges());
+    }
+
+    @Test
+    public void testSingleRange() {
+
+        Map<String, String> expected = new LinkedHashMap<>();
+        expected.put("b.`abv`", "b.`abv` < 5");
+
+        assertEquals(expected, parse(call("less_than", field("abv"), num(5))).getRanges());
+    }
+
+    @Test
+    public void testNoRangesInOr() {
+
+        assertNull(parse(or(call("greater_than", field("abv"), num(5)), call("less_than", field("ibu"), num(10)))).getRanges());
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2015 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.apache.drill.n1ql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import org.junit.Test;
+
+/**
+ * Tests the keys of the cached prepared statements
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class N1qlPreparedCacheTest {
+
+    @Test
+    public void testWhiteSpacesAreCollapsed() {
+
+        assertEquals("default::SELECT b.* FROM `default` b WHERE b.x = 1",
+                N1qlPreparedCache.key("default", "  SELECT b.*\n FROM `default` b\tWHERE  b.x = 1 \n"));
+    }
+
+    @Test
+    public void testSameStatementSameKey() {
+
+        assertEquals(N1qlPreparedCache.key("default", "SELECT 1 FROM `default` b"),
+                N1qlPreparedCache.key("default", "SELECT  1\nFROM `default` b"));
+    }
+
+    @Test
+    public void testBucketIsPartOfTheKey() {
+
+        assertNotEquals(N1qlPreparedCache.key("a", "SELECT 1"), N1qlPreparedCache.key("b", "SELECT 1"));
+    }
+
+    @Test
+    public void testQuotedWhiteSpacesAreKept() {
+
+        assertEquals("default::SELECT b.`a  b` FROM `default` b WHERE b.x = 'x  y' OR b.y = \"\t\"",
+                N1qlPreparedCache.key("default", "SELECT b.`a  b` FROM `default` b WHERE b.x = 'x  y' OR b.y = \"\t\""));
+
+        assertNotEquals(N1qlPreparedCache.key("default", "SELECT 'a  b'"), N1qlPreparedCache.key("default", "SELECT 'a b'"));
+    }
+
+    @Test
+    public void testEscapedQuotes() {
+
+        //The escaped quote doesn't end the literal, so its white spaces are kept
+        assertEquals("default::SELECT 'it\\'s  ok' FROM x",
+                N1qlPreparedCache.key("default", "SELECT 'it\\'s  ok'  FROM  x"));
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2015 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.apache.drill.n1ql;
+
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * Tests the generated N1QL statements
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class N1qlStatementBuilderTest {
+
+    @Test
+    public void testDefaults() {
+
+        assertEquals("SELECT b.* FROM `beer-sample` b", new N1qlStatementBuilder("beer-sample").build());
+    }
+
+    @Test
+    public void testSelect() {
+
+        assertEquals("SELECT META(b).id AS `_key` FROM `default` b",
+                new N1qlStatementBuilder("default").select(N1qlUtil.KEY_SELECT).build());
+    }
+
+    @Test
+    public void testSingleCondition() {
+
+        assertEquals("SELECT b.* FROM `default` b WHERE b.`type` = 'beer'",
+                new N1qlStatementBuilder("default").where("b.`type` = 'beer'").build());
+    }
+
+    @Test
+    public void testConditionsAreCombined() {
+
+        assertEquals("SELECT b.* FROM `default` b WHERE (b.`type` = 'beer') AND (b.abv > 5 OR b.ibu > 50)",
+                new N1qlStatementBuilder("default")
+                        .where("b.`type` = 'beer'")
+                        .where(null)
+                        .where("b.abv > 5 OR b.ibu > 50")
+                        .build());
+    }
+
+    @Test
+    public void testUseIndex() {
+
+        assertEquals("SELECT b.* FROM `default` b USE INDEX (`by_type` USING GSI) WHERE b.`type` = 'beer'",
+                new N1qlStatementBuilder("default").useIndex("by_type").where("b.`type` = 'beer'").build());
+
+        assertEquals("SELECT b.* FROM `default` b",
+                new N1qlStatementBuilder("default").useIndex(null).build());
+    }
+
+    @Test
+    public void testClauseOrder() {
+
+        assertEquals("SELECT b.`type`, COUNT(*) FROM `default` b WHERE b.abv > 5 GROUP BY b.`type` ORDER BY b.`type` LIMIT 10",
+                new N1qlStatementBuilder("default")
+                        .limit(10)
+                        .orderBy("b.`type`")
+                        .groupBy("b.`type`")
+                        .where("b.abv > 5")
+                        .select("b.`type`, COUNT(*)")
+                        .build());
+    }
+
+    @Test
+    public void testLimit() {
+
+        assertEquals("SELECT b.* FROM `default` b LIMIT $limit",
+                new N1qlStatementBuilder("default").limit("$limit").build());
+
+        assertEquals("SELECT b.* FROM `default` b",
+                new N1qlStatementBuilder("default").limit(10).limit((Integer) null).build());
+    }
+}
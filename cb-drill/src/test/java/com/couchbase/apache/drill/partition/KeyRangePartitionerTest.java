@@ -0,0 +1,201 @@
+/*
+ * Copyright 2015 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.apache.drill.partition;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Tests the split of the key space into ranges
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class KeyRangePartitionerTest {
+
+    private static final List<String> SAMPLE = Arrays.asList("a", "b", "c", "d", "e", "f", "g", "h", "i", "j");
+
+    /**
+     * Simulates the lookups of the primary index and counts them
+     */
+    private static UnaryOperator<String> index(TreeSet<String> keys, AtomicInteger lookups) {
+
+        return probe -> {
+
+            lookups.incrementAndGet();
+            return keys.ceiling(probe);
+        };
+    }
+
+    private static TreeSet<String> keys(String prefix, int count) {
+
+        TreeSet<String> keys = new TreeSet<>(KeyRangePartitioner.KEY_ORDER);
+
+        for (int i = 1; i <= count; i++) {
+            keys.add(prefix + i);
+        }
+
+        return keys;
+    }
+
+    /**
+     * Every key has to be part of exactly one range
+     */
+    private static void assertPartition(List<KeyRange> ranges, List<String> keys) {
+
+        for (String key : keys) {
+
+            int count = 0;
+
+            for (KeyRange range : ranges) {
+                if (range.contains(key)) count++;
+            }
+
+            assertEquals("Ranges of " + key, 1, count);
+        }
+    }
+
+    @Test
+    public void testSplit() {
+
+        List<KeyRange> ranges = KeyRangePartitioner.split(SAMPLE, 3);
+
+        assertEquals(Arrays.asList(new KeyRange(null, "d"), new KeyRange("d", "g"), new KeyRange("g", null)), ranges);
+        assertPartition(ranges, Arrays.asList("", "0", "a", "c", "cz", "d", "f", "g", "j", "z", "\u00e9"));
+    }
+
+    @Test
+    public void testSplitIntoOne() {
+
+        assertEquals(Arrays.asList(new KeyRange(null, null)), KeyRangePartitioner.split(SAMPLE, 1));
+    }
+
+    @Test
+    public void testSplitSmallSample() {
+
+        List<KeyRange> ranges = KeyRangePartitioner.split(Arrays.asList("a", "b"), 4);
+
+        assertEquals(4, ranges.size());
+        assertEquals(null, ranges.get(0).getStart());
+        assertEquals(null, ranges.get(3).getEnd());
+        assertPartition(ranges, Arrays.asList("", "a", "aa", "b", "c"));
+    }
+
+    @Test
+    public void testSplitEmptySample() {
+
+        List<KeyRange> ranges = KeyRangePartitioner.split(Collections.<String>emptyList(), 3);
+
+        assertEquals(Arrays.asList(new KeyRange(null, null), new KeyRange("", ""), new KeyRange("", "")), ranges);
+        assertPartition(ranges, Arrays.asList("", "a", "z"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSplitIntoNone() {
+
+        KeyRangePartitioner.split(SAMPLE, 0);
+    }
+
+    @Test
+    public void testKeyOrder() {
+
+        assertTrue(KeyRangePartitioner.KEY_ORDER.compare("ab", "abc") < 0);
+        assertTrue(KeyRangePartitioner.KEY_ORDER.compare("B", "a") < 0);
+        assertEquals(0, KeyRangePartitioner.KEY_ORDER.compare("abc", "abc"));
+
+        //UTF-16 would order the surrogate pair before U+FFFF
+        assertTrue(KeyRangePartitioner.KEY_ORDER.compare("\uffff", "\ud83d\ude00") < 0);
+        assertFalse("\uffff".compareTo("\ud83d\ude00") < 0);
+    }
+
+    @Test
+    public void testSample() {
+
+        TreeSet<String> keys = keys("airline_", 9999);
+        AtomicInteger lookups = new AtomicInteger();
+
+        List<String> sample = KeyRangePartitioner.sample(index(keys, lookups), 100);
+
+        assertTrue(sample.size() > 10);
+        assertTrue(sample.size() <= 100);
+        assertTrue(keys.containsAll(sample));
+        assertEquals(keys.first(), sample.get(0));
+
+        //Sorted and distinct
+        List<String> sorted = new ArrayList<>(new TreeSet<>(sample));
+        sorted.sort(KeyRangePartitioner.KEY_ORDER);
+        assertEquals(sorted, sample);
+
+        //The probes plus the search for the last key, not the whole index
+        assertTrue("lookups = " + lookups, lookups.get() <= 100 + 2 * "airline_".length() + 3 * 23);
+    }
+
+    @Test
+    public void testSampleSpread() {
+
+        TreeSet<String> keys = keys("airline_", 9999);
+
+        List<KeyRange> ranges = KeyRangePartitioner.split(KeyRangePartitioner.sample(index(keys, new AtomicInteger()), 100), 4);
+
+        for (KeyRange range : ranges) {
+
+            int count = 0;
+
+            for (String key : keys) {
+                if (range.contains(key)) count++;
+            }
+
+            assertTrue(range + " has " + count + " keys", count > keys.size() / 10);
+        }
+    }
+
+    @Test
+    public void testSampleSingleKey() {
+
+        TreeSet<String> keys = keys("user::", 1);
+
+        assertEquals(Arrays.asList("user::1"), KeyRangePartitioner.sample(index(keys, new AtomicInteger()), 100));
+    }
+
+    @Test
+    public void testSampleEmptyIndex() {
+
+        TreeSet<String> keys = new TreeSet<>(KeyRangePartitioner.KEY_ORDER);
+
+        assertTrue(KeyRangePartitioner.sample(index(keys, new AtomicInteger()), 100).isEmpty());
+    }
+
+    @Test
+    public void testSampleNonAscii() {
+
+        TreeSet<String> keys = keys("\u00e9t\u00e9_", 500);
+        keys.addAll(keys("\ud83d\ude00_", 500));
+
+        List<String> sample = KeyRangePartitioner.sample(index(keys, new AtomicInteger()), 50);
+
+        assertTrue(keys.containsAll(sample));
+        assertTrue(sample.contains(keys.first()));
+        assertTrue(sample.stream().anyMatch(k -> k.startsWith("\ud83d\ude00")));
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2015 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.apache.drill.partition;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Tests the boundaries of a key range
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class KeyRangeTest {
+
+    @Test
+    public void testStartIsInclusiveAndEndIsExclusive() {
+
+        KeyRange range = new KeyRange("b", "d");
+
+        assertFalse(range.contains("a"));
+        assertFalse(range.contains("az"));
+        assertTrue(range.contains("b"));
+        assertTrue(range.contains("cz"));
+        assertFalse(range.contains("d"));
+        assertFalse(range.contains("da"));
+    }
+
+    @Test
+    public void testUnbounded() {
+
+        assertTrue(new KeyRange(null, "b").contains(""));
+        assertFalse(new KeyRange(null, "b").contains("b"));
+        assertTrue(new KeyRange("b", null).contains("\ud83d\ude00"));
+        assertTrue(new KeyRange(null, null).contains("any"));
+    }
+
+    @Test
+    public void testEmpty() {
+
+        assertFalse(new KeyRange("", "").contains(""));
+        assertFalse(new KeyRange("b", "b").contains("b"));
+    }
+
+    @Test
+    public void testEquals() {
+
+        assertEquals(new KeyRange(null, "b"), new KeyRange(null, "b"));
+        assertEquals(new KeyRange(null, "b").hashCode(), new KeyRange(null, "b").hashCode());
+        assertNotEquals(new KeyRange(null, "b"), new KeyRange("", "b"));
+        assertEquals("[,b)", new KeyRange(null, "b").toString());
+    }
+}
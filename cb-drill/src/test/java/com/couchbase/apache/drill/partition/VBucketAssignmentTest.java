@@ -0,0 +1,134 @@
+/*
+ * Copyright 2015 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.apache.drill.partition;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Tests the assignment of vBuckets to fragments, local ones first
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class VBucketAssignmentTest {
+
+    /**
+     * A map of the given number of vBuckets whose masters are the given
+     * hosts in turn, each mastering a contiguous block
+     */
+    static VBucketMap map(int numVBuckets, String... hosts) {
+
+        String[] masters = new String[numVBuckets];
+
+        for (int vb = 0; vb < numVBuckets; vb++) {
+            masters[vb] = hosts[vb * hosts.length / numVBuckets];
+        }
+
+        return new VBucketMap(masters);
+    }
+
+    private static List<Integer> flatten(List<VBucketRange> ranges) {
+
+        List<Integer> vBuckets = new ArrayList<>();
+
+        for (VBucketRange range : ranges) {
+
+            for (int vb = range.getStart(); vb < range.getEnd(); vb++) {
+                vBuckets.add(vb);
+            }
+        }
+
+        return vBuckets;
+    }
+
+    @Test
+    public void testAssignLocalVBuckets() {
+
+        List<List<VBucketRange>> result = VBucketPartitioner.assign(map(8, "h1", "h2"), Arrays.asList("h1", "h2"));
+
+        assertEquals(Arrays.asList(new VBucketRange(0, 4)), result.get(0));
+        assertEquals(Arrays.asList(new VBucketRange(4, 8)), result.get(1));
+    }
+
+    @Test
+    public void testAssignBalancesRemoteVBuckets() {
+
+        List<List<VBucketRange>> result = VBucketPartitioner.assign(map(10, "h1"), Arrays.asList("h2", "h2", "h2"));
+
+        assertEquals(3, result.size());
+        assertEquals(4, flatten(result.get(0)).size());
+        assertEquals(3, flatten(result.get(1)).size());
+        assertEquals(3, flatten(result.get(2)).size());
+    }
+
+    @Test
+    public void testAssignEveryVBucketOnce() {
+
+        List<List<VBucketRange>> result = VBucketPartitioner.assign(map(64, "h1", "h2", "h3"), Arrays.asList("h1", "h1", "h2", "h4", "h4"));
+
+        List<Integer> all = new ArrayList<>();
+
+        for (List<VBucketRange> ranges : result) {
+            all.addAll(flatten(ranges));
+        }
+
+        Collections.sort(all);
+
+        List<Integer> expected = new ArrayList<>();
+
+        for (int vb = 0; vb < 64; vb++) {
+            expected.add(vb);
+        }
+
+        assertEquals(expected, all);
+    }
+
+    @Test
+    public void testAssignFillsUpWithRemoteVBuckets() {
+
+        //All vBuckets are local to the first fragment, but it may only take half of them
+        List<List<VBucketRange>> result = VBucketPartitioner.assign(map(8, "h1"), Arrays.asList("h1", "h2"));
+
+        assertEquals(Arrays.asList(new VBucketRange(0, 4)), result.get(0));
+        assertEquals(Arrays.asList(new VBucketRange(4, 8)), result.get(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAssignTooManyFragments() {
+
+        VBucketPartitioner.assign(map(2, "h1"), Arrays.asList("h1", "h1", "h1"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAssignNoFragments() {
+
+        VBucketPartitioner.assign(map(2, "h1"), Collections.<String>emptyList());
+    }
+
+    @Test
+    public void testToRanges() {
+
+        assertEquals(Arrays.asList(new VBucketRange(1, 4), new VBucketRange(5, 6), new VBucketRange(7, 8)),
+                VBucketPartitioner.toRanges(Arrays.asList(5, 1, 3, 2, 7)));
+
+        assertTrue(VBucketPartitioner.toRanges(Collections.<Integer>emptyList()).isEmpty());
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2015 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.apache.drill.partition;
+
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Tests the vBuckets of document keys, which the sub-scans filter by
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class VBucketKeyTest {
+
+    @Test
+    public void testContains() {
+
+        List<VBucketRange> ranges = Arrays.asList(new VBucketRange(0, 2), new VBucketRange(4, 6));
+
+        assertTrue(VBucketPartitioner.contains(ranges, 0));
+        assertTrue(VBucketPartitioner.contains(ranges, 5));
+        assertFalse(VBucketPartitioner.contains(ranges, 2));
+        assertFalse(VBucketPartitioner.contains(ranges, 6));
+    }
+
+    @Test
+    public void testVBucketOf() {
+
+        for (String key : Arrays.asList("", "a", "airline_10", "hotel::4711")) {
+
+            int vb = VBucketPartitioner.vBucketOf(key, 1024);
+
+            assertTrue(vb >= 0 && vb < 1024);
+            assertEquals(vb, VBucketPartitioner.vBucketOf(key, 1024));
+            assertEquals(vb % 64, VBucketPartitioner.vBucketOf(key, 64));
+        }
+    }
+}
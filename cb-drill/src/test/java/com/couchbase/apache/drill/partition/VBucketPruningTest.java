@@ -0,0 +1,61 @@
+/*
+ * Copyright 2015 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.apache.drill.partition;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Tests the pruning of the vBuckets to the ones of the looked up keys
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class VBucketPruningTest {
+
+    @Test
+    public void testAssignCandidates() {
+
+        List<List<VBucketRange>> result = VBucketPartitioner.assign(VBucketAssignmentTest.map(8, "h1", "h2"), Arrays.asList(1, 2, 5), Arrays.asList("h1", "h2"));
+
+        assertEquals(Arrays.asList(new VBucketRange(1, 3)), result.get(0));
+        assertEquals(Arrays.asList(new VBucketRange(5, 6)), result.get(1));
+    }
+
+    @Test
+    public void testAssignNoCandidates() {
+
+        List<List<VBucketRange>> result = VBucketPartitioner.assign(VBucketAssignmentTest.map(8, "h1"), Collections.<Integer>emptyList(), Arrays.asList("h1"));
+
+        assertEquals(1, result.size());
+        assertTrue(result.get(0).isEmpty());
+    }
+
+    @Test
+    public void testVBucketsOf() {
+
+        List<Integer> vBuckets = VBucketPartitioner.vBucketsOf(Arrays.asList("a", "b", "a"), 1024);
+
+        TreeSet<Integer> expected = new TreeSet<>(Arrays.asList(VBucketPartitioner.vBucketOf("a", 1024), VBucketPartitioner.vBucketOf("b", 1024)));
+
+        assertEquals(new ArrayList<>(expected), vBuckets);
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2015 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.apache.drill.partition;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Tests the boundaries of a vBucket range
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class VBucketRangeTest {
+
+    @Test
+    public void testEndIsExclusive() {
+
+        VBucketRange range = new VBucketRange(4, 8);
+
+        assertFalse(range.contains(3));
+        assertTrue(range.contains(4));
+        assertTrue(range.contains(7));
+        assertFalse(range.contains(8));
+        assertEquals(4, range.size());
+    }
+
+    @Test
+    public void testEmptyRange() {
+
+        VBucketRange range = new VBucketRange(5, 5);
+
+        assertEquals(0, range.size());
+        assertFalse(range.contains(5));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeStart() {
+
+        new VBucketRange(-1, 4);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEndBeforeStart() {
+
+        new VBucketRange(4, 3);
+    }
+
+    @Test
+    public void testEquals() {
+
+        assertEquals(new VBucketRange(0, 4), new VBucketRange(0, 4));
+        assertEquals(new VBucketRange(0, 4).hashCode(), new VBucketRange(0, 4).hashCode());
+        assertNotEquals(new VBucketRange(0, 4), new VBucketRange(0, 5));
+        assertEquals("[0,4)", new VBucketRange(0, 4).toString());
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2015 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.apache.drill.partition;
+
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Tests the ranges of a view which isn't split
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class ViewRangePartitionerTest {
+
+    @Test
+    public void testUnsplit() {
+
+        List<ViewRange> ranges = ViewRangePartitioner.unsplit(3);
+
+        assertEquals(3, ranges.size());
+        assertEquals(new ViewRange(null, null), ranges.get(0));
+        assertFalse(ranges.get(0).isEmpty());
+        assertTrue(ranges.get(1).isEmpty());
+        assertTrue(ranges.get(2).isEmpty());
+    }
+
+    @Test
+    public void testUnsplitIntoOne() {
+
+        List<ViewRange> ranges = ViewRangePartitioner.unsplit(1);
+
+        assertEquals(1, ranges.size());
+        assertEquals(new ViewRange(null, null), ranges.get(0));
+    }
+
+    @Test
+    public void testEmptyRanges() {
+
+        assertTrue(new ViewRange("\"a\"", "\"a\"").isEmpty());
+        assertTrue(new ViewRange(null, "null").isEmpty());
+        assertFalse(new ViewRange("\"a\"", "\"b\"").isEmpty());
+        assertFalse(new ViewRange("\"a\"", null).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSplitIntoNone() {
+
+        ViewRangePartitioner.split(null, "design/view", 0);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2015 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.apache.drill.schema;
+
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
+import java.util.Arrays;
+import org.apache.drill.common.types.TypeProtos.MinorType;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Tests how the fields of sample documents are merged into a schema
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class InferredSchemaTest {
+
+    private static InferredSchema infer(JsonObject... docs) {
+
+        return InferredSchema.infer(Arrays.asList(docs));
+    }
+
+    @Test
+    public void testScalarTypes() {
+
+        InferredSchema schema = infer(JsonObject.create()
+                .put("s", "a")
+                .put("b", true)
+                .put("i", 1)
+                .put("l", 1L << 40)
+                .put("d", 1.5)
+                .put("a", JsonArray.from(1, 2)));
+
+        assertEquals(MinorType.VARCHAR, schema.getType("s"));
+        assertEquals(MinorType.BIT, schema.getType("b"));
+        assertEquals(MinorType.BIGINT, schema.getType("i"));
+        assertEquals(MinorType.BIGINT, schema.getType("l"));
+        assertEquals(MinorType.FLOAT8, schema.getType("d"));
+        assertEquals(MinorType.LIST, schema.getType("a"));
+    }
+
+    @Test
+    public void testFieldsOfAllDocuments() {
+
+        InferredSchema schema = infer(JsonObject.create().put("x", 1), JsonObject.create().put("y", "a"));
+
+        assertEquals(MinorType.BIGINT, schema.getType("x"));
+        assertEquals(MinorType.VARCHAR, schema.getType("y"));
+        assertFalse(schema.hasField("z"));
+    }
+
+    @Test
+    public void testNullOnly() {
+
+        InferredSchema schema = infer(JsonObject.create().putNull("x"), JsonObject.create().putNull("x"));
+
+        assertTrue(schema.hasField("x"));
+        assertNull(schema.getType("x"));
+    }
+
+    @Test
+    public void testNullDoesNotChangeTheType() {
+
+        assertEquals(MinorType.VARCHAR, infer(JsonObject.create().putNull("x"), JsonObject.create().put("x", "a")).getType("x"));
+        assertEquals(MinorType.VARCHAR, infer(JsonObject.create().put("x", "a"), JsonObject.create().putNull("x")).getType("x"));
+    }
+
+    @Test
+    public void testConflict() {
+
+        InferredSchema schema = infer(
+                JsonObject.create().put("x", "a").put("n", 1),
+                JsonObject.create().put("x", 1).put("n", 1.5),
+                JsonObject.create().put("x", "b").put("n", 2));
+
+        //Once conflicting, always conflicting
+        assertTrue(schema.hasField("x"));
+        assertNull(schema.getType("x"));
+        assertNull(schema.getType("n"));
+    }
+
+    @Test
+    public void testNestedMapsAreMerged() {
+
+        InferredSchema schema = infer(
+                JsonObject.create().put("m", JsonObject.create().put("x", 1)),
+                JsonObject.create().put("m", JsonObject.create().put("y", "a").put("n", JsonObject.create().put("z", true))));
+
+        assertEquals(MinorType.MAP, schema.getType("m"));
+        assertEquals(MinorType.BIGINT, schema.getType("m", "x"));
+        assertEquals(MinorType.VARCHAR, schema.getType("m", "y"));
+        assertEquals(MinorType.BIT, schema.getType("m", "n", "z"));
+        assertFalse(schema.hasField("m", "w"));
+    }
+
+    @Test
+    public void testMapAfterNull() {
+
+        InferredSchema schema = infer(JsonObject.create().putNull("m"), JsonObject.create().put("m", JsonObject.create().put("x", 1)));
+
+        assertEquals(MinorType.MAP, schema.getType("m"));
+        assertEquals(MinorType.BIGINT, schema.getType("m", "x"));
+    }
+
+    @Test
+    public void testMapConflictsWithScalar() {
+
+        InferredSchema schema = infer(
+                JsonObject.create().put("m", JsonObject.create().put("x", 1)),
+                JsonObject.create().put("m", "a"));
+
+        assertNull(schema.getType("m"));
+        assertFalse(schema.hasField("m", "x"));
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2015 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.apache.drill.view;
+
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.view.ViewQuery;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Tests the view names and the JSON rendering of view keys
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class ViewUtilTest {
+
+    @Test
+    public void testIsView() {
+
+        assertTrue(ViewUtil.isView("design/view"));
+        assertFalse(ViewUtil.isView("view"));
+        assertFalse(ViewUtil.isView("/view"));
+        assertFalse(ViewUtil.isView("design/"));
+        assertFalse(ViewUtil.isView("a/b/c"));
+    }
+
+    @Test
+    public void testQuery() {
+
+        ViewQuery query = ViewUtil.query("design/view", "false");
+
+        assertEquals("design", query.getDesign());
+        assertEquals("view", query.getView());
+    }
+
+    @Test
+    public void testToJson() {
+
+        assertEquals("\"a\"", ViewUtil.toJson("a"));
+        assertEquals("\"say \\\"hi\\\"\"", ViewUtil.toJson("say \"hi\""));
+        assertEquals("42", ViewUtil.toJson(42));
+        assertEquals("true", ViewUtil.toJson(true));
+        assertEquals("null", ViewUtil.toJson(null));
+        assertEquals("[\"a\",1]", ViewUtil.toJson(JsonArray.from("a", 1)));
+    }
+
+    @Test
+    public void testFromJson() {
+
+        assertEquals("a", ViewUtil.fromJson("\"a\""));
+        assertEquals(42, ViewUtil.fromJson("42"));
+        assertEquals(true, ViewUtil.fromJson("true"));
+        assertNull(ViewUtil.fromJson("null"));
+    }
+
+    @Test
+    public void testRoundTrip() {
+
+        Object[] keys = {"a", "say \"hi\"", "\u00e9", 42, 4.5, false, null,
+            JsonArray.from("a", 1), JsonObject.create().put("x", "y")};
+
+        for (Object key : keys) {
+
+            assertEquals(key, ViewUtil.fromJson(ViewUtil.toJson(key)));
+        }
+    }
+}